@@ -0,0 +1,146 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ServerSocketFactory;
+
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/**
+ * In-process server for the benchmarks. {@code /small} answers 1 KiB, {@code /large} 1 MiB
+ * and other paths whatever was {@link #serve registered}, ignoring the query string.
+ * Accepted sockets disable Nagle's algorithm; otherwise MockWebServer's separate header and
+ * body writes meet the client's delayed ACK and every call costs 40ms.
+ */
+public class BenchmarkServer {
+    public static final int SMALL = 1024;
+    public static final int LARGE = 1024 * 1024;
+
+    // Held so the level sticks; MockWebServer logs every request at INFO.
+    private static final Logger LOGGER = Logger.getLogger(MockWebServer.class.getName());
+
+    private final MockWebServer mServer = new MockWebServer();
+    private final Map<String, Buffer> mBodies = new ConcurrentHashMap<>();
+    private final Map<String, String> mContentTypes = new ConcurrentHashMap<>();
+    private final Map<String, WebSocketListener> mWebSockets = new ConcurrentHashMap<>();
+
+    public BenchmarkServer() {
+        LOGGER.setLevel(Level.WARNING);
+        serve("/small", body(SMALL));
+        serve("/large", body(LARGE));
+        mServer.setServerSocketFactory(new NoDelayServerSocketFactory());
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                WebSocketListener webSocket =
+                        mWebSockets.get(request.getRequestUrl().encodedPath());
+                if (webSocket != null) {
+                    return new MockResponse().withWebSocketUpgrade(webSocket);
+                }
+                Buffer body = mBodies.get(request.getRequestUrl().encodedPath());
+                if (body == null) {
+                    return new MockResponse().setResponseCode(404);
+                }
+                MockResponse response = new MockResponse().setBody(body.clone());
+                String contentType = mContentTypes.get(request.getRequestUrl().encodedPath());
+                if (contentType != null) {
+                    response.setHeader("Content-Type", contentType);
+                }
+                return response;
+            }
+        });
+    }
+
+    public void serve(String path, Buffer body) {
+        mBodies.put(path, body);
+    }
+
+    public void serve(String path, String contentType, Buffer body) {
+        mContentTypes.put(path, contentType);
+        mBodies.put(path, body);
+    }
+
+    /** Upgrades every request for {@code path} to a WebSocket handled by {@code listener}. */
+    public void serveWebSocket(String path, WebSocketListener listener) {
+        mWebSockets.put(path, listener);
+    }
+
+    public void start() throws IOException {
+        mServer.start();
+    }
+
+    public void shutdown() throws IOException {
+        mServer.shutdown();
+    }
+
+    public String url(String path) {
+        return mServer.url(path).toString();
+    }
+
+    public MockWebServer server() {
+        return mServer;
+    }
+
+    private static Buffer body(int size) {
+        Buffer buffer = new Buffer();
+        for (int i = 0; i < size; i++) {
+            buffer.writeByte('a' + i % 26);
+        }
+        return buffer;
+    }
+
+    private static final class NoDelayServerSocketFactory extends ServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new NoDelayServerSocket();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return createServerSocket(port, 50);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            return createServerSocket(port, backlog, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress address)
+                throws IOException {
+            ServerSocket socket = createServerSocket();
+            try {
+                socket.bind(new InetSocketAddress(address, port), backlog);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return socket;
+        }
+    }
+
+    private static final class NoDelayServerSocket extends ServerSocket {
+        NoDelayServerSocket() throws IOException {
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            Socket socket = super.accept();
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Dns;
+
+/**
+ * A {@link CachingDns} hit, from one thread and from four, over an upstream that answers
+ * without any I/O, so the score is the cache's own cost. A system lookup is micro- to
+ * milliseconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CachingDnsBenchmark {
+    private CachingDns mDns;
+
+    @Setup(Level.Trial)
+    public void setUp() throws UnknownHostException {
+        final List<InetAddress> addresses = Collections.singletonList(
+                InetAddress.getByAddress("example.com", new byte[]{10, 0, 0, 1}));
+        mDns = new CachingDns(new Dns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) {
+                return addresses;
+            }
+        }).ttl(1, TimeUnit.HOURS);
+        mDns.lookup("example.com");
+    }
+
+    @Benchmark
+    public List<InetAddress> hit() throws UnknownHostException {
+        return mDns.lookup("example.com");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<InetAddress> hitFromFourThreads() throws UnknownHostException {
+        return mDns.lookup("example.com");
+    }
+}
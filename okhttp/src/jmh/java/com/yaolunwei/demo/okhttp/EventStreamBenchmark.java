@@ -0,0 +1,101 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * Server-Sent Events throughput: {@link EventParser} alone over a buffered stream, and an
+ * {@link EventStream} end to end from the socket to the listener thread. Add {@code -prof gc}
+ * to see the allocation per event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventStreamBenchmark {
+    private static final int EVENTS = 10000;
+
+    private BenchmarkServer mServer;
+    private HTTP mHttp;
+    private Buffer mBody;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mBody = new Buffer();
+        for (int i = 0; i < EVENTS; i++) {
+            mBody.writeUtf8("id: ").writeUtf8(String.valueOf(i))
+                    .writeUtf8("\nevent: tick\ndata: {\"seq\":").writeUtf8(String.valueOf(i))
+                    .writeUtf8(",\"price\":101.25}\n\n");
+        }
+        mServer = new BenchmarkServer();
+        // Keeps the stream from reconnecting before the benchmark closes it.
+        mServer.serve("/events", "text/event-stream",
+                mBody.clone().writeUtf8("retry: 3600000\n\n"));
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public int parse() throws IOException {
+        final int[] count = new int[1];
+        new EventParser(new EventParser.Callback() {
+            @Override
+            public void onEvent(String id, String type, String data) {
+                count[0]++;
+            }
+
+            @Override
+            public void onRetry(long millis) {
+            }
+        }).parse(mBody.clone());
+        return count[0];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public long stream() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(EVENTS);
+        EventStream stream = new EventStream(mHttp, mServer.url("/events"),
+                new EventStream.Listener() {
+                    @Override
+                    public void onEvent(String id, String type, String data) {
+                        done.countDown();
+                    }
+                });
+        try {
+            stream.connect();
+            if (!done.await(1, TimeUnit.MINUTES)) {
+                throw new IllegalStateException(done.getCount() + " events never arrived");
+            }
+            return stream.eventCount();
+        } finally {
+            stream.close();
+        }
+    }
+}
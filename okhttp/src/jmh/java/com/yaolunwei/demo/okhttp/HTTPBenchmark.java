@@ -0,0 +1,129 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * Request path benchmarks against an in-process {@link BenchmarkServer}. Throughput and
+ * sampled latency (p50/p90/p99 in the JMH report) for a client per call, the shared engine,
+ * async batches and streamed versus buffered bodies. Run with {@link BenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HTTPBenchmark {
+    private static final int BATCH_SIZE = 32;
+
+    @Param({"4"})
+    public int maxInFlight;
+
+    private BenchmarkServer mServer;
+    private HTTP mShared;
+    private String mSmall;
+    private String mLarge;
+    private List<String> mBatch;
+    private final AtomicInteger mIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new BenchmarkServer();
+        mServer.start();
+        mShared = new HTTP.Builder().maxRequestsPerHost(maxInFlight).build();
+        mSmall = mServer.url("/small");
+        mLarge = mServer.url("/large");
+        mBatch = new ArrayList<>();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mBatch.add(mServer.url("/small?i=" + i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mShared.shutdown();
+        mServer.shutdown();
+    }
+
+    /** What every call used to pay: a fresh client, pool and connection. */
+    @Benchmark
+    public String getPerCallClient() throws IOException {
+        HTTP http = new HTTP(new OkHttpClient());
+        try {
+            return http.get(mSmall);
+        } finally {
+            http.shutdown();
+        }
+    }
+
+    @Benchmark
+    public String getSharedClient() throws IOException {
+        return mShared.get(mSmall + "?i=" + mIds.incrementAndGet());
+    }
+
+    @Benchmark
+    public int getAllBatch() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicInteger bytes = new AtomicInteger();
+        mShared.getAll(mBatch, maxInFlight, new Batch.Callback() {
+            @Override
+            public void onResponse(String url, String body) {
+                bytes.addAndGet(body.length());
+            }
+
+            @Override
+            public void onFailure(String url, IOException e) {
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        done.await();
+        return bytes.get();
+    }
+
+    @Benchmark
+    public int largeBuffered() throws IOException {
+        return mShared.get(mLarge + "?i=" + mIds.incrementAndGet()).length();
+    }
+
+    @Benchmark
+    public long largeStreamed() throws IOException {
+        Buffer chunk = new Buffer();
+        long total = 0;
+        try (ResponseStream stream = mShared.stream(mLarge)) {
+            BufferedSource source = stream.source();
+            long read;
+            while ((read = source.read(chunk, 8192)) != -1) {
+                total += read;
+                chunk.clear();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,140 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * Decoding a JSON array of users served by {@link BenchmarkServer}: the body as a String and
+ * then parsed, versus {@link JsonReader} on the response source, into a list or one element
+ * at a time. Add {@code -prof gc} to compare allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+public class JsonBenchmark {
+
+    static final class User {
+        final long id;
+        final String name;
+        final String email;
+        final boolean active;
+
+        User(long id, String name, String email, boolean active) {
+            this.id = id;
+            this.name = name;
+            this.email = email;
+            this.active = active;
+        }
+    }
+
+    static final JsonReader.Decoder<User> USER = new JsonReader.Decoder<User>() {
+        @Override
+        public User decode(JsonReader reader) throws IOException {
+            long id = 0;
+            String name = null;
+            String email = null;
+            boolean active = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "id":
+                        id = reader.nextLong();
+                        break;
+                    case "name":
+                        name = reader.nextString();
+                        break;
+                    case "email":
+                        email = reader.nextString();
+                        break;
+                    case "active":
+                        active = reader.nextBoolean();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return new User(id, name, email, active);
+        }
+    };
+
+    /** About 80 bytes per user, so 50000 is a 4 MB body. */
+    @Param({"50000"})
+    public int users;
+
+    private BenchmarkServer mServer;
+    private HTTP mHttp;
+    private String mUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Buffer body = new Buffer().writeUtf8("[");
+        for (int i = 0; i < users; i++) {
+            body.writeUtf8(i == 0 ? "" : ",")
+                    .writeUtf8("{\"id\":").writeDecimalLong(i)
+                    .writeUtf8(",\"name\":\"user ").writeDecimalLong(i)
+                    .writeUtf8("\",\"email\":\"user").writeDecimalLong(i)
+                    .writeUtf8("@example.com\",\"active\":true,\"tags\":[\"a\",\"b\"]}");
+        }
+        body.writeUtf8("]");
+
+        mServer = new BenchmarkServer();
+        mServer.serve("/users", body);
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+        mUrl = mServer.url("/users");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Benchmark
+    public List<User> stringThenParse() throws IOException {
+        String json = mHttp.get(mUrl);
+        return new JsonReader(new Buffer().writeUtf8(json)).readList(USER);
+    }
+
+    @Benchmark
+    public List<User> streamToList() throws IOException {
+        try (JsonReader reader = mHttp.getJson(mUrl)) {
+            return reader.readList(USER);
+        }
+    }
+
+    @Benchmark
+    public long streamEachElement() throws IOException {
+        final long[] active = new long[1];
+        mHttp.getArray(mUrl, USER, new JsonReader.Callback<User>() {
+            @Override
+            public void onElement(User user) {
+                if (user.active) {
+                    active[0]++;
+                }
+            }
+        });
+        return active[0];
+    }
+}
@@ -0,0 +1,60 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link MemoryCache} hit path: a lookup of one of 256 fresh entries, from one thread and
+ * from four at once, which only contend when their keys share a segment.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemoryCacheBenchmark {
+    private static final int KEYS = 256;
+
+    private MemoryCache mCache;
+    private String[] mKeys;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mCache = new MemoryCache(1024 * 1024);
+        mKeys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            mKeys[i] = "https://example.com/item/" + i;
+            mCache.put(mKeys[i], "{\"id\":" + i + "}", TimeUnit.HOURS.toMillis(1), 0);
+        }
+    }
+
+    /** Each thread walks the keys on its own. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Benchmark
+    public MemoryCache.Entry hit(Cursor cursor) {
+        return mCache.get(mKeys[cursor.next++ & (KEYS - 1)]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public MemoryCache.Entry hitFromFourThreads(Cursor cursor) {
+        return mCache.get(mKeys[cursor.next++ & (KEYS - 1)]);
+    }
+}
@@ -0,0 +1,107 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+
+/**
+ * Uploading large files served back by {@link BenchmarkServer}: one file of {@code sizeMiB}
+ * in a single request, and four of them in parallel requests. The heap is capped below the
+ * total upload size, so a copy of a file in memory shows up as an OutOfMemoryError; add
+ * {@code -prof gc} to see the allocation per upload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx64m")
+public class MultipartUploadBenchmark {
+    private static final MediaType VIDEO = MediaType.parse("video/mp4");
+    private static final int PARTS = 4;
+
+    @Param({"16", "32"})
+    public int sizeMiB;
+
+    private BenchmarkServer mServer;
+    private HTTP mHttp;
+    private String mUrl;
+    private File mDirectory;
+    private File[] mFiles;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new BenchmarkServer();
+        mServer.serve("/upload", new Buffer().writeUtf8("stored"));
+        // Count the request bodies instead of keeping them.
+        mServer.server().setBodyLimit(0);
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+        mUrl = mServer.url("/upload");
+
+        mDirectory = File.createTempFile("upload", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+        mFiles = new File[PARTS];
+        for (int i = 0; i < PARTS; i++) {
+            mFiles[i] = write(new File(mDirectory, "video-" + i + ".mp4"), sizeMiB * 1024 * 1024);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mHttp.shutdown();
+        mServer.shutdown();
+        for (File file : mFiles) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public List<String> single() throws IOException {
+        return mHttp.upload(mUrl).file("video", mFiles[0], VIDEO).send();
+    }
+
+    @Benchmark
+    public List<String> parallel() throws IOException {
+        MultipartUpload upload = mHttp.upload(mUrl).parallel(PARTS);
+        for (File file : mFiles) {
+            upload.file("video", file, VIDEO);
+        }
+        return upload.send();
+    }
+
+    private static File write(File file, int size) throws IOException {
+        byte[] chunk = new byte[8192];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) (i * 31);
+        }
+        try (BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+            for (int written = 0; written < size; written += chunk.length) {
+                sink.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+        }
+        return file;
+    }
+}
@@ -0,0 +1,64 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+/**
+ * What {@link NetworkTimings} adds to every call: the events of a call on a pooled connection
+ * delivered to its listener, against OkHttp's no-op listener. A loopback call already costs
+ * tens of microseconds and a real one milliseconds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkTimingsBenchmark {
+    private NetworkTimings mTimings;
+    private Call mCall;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mTimings = new NetworkTimings();
+        mCall = new OkHttpClient().newCall(new Request.Builder().url("http://localhost/").build());
+    }
+
+    @Benchmark
+    public EventListener timings() {
+        return events(mTimings.create(mCall));
+    }
+
+    @Benchmark
+    public EventListener none() {
+        return events(EventListener.NONE);
+    }
+
+    private EventListener events(EventListener listener) {
+        listener.callStart(mCall);
+        listener.requestHeadersStart(mCall);
+        listener.requestHeadersEnd(mCall, mCall.request());
+        listener.responseHeadersStart(mCall);
+        listener.responseHeadersEnd(mCall, null);
+        listener.responseBodyStart(mCall);
+        listener.responseBodyEnd(mCall, 100);
+        listener.callEnd(mCall);
+        return listener;
+    }
+}
@@ -0,0 +1,141 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okio.Buffer;
+
+/**
+ * {@link OfflineQueue} throughput: appending to the journal with and without fsync while the
+ * server is unreachable, and recovering and replaying a backlog once it is back.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OfflineQueueBenchmark {
+    private static final int BACKLOG = 1000;
+    private static final String EVENT =
+            "{\"type\":\"click\",\"target\":\"button_ok\",\"ts\":1500000000000}";
+
+    @Param({"false", "true"})
+    public boolean syncWrites;
+
+    private BenchmarkServer mServer;
+    private HTTP mHttp;
+    private HTTP mOffline;
+    private String mUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new BenchmarkServer();
+        mServer.serve("/events", new Buffer().writeUtf8("ok"));
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+        mOffline = new HTTP(mHttp.client().newBuilder()
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        throw new IOException("offline");
+                    }
+                })
+                .build());
+        mUrl = mServer.url("/events");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    /** A queue that can't reach the server, so every post stays journaled. */
+    @State(Scope.Benchmark)
+    public static class Offline {
+        File directory;
+        OfflineQueue queue;
+
+        @Setup(Level.Iteration)
+        public void open(OfflineQueueBenchmark benchmark) throws IOException {
+            directory = File.createTempFile("offline", "");
+            directory.delete();
+            queue = OfflineQueue.open(benchmark.mOffline, directory)
+                    .syncWrites(benchmark.syncWrites)
+                    .retryDelay(1, 1, TimeUnit.HOURS);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            queue.close();
+            OfflineQueue.journalFile(directory).delete();
+            directory.delete();
+        }
+    }
+
+    /** A journal of {@link #BACKLOG} posts, as if the app died while offline. */
+    @State(Scope.Benchmark)
+    public static class Backlog {
+        @Param({"1", "32"})
+        public int batchSize;
+
+        File directory;
+        OfflineQueue queue;
+
+        @Setup(Level.Invocation)
+        public void write(OfflineQueueBenchmark benchmark) throws IOException {
+            directory = File.createTempFile("backlog", "");
+            directory.delete();
+            try (OfflineQueue offline = OfflineQueue.open(benchmark.mOffline, directory)
+                    .retryDelay(1, 1, TimeUnit.HOURS)) {
+                for (int i = 0; i < BACKLOG; i++) {
+                    offline.enqueue(benchmark.mUrl, EVENT);
+                }
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void delete() throws IOException {
+            queue.close();
+            OfflineQueue.journalFile(directory).delete();
+            directory.delete();
+        }
+    }
+
+    @Benchmark
+    public long enqueue(Offline offline) throws IOException {
+        return offline.queue.enqueue(mUrl, EVENT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BACKLOG)
+    public long recoverAndReplay(Backlog backlog) throws Exception {
+        OfflineQueue queue = OfflineQueue.open(mHttp, backlog.directory)
+                .batchSize(backlog.batchSize);
+        backlog.queue = queue;
+        queue.replay();
+        if (!queue.awaitEmpty(1, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("replay stalled with " + queue.size() + " left");
+        }
+        return queue.deliveredCount();
+    }
+}
@@ -0,0 +1,113 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static com.yaolunwei.demo.okhttp.PriorityScheduler.Priority.BACKGROUND;
+import static com.yaolunwei.demo.okhttp.PriorityScheduler.Priority.INTERACTIVE;
+
+/**
+ * Latency of interactive gets while 32 threads flood the engine with background gets, against
+ * a server with 4 workers that each take 20ms, with and without {@link PriorityScheduler}
+ * lanes. An interactive sample includes the time the call waited for a slot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrioritySchedulerBenchmark {
+    private static final int FLOOD_THREADS = 32;
+    private static final int SERVER_WORKERS = 4;
+
+    @Param({"false", "true"})
+    public boolean lanes;
+
+    private BenchmarkServer mServer;
+    private HTTP mHttp;
+    private HTTP mInteractive;
+    private Thread[] mFlood;
+    private volatile boolean mFlooding;
+    private final AtomicInteger mIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new BenchmarkServer();
+        final Semaphore workers = new Semaphore(SERVER_WORKERS, true);
+        mServer.server().setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                workers.acquire();
+                try {
+                    Thread.sleep(20);
+                } finally {
+                    workers.release();
+                }
+                return new MockResponse().setBody("ok");
+            }
+        });
+        mServer.start();
+
+        HTTP.Builder builder = new HTTP.Builder().maxIdleConnections(64);
+        if (lanes) {
+            builder.scheduler(new PriorityScheduler().maxInFlight(16).background(4, 1));
+        }
+        mHttp = builder.build();
+        mInteractive = mHttp.priority(INTERACTIVE);
+
+        final HTTP background = mHttp.priority(BACKGROUND);
+        mFlooding = true;
+        mFlood = new Thread[FLOOD_THREADS];
+        for (int i = 0; i < mFlood.length; i++) {
+            mFlood[i] = new Thread("flood " + i) {
+                @Override
+                public void run() {
+                    while (mFlooding) {
+                        try {
+                            background.get(mServer.url("/prefetch/" + mIds.incrementAndGet()));
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            };
+            mFlood[i].setDaemon(true);
+            mFlood[i].start();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        mFlooding = false;
+        for (Thread thread : mFlood) {
+            thread.join();
+        }
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Benchmark
+    public String interactive() throws IOException {
+        return mInteractive.get(mServer.url("/screen/" + mIds.incrementAndGet()));
+    }
+}
@@ -0,0 +1,133 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+
+/**
+ * Latency of the first request to an HTTPS {@link BenchmarkServer}: on a new engine with an
+ * empty {@link TlsSessionCache} (a full handshake), on a new connection that resumes the
+ * cached session, on a connection opened by {@link HTTP#prewarm}, and on a pooled one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TlsSessionCacheBenchmark {
+    private BenchmarkServer mServer;
+    private HandshakeCertificates mClientCertificates;
+    private TlsSessionCache mTls;
+    private HTTP mHttp;
+    private String mUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        HeldCertificate localhost = new HeldCertificate.Builder()
+                .addSubjectAlternativeName(InetAddress.getByName("localhost")
+                        .getCanonicalHostName())
+                .build();
+        HandshakeCertificates server = new HandshakeCertificates.Builder()
+                .heldCertificate(localhost)
+                .build();
+        mClientCertificates = new HandshakeCertificates.Builder()
+                .addTrustedCertificate(localhost.certificate())
+                .build();
+
+        mServer = new BenchmarkServer();
+        mServer.server().useHttps(server.sslSocketFactory(), false);
+        mServer.start();
+        mTls = new TlsSessionCache(mClientCertificates.trustManager());
+        mHttp = new HTTP.Builder().tls(mTls).build();
+        mUrl = mServer.url("/small");
+        mHttp.get(mUrl);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    /** An engine of its own with nothing cached, as on a cold start. */
+    @State(Scope.Thread)
+    public static class Cold {
+        HTTP http;
+
+        @Setup(Level.Invocation)
+        public void open(TlsSessionCacheBenchmark benchmark) {
+            TlsSessionCache tls = new TlsSessionCache(
+                    benchmark.mClientCertificates.trustManager());
+            http = new HTTP.Builder().tls(tls).build();
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            http.shutdown();
+        }
+    }
+
+    /** The shared engine without pooled connections, so the next request handshakes. */
+    @State(Scope.Thread)
+    public static class Evicted {
+        @Setup(Level.Invocation)
+        public void evict(TlsSessionCacheBenchmark benchmark) {
+            benchmark.mHttp.connectionPool().evictAll();
+        }
+    }
+
+    /** The shared engine with one connection just opened by {@link HTTP#prewarm}. */
+    @State(Scope.Thread)
+    public static class Prewarmed {
+        @Setup(Level.Invocation)
+        public void prewarm(TlsSessionCacheBenchmark benchmark) throws InterruptedException {
+            HTTP http = benchmark.mHttp;
+            http.connectionPool().evictAll();
+            http.prewarm(benchmark.mUrl, 1);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (http.connectionPool().idleConnectionCount() < 1) {
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("prewarm did not finish");
+                }
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    @Benchmark
+    public String cold(Cold cold) throws IOException {
+        return cold.http.get(mUrl);
+    }
+
+    @Benchmark
+    public String resumed(Evicted evicted) throws IOException {
+        return mHttp.get(mUrl);
+    }
+
+    @Benchmark
+    public String prewarmed(Prewarmed prewarmed) throws IOException {
+        return mHttp.get(mUrl);
+    }
+
+    @Benchmark
+    public String pooled() throws IOException {
+        return mHttp.get(mUrl);
+    }
+}
@@ -0,0 +1,134 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * {@link WebSocketClient} message rates against {@link BenchmarkServer}: sending with each
+ * message in its own frame versus newline-batched within a window, and reading a burst of
+ * frames through the inbound queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebSocketBenchmark {
+    private static final int MESSAGES = 1000;
+
+    @Param({"0", "5"})
+    public long batchWindowMillis;
+
+    private BenchmarkServer mServer;
+    private HTTP mHttp;
+    private WebSocketClient mSender;
+    private WebSocketClient mReceiver;
+
+    // Guarded by this.
+    private long mReceived;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new BenchmarkServer();
+        mServer.serveWebSocket("/sink", new WebSocketListener() {
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                int messages = 1;
+                for (int i = 0; i < text.length(); i++) {
+                    if (text.charAt(i) == '\n') {
+                        messages++;
+                    }
+                }
+                synchronized (WebSocketBenchmark.this) {
+                    mReceived += messages;
+                    WebSocketBenchmark.this.notifyAll();
+                }
+            }
+        });
+        mServer.serveWebSocket("/source", new WebSocketListener() {
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                for (int i = 0; i < MESSAGES; i++) {
+                    webSocket.send(String.valueOf(i));
+                }
+            }
+        });
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+        mSender = new WebSocketClient(mHttp, mServer.url("/sink"))
+                .batchWindow(batchWindowMillis, TimeUnit.MILLISECONDS)
+                .outbound(MESSAGES);
+        mSender.connect();
+        mReceiver = new WebSocketClient(mHttp, mServer.url("/source"))
+                .inbound(MESSAGES / 4, WebSocketClient.Overflow.BACKPRESSURE);
+        mReceiver.connect();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mSender.close();
+        mReceiver.close();
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long send() throws InterruptedException {
+        long target;
+        synchronized (this) {
+            target = mReceived + MESSAGES;
+        }
+        for (int i = 0; i < MESSAGES; i++) {
+            if (!mSender.send("{\"seq\":" + i + ",\"type\":\"tick\"}")) {
+                throw new IllegalStateException("outbound queue full");
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        synchronized (this) {
+            while (mReceived < target) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    throw new IllegalStateException((target - mReceived) + " messages lost");
+                }
+                wait(remaining);
+            }
+            return mReceived;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public int receive() throws InterruptedException {
+        mReceiver.send("go");
+        int length = 0;
+        for (int i = 0; i < MESSAGES; i++) {
+            String message = mReceiver.poll(1, TimeUnit.MINUTES);
+            if (message == null) {
+                throw new IllegalStateException("message " + i + " never arrived");
+            }
+            length += message.length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,165 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * A group of asynchronous GETs with at most {@code maxInFlight} calls running at once.
+ * Results are delivered to the {@link Callback} as each call finishes, i.e. in completion
+ * order, on OkHttp's dispatcher threads, each with the url string it was given. A non-2xx
+ * response is reported to {@link Callback#onFailure}, like a failed call. A url that does not
+ * parse is reported there too, without making a call, and still counts towards {@link
+ * Callback#onComplete}. {@link #cancel()} stops the whole group.
+ */
+public class Batch {
+
+    public interface Callback {
+        void onResponse(String url, String body);
+
+        void onFailure(String url, IOException e);
+
+        /** Called once after every url has been delivered; not called if the batch is cancelled. */
+        void onComplete();
+    }
+
+    private final OkHttpClient mClient;
+    private final int mMaxInFlight;
+    private final Callback mCallback;
+
+    private final Queue<String> mPending;
+    /** Running calls to the url they were given as. */
+    private final Map<Call, String> mRunning = new HashMap<>();
+    private int mRemaining;
+    private boolean mCanceled;
+
+    Batch(OkHttpClient client, Collection<String> urls, int maxInFlight, Callback callback) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight < 1: " + maxInFlight);
+        }
+        mClient = client;
+        mMaxInFlight = maxInFlight;
+        mCallback = callback;
+        mPending = new ArrayDeque<>(urls);
+        mRemaining = mPending.size();
+    }
+
+    void start() {
+        if (mRemaining == 0) {
+            mCallback.onComplete();
+            return;
+        }
+        launch();
+    }
+
+    public void cancel() {
+        List<Call> running;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            mPending.clear();
+            running = new ArrayList<>(mRunning.keySet());
+            mRunning.clear();
+        }
+        for (Call call : running) {
+            call.cancel();
+        }
+    }
+
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    public synchronized int inFlight() {
+        return mRunning.size();
+    }
+
+    private void launch() {
+        List<Call> calls = new ArrayList<>();
+        List<String> malformed = new ArrayList<>();
+        boolean complete = false;
+        synchronized (this) {
+            while (!mCanceled && mRunning.size() < mMaxInFlight && !mPending.isEmpty()) {
+                String url = mPending.poll();
+                Request request;
+                try {
+                    request = new Request.Builder().url(url).build();
+                } catch (IllegalArgumentException e) {
+                    malformed.add(url);
+                    complete = --mRemaining == 0;
+                    continue;
+                }
+                Call call = mClient.newCall(request);
+                mRunning.put(call, url);
+                calls.add(call);
+            }
+        }
+        for (String url : malformed) {
+            mCallback.onFailure(url, new IOException("Malformed url: " + url));
+        }
+        if (complete) {
+            mCallback.onComplete();
+        }
+        for (Call call : calls) {
+            call.enqueue(new okhttp3.Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    finish(call, null, e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    String body = null;
+                    IOException error = null;
+                    try {
+                        if (!response.isSuccessful()) {
+                            throw new IOException("Unexpected code " + response);
+                        }
+                        body = response.body().string();
+                    } catch (IOException e) {
+                        error = e;
+                    } finally {
+                        response.close();
+                    }
+                    finish(call, body, error);
+                }
+            });
+        }
+    }
+
+    private void finish(Call call, String body, IOException error) {
+        boolean complete;
+        String url;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            url = mRunning.remove(call);
+            complete = --mRemaining == 0;
+        }
+
+        if (error != null) {
+            mCallback.onFailure(url, error);
+        } else {
+            mCallback.onResponse(url, body);
+        }
+
+        if (complete) {
+            mCallback.onComplete();
+        } else {
+            launch();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Counts how the disk cache served each call: a full hit never touches the network, a
+ * conditional hit is a 304 revalidation whose body came from the cache, and everything
+ * else is a miss. {@link #bytesSaved()} sums the body bytes read from the cache instead of
+ * the network, as the caller reads them, so chunked bodies count too. Installed as an
+ * application interceptor so it sees the final response.
+ */
+public class CacheStats implements Interceptor {
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mConditionalHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mBytesSaved = new AtomicLong();
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+
+        Response cached = response.cacheResponse();
+        Response network = response.networkResponse();
+        if (cached != null && network == null) {
+            mHits.incrementAndGet();
+        } else if (cached != null && network.code() == 304) {
+            mConditionalHits.incrementAndGet();
+        } else {
+            mMisses.incrementAndGet();
+            return response;
+        }
+        if (response.body() == null) {
+            return response;
+        }
+        return response.newBuilder().body(new CountingBody(response.body())).build();
+    }
+
+    public long hitCount() {
+        return mHits.get();
+    }
+
+    public long conditionalHitCount() {
+        return mConditionalHits.get();
+    }
+
+    public long missCount() {
+        return mMisses.get();
+    }
+
+    public long bytesSaved() {
+        return mBytesSaved.get();
+    }
+
+    /** Adds the bytes read from a cached body to {@link #bytesSaved()}. */
+    private final class CountingBody extends ResponseBody {
+        private final ResponseBody mDelegate;
+        private final BufferedSource mSource;
+
+        CountingBody(ResponseBody delegate) {
+            mDelegate = delegate;
+            mSource = Okio.buffer(new ForwardingSource(delegate.source()) {
+                @Override
+                public long read(Buffer sink, long byteCount) throws IOException {
+                    long read = super.read(sink, byteCount);
+                    if (read > 0) {
+                        mBytesSaved.addAndGet(read);
+                    }
+                    return read;
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return mDelegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return mSource;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hitCount()
+                + ", conditionalHits=" + conditionalHitCount()
+                + ", misses=" + missCount()
+                + ", bytesSaved=" + bytesSaved() + "}";
+    }
+}
@@ -0,0 +1,235 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Dns;
+
+/**
+ * A {@link Dns} that remembers each host's addresses for a TTL. Once an entry is within
+ * {@link #refreshAhead} of expiring, a lookup still returns it but starts one background
+ * lookup to replace it, so busy hosts never wait for the resolver. An expired entry is served
+ * for up to {@link #serveStale} more while that refresh runs, which also covers the resolver
+ * being briefly down. Concurrent misses for a host share one upstream lookup.
+ *
+ * <p>Addresses are returned with IPv6 and IPv4 interleaved (RFC 8305, section 4), starting
+ * with the family the upstream listed first. OkHttp tries them one after another, so a
+ * family that refuses connections costs one attempt rather than every address it has.
+ */
+public class CachingDns implements Dns {
+
+    private static final class Entry {
+        final List<InetAddress> addresses;
+        final long resolvedAt;
+
+        Entry(List<InetAddress> addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+
+    private final Dns mUpstream;
+    private final MemoryCache.Clock mClock;
+    private final ConcurrentMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, FutureTask<List<InetAddress>>> mLookups
+            = new ConcurrentHashMap<>();
+    private final ExecutorService mExecutor;
+
+    private long mTtlMillis = TimeUnit.MINUTES.toMillis(5);
+    private long mRefreshAheadMillis = TimeUnit.SECONDS.toMillis(30);
+    private long mStaleMillis = TimeUnit.MINUTES.toMillis(10);
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mStaleHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mRefreshes = new AtomicLong();
+    private final AtomicLong mRefreshFailures = new AtomicLong();
+
+    public CachingDns() {
+        this(Dns.SYSTEM);
+    }
+
+    public CachingDns(Dns upstream) {
+        this(upstream, MemoryCache.SYSTEM_CLOCK);
+    }
+
+    CachingDns(Dns upstream, MemoryCache.Clock clock) {
+        mUpstream = upstream;
+        mClock = clock;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "CachingDns refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /** How long addresses are served without a lookup. The JVM exposes no record TTLs. */
+    public CachingDns ttl(long ttl, TimeUnit unit) {
+        mTtlMillis = unit.toMillis(ttl);
+        return this;
+    }
+
+    /** How long before expiring an entry that is still being used is refreshed. */
+    public CachingDns refreshAhead(long window, TimeUnit unit) {
+        mRefreshAheadMillis = unit.toMillis(window);
+        return this;
+    }
+
+    /** How long past its TTL an entry may be served while it is being refreshed. */
+    public CachingDns serveStale(long window, TimeUnit unit) {
+        mStaleMillis = unit.toMillis(window);
+        return this;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        Entry entry = mEntries.get(hostname);
+        if (entry != null) {
+            long age = mClock.millis() - entry.resolvedAt;
+            if (age < mTtlMillis) {
+                mHits.incrementAndGet();
+                if (age >= mTtlMillis - mRefreshAheadMillis) {
+                    refresh(hostname);
+                }
+                return entry.addresses;
+            }
+            if (age < mTtlMillis + mStaleMillis) {
+                mStaleHits.incrementAndGet();
+                refresh(hostname);
+                return entry.addresses;
+            }
+        }
+        mMisses.incrementAndGet();
+
+        FutureTask<List<InetAddress>> lookup = lookupTask(hostname);
+        lookup.run();
+        try {
+            return lookup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException("Interrupted looking up " + hostname);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnknownHostException) {
+                throw (UnknownHostException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /** Forgets {@code hostname}, e.g. after its addresses stopped answering. */
+    public void evict(String hostname) {
+        mEntries.remove(hostname);
+    }
+
+    /** Lookups answered by a fresh entry. */
+    public long hitCount() {
+        return mHits.get();
+    }
+
+    /** Lookups answered by an expired entry while it was refreshed. */
+    public long staleHitCount() {
+        return mStaleHits.get();
+    }
+
+    /** Lookups that waited for the upstream resolver. */
+    public long missCount() {
+        return mMisses.get();
+    }
+
+    public long refreshCount() {
+        return mRefreshes.get();
+    }
+
+    public long refreshFailureCount() {
+        return mRefreshFailures.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingDns{hits=" + hitCount()
+                + ", staleHits=" + staleHitCount()
+                + ", misses=" + missCount()
+                + ", refreshes=" + refreshCount()
+                + ", refreshFailures=" + refreshFailureCount() + "}";
+    }
+
+    private void refresh(String hostname) {
+        if (mLookups.containsKey(hostname)) {
+            return;
+        }
+        FutureTask<List<InetAddress>> lookup = new FutureTask<>(lookup(hostname, true));
+        if (mLookups.putIfAbsent(hostname, lookup) == null) {
+            mRefreshes.incrementAndGet();
+            mExecutor.execute(lookup);
+        }
+    }
+
+    /** The running lookup of {@code hostname}, or a new one the caller must run. */
+    private FutureTask<List<InetAddress>> lookupTask(String hostname) {
+        FutureTask<List<InetAddress>> lookup = new FutureTask<>(lookup(hostname, false));
+        FutureTask<List<InetAddress>> running = mLookups.putIfAbsent(hostname, lookup);
+        return running != null ? running : lookup;
+    }
+
+    private Callable<List<InetAddress>> lookup(final String hostname, final boolean refresh) {
+        return new Callable<List<InetAddress>>() {
+            @Override
+            public List<InetAddress> call() throws UnknownHostException {
+                try {
+                    List<InetAddress> addresses = interleave(mUpstream.lookup(hostname));
+                    mEntries.put(hostname, new Entry(addresses, mClock.millis()));
+                    return addresses;
+                } catch (UnknownHostException | RuntimeException e) {
+                    if (refresh) {
+                        // Keep serving the old entry until it is too stale.
+                        mRefreshFailures.incrementAndGet();
+                    }
+                    throw e;
+                } finally {
+                    mLookups.remove(hostname);
+                }
+            }
+        };
+    }
+
+    static List<InetAddress> interleave(List<InetAddress> addresses) {
+        List<InetAddress> v4 = new ArrayList<>();
+        List<InetAddress> v6 = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            (address instanceof Inet6Address ? v6 : v4).add(address);
+        }
+        if (v4.isEmpty() || v6.isEmpty()) {
+            return Collections.unmodifiableList(new ArrayList<>(addresses));
+        }
+        List<InetAddress> first = addresses.get(0) instanceof Inet4Address ? v4 : v6;
+        List<InetAddress> second = first == v4 ? v6 : v4;
+        List<InetAddress> interleaved = new ArrayList<>(addresses.size());
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) interleaved.add(first.get(i));
+            if (i < second.size()) interleaved.add(second.get(i));
+        }
+        return Collections.unmodifiableList(interleaved);
+    }
+}
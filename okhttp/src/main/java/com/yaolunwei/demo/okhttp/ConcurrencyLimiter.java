@@ -0,0 +1,282 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Caps the number of calls in flight to each host with a limit that adapts to that host
+ * (AIMD). While responses come back within {@code tolerance} times the fastest latency seen
+ * recently, the limit grows by about one per limit's worth of calls; an error, a 429/5xx or a
+ * slow response cuts it by {@code backoffRatio}, at most once per round trip. A cancelled call
+ * says nothing about the host and changes nothing.
+ *
+ * <p>A call holds its permit until its response body is closed or read to the end, since
+ * that is when the server is done with it; a caller that never closes the body leaks the
+ * permit along with the connection. Calls above the limit wait for a permit and fail with an
+ * {@link InterruptedIOException} once their queue deadline passes. Install it with {@link
+ * HTTP.Builder#limiter(ConcurrencyLimiter)}.
+ */
+public class ConcurrencyLimiter implements Interceptor {
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private int mInitialLimit;
+    private int mMinLimit = 1;
+    private int mMaxLimit = 64;
+    private double mTolerance = 2.0;
+    private double mBackoffRatio = 0.9;
+    private long mQueueTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+    private long mMinLatencyWindowNanos = TimeUnit.SECONDS.toNanos(30);
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mAvailable = mLock.newCondition();
+    // Guarded by mLock.
+    private final Map<String, Host> mHosts = new HashMap<>();
+
+    private final AtomicLong mRejections = new AtomicLong();
+    private final Histogram mQueueWait = new Histogram();
+
+    /** Limit state of one host. */
+    private static final class Host {
+        double limit;
+        int inFlight;
+        int queued;
+        long minLatencyNanos = Long.MAX_VALUE;
+        long minLatencyAtNanos;
+        long lastDecreaseNanos = System.nanoTime() - TimeUnit.HOURS.toNanos(1);
+
+        Host(double limit) {
+            this.limit = limit;
+        }
+    }
+
+    public ConcurrencyLimiter() {
+        this(10);
+    }
+
+    public ConcurrencyLimiter(int initialLimit) {
+        if (initialLimit < 1) {
+            throw new IllegalArgumentException("initialLimit < 1: " + initialLimit);
+        }
+        mInitialLimit = initialLimit;
+    }
+
+    /** Bounds the adaptive limit. */
+    public ConcurrencyLimiter limits(int min, int max) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("bad limits: " + min + ".." + max);
+        }
+        mMinLimit = min;
+        mMaxLimit = max;
+        mInitialLimit = Math.max(min, Math.min(max, mInitialLimit));
+        return this;
+    }
+
+    /**
+     * A response slower than {@code tolerance} times the fastest one seen counts as a sign of
+     * overload, and cuts the limit to {@code backoffRatio} of its value.
+     */
+    public ConcurrencyLimiter backoff(double tolerance, double backoffRatio) {
+        if (tolerance < 1 || backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("bad backoff: " + tolerance + ", " + backoffRatio);
+        }
+        mTolerance = tolerance;
+        mBackoffRatio = backoffRatio;
+        return this;
+    }
+
+    /** How long a call may wait for a permit before it fails. */
+    public ConcurrencyLimiter queueTimeout(long timeout, TimeUnit unit) {
+        mQueueTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    /**
+     * How long the fastest latency seen stays the baseline. After that the next response
+     * replaces it, so a route that got slower for good stops looking overloaded.
+     */
+    public ConcurrencyLimiter minLatencyWindow(long window, TimeUnit unit) {
+        mMinLatencyWindowNanos = unit.toNanos(window);
+        return this;
+    }
+
+    public int maxLimit() {
+        return mMaxLimit;
+    }
+
+    public int limit(String host) {
+        mLock.lock();
+        try {
+            return (int) host(host).limit;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int inFlight(String host) {
+        mLock.lock();
+        try {
+            return host(host).inFlight;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int queued(String host) {
+        mLock.lock();
+        try {
+            return host(host).queued;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /** Calls that failed because their queue deadline passed before a permit was free. */
+    public long rejectionCount() {
+        return mRejections.get();
+    }
+
+    /** Time calls spent waiting for a permit, in microseconds. */
+    public Histogram.Snapshot queueWait() {
+        return mQueueWait.snapshot();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        final String host = chain.request().url().host();
+        acquire(host, chain.call());
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException | RuntimeException e) {
+            if (chain.call().isCanceled()) {
+                release(host);
+            } else {
+                release(host, System.nanoTime() - start, false);
+            }
+            throw e;
+        }
+
+        final long latencyNanos = System.nanoTime() - start;
+        final boolean ok = !isOverloaded(response.code());
+        // Served from the disk cache; says nothing about the backend.
+        final boolean cached = response.networkResponse() == null;
+        final ResponseBody body = response.body();
+        final AtomicBoolean released = new AtomicBoolean();
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                if (!released.compareAndSet(false, true)) {
+                    return;
+                }
+                if (cached) {
+                    release(host);
+                } else {
+                    release(host, latencyNanos, ok);
+                }
+            }
+        };
+        if (body == null) {
+            release.run();
+            return response;
+        }
+        return response.newBuilder().body(new ReleasingBody(body, release)).build();
+    }
+
+    void acquire(String hostName, Call call) throws IOException {
+        long start = System.nanoTime();
+        mLock.lock();
+        try {
+            Host host = host(hostName);
+            host.queued++;
+            try {
+                while (host.inFlight >= (int) host.limit) {
+                    long remaining = mQueueTimeoutNanos - (System.nanoTime() - start);
+                    if (remaining <= 0) {
+                        mRejections.incrementAndGet();
+                        throw new InterruptedIOException("no permit within queue timeout");
+                    }
+                    if (call != null && call.isCanceled()) {
+                        throw new IOException("Canceled");
+                    }
+                    mAvailable.awaitNanos(Math.min(remaining, POLL_NANOS));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for a permit");
+            } finally {
+                host.queued--;
+            }
+            host.inFlight++;
+        } finally {
+            mLock.unlock();
+        }
+        mQueueWait.record((System.nanoTime() - start) / 1000);
+    }
+
+    /** Returns a permit without a latency sample. */
+    void release(String hostName) {
+        mLock.lock();
+        try {
+            host(hostName).inFlight--;
+            mAvailable.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    void release(String hostName, long latencyNanos, boolean ok) {
+        long now = System.nanoTime();
+        mLock.lock();
+        try {
+            Host host = host(hostName);
+            int inFlight = host.inFlight--;
+            if (ok && (latencyNanos < host.minLatencyNanos
+                    || now - host.minLatencyAtNanos > mMinLatencyWindowNanos)) {
+                host.minLatencyNanos = latencyNanos;
+                host.minLatencyAtNanos = now;
+            }
+
+            boolean slow = latencyNanos > host.minLatencyNanos * mTolerance;
+            if (!ok || slow) {
+                // Calls that started before the last cut saw the old limit; count them once.
+                if (now - host.lastDecreaseNanos > latencyNanos) {
+                    host.limit = Math.max(mMinLimit, host.limit * mBackoffRatio);
+                    host.lastDecreaseNanos = now;
+                }
+            } else if (inFlight * 2 >= (int) host.limit) {
+                // Only grow while the limit is actually being used.
+                host.limit = Math.min(mMaxLimit, host.limit + 1 / host.limit);
+            }
+            mAvailable.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /** Called with mLock held. */
+    private Host host(String name) {
+        Host host = mHosts.get(name);
+        if (host == null) {
+            host = new Host(mInitialLimit);
+            mHosts.put(name, host);
+        }
+        return host;
+    }
+
+    private static boolean isOverloaded(int code) {
+        return code == 429 || code >= 500;
+    }
+}
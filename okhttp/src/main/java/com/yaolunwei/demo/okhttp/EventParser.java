@@ -0,0 +1,160 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Incremental {@code text/event-stream} parser. Lines are matched against the field names in
+ * place in the source's buffer and data lines are moved into one reused {@link Buffer}, so the
+ * only allocations per event are the strings handed to the callback. An event type that is
+ * the same as the last one seen reuses its String.
+ */
+class EventParser {
+
+    interface Callback {
+        void onEvent(String id, String type, String data);
+
+        void onRetry(long millis);
+    }
+
+    private static final ByteString CRLF = ByteString.encodeUtf8("\r\n");
+    private static final ByteString DATA = ByteString.encodeUtf8("data");
+    private static final ByteString EVENT = ByteString.encodeUtf8("event");
+    private static final ByteString ID = ByteString.encodeUtf8("id");
+    private static final ByteString RETRY = ByteString.encodeUtf8("retry");
+
+    private final Callback mCallback;
+    private final Buffer mData = new Buffer();
+    private boolean mHasData;
+    private final Buffer mScratch = new Buffer();
+    private String mType;
+    private String mLastType;
+    private ByteString mLastTypeBytes;
+    private String mId;
+    private String mLastId;
+
+    EventParser(Callback callback) {
+        mCallback = callback;
+    }
+
+    /** The id as of the last event dispatched, to send as Last-Event-ID when reconnecting. */
+    String lastEventId() {
+        return mLastId;
+    }
+
+    void lastEventId(String id) {
+        mId = id;
+        mLastId = id;
+    }
+
+    /** Parses until the source is exhausted. */
+    void parse(BufferedSource source) throws IOException {
+        Buffer buffer = source.buffer();
+        while (true) {
+            long end = source.indexOfElement(CRLF);
+            if (end == -1) {
+                // A partial last line is dropped, as is an event without its blank line.
+                return;
+            }
+            processLine(buffer, end);
+            byte terminator = buffer.readByte();
+            if (terminator == '\r' && source.request(1) && buffer.getByte(0) == '\n') {
+                buffer.skip(1);
+            }
+        }
+    }
+
+    /** Consumes {@code length} bytes of {@code buffer}: one line without its terminator. */
+    private void processLine(Buffer buffer, long length) throws IOException {
+        if (length == 0) {
+            dispatch();
+            return;
+        }
+        if (buffer.getByte(0) == ':') {
+            buffer.skip(length);
+            return;
+        }
+
+        long nameLength = length;
+        for (long i = 0; i < length; i++) {
+            if (buffer.getByte(i) == ':') {
+                nameLength = i;
+                break;
+            }
+        }
+        long valueOffset = nameLength;
+        if (valueOffset < length) {
+            valueOffset++;
+            if (valueOffset < length && buffer.getByte(valueOffset) == ' ') {
+                valueOffset++;
+            }
+        }
+
+        if (isField(buffer, nameLength, DATA)) {
+            buffer.skip(valueOffset);
+            if (mHasData) {
+                mData.writeByte('\n');
+            }
+            mData.write(buffer, length - valueOffset);
+            mHasData = true;
+        } else if (isField(buffer, nameLength, EVENT)) {
+            buffer.skip(valueOffset);
+            if (mLastTypeBytes == null || mLastTypeBytes.size() != length - valueOffset
+                    || !buffer.rangeEquals(0, mLastTypeBytes)) {
+                mLastTypeBytes = buffer.readByteString(length - valueOffset);
+                mLastType = mLastTypeBytes.utf8();
+            } else {
+                buffer.skip(length - valueOffset);
+            }
+            mType = mLastType;
+        } else if (isField(buffer, nameLength, ID)) {
+            buffer.skip(valueOffset);
+            mId = buffer.readUtf8(length - valueOffset);
+        } else if (isField(buffer, nameLength, RETRY)) {
+            buffer.skip(valueOffset);
+            mScratch.write(buffer, length - valueOffset);
+            // Only ASCII digits, as the spec says; anything else is ignored.
+            if (isDigits(mScratch)) {
+                try {
+                    mCallback.onRetry(mScratch.readDecimalLong());
+                } catch (NumberFormatException ignored) {
+                    // Too long for a long.
+                }
+            }
+            mScratch.clear();
+        } else {
+            buffer.skip(length);
+        }
+    }
+
+    private void dispatch() {
+        String type = mType != null ? mType : "message";
+        mType = null;
+        mLastId = mId;
+        if (!mHasData) {
+            return;
+        }
+        mHasData = false;
+        mCallback.onEvent(mLastId, type, mData.readUtf8());
+    }
+
+    private static boolean isDigits(Buffer buffer) {
+        if (buffer.size() == 0) {
+            return false;
+        }
+        for (long i = 0; i < buffer.size(); i++) {
+            byte b = buffer.getByte(i);
+            if (b < '0' || b > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isField(Buffer buffer, long nameLength, ByteString name) {
+        return nameLength == name.size() && buffer.rangeEquals(0, name);
+    }
+}
@@ -0,0 +1,278 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * A Server-Sent Events subscription over the engine's pooled client. The body is parsed as it
+ * arrives by an {@link EventParser} on the call's I/O thread, and events are handed to the
+ * {@link Listener} in order on a thread of their own, so a slow listener never stalls the
+ * socket read.
+ *
+ * <p>When the stream ends or fails it is reopened after the server's {@code retry:} delay, or
+ * a jittered exponential backoff after consecutive failures, sending the last seen id as
+ * {@code Last-Event-ID} so the server can resume where it left off. A 204 response or a 4xx
+ * other than 408 and 429 stops the subscription.
+ */
+public class EventStream implements Closeable {
+
+    public abstract static class Listener {
+        public void onOpen() {
+        }
+
+        public abstract void onEvent(String id, String type, String data);
+
+        /** The stream was lost or refused; it is reopened unless {@code retrying} is false. */
+        public void onFailure(IOException e, boolean retrying) {
+        }
+
+        /** The server ended the subscription or refused it; no more events follow. */
+        public void onClosed() {
+        }
+    }
+
+    private final OkHttpClient mClient;
+    private final String mUrl;
+    private final Listener mListener;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Random mRandom = new Random();
+
+    private volatile long mRetryMillis = TimeUnit.SECONDS.toMillis(3);
+    private long mMaxReconnectMillis = TimeUnit.SECONDS.toMillis(30);
+
+    private volatile String mLastEventId;
+
+    // Guarded by this.
+    private Call mCall;
+    private int mFailures;
+    private boolean mClosed;
+
+    private final AtomicLong mEvents = new AtomicLong();
+    private final AtomicLong mReconnects = new AtomicLong();
+
+    public EventStream(HTTP http, String url, Listener listener) {
+        // Events may be minutes apart; an idle stream is not a dead one.
+        mClient = http.client().newBuilder().readTimeout(0, TimeUnit.MILLISECONDS).build();
+        mUrl = url;
+        mListener = listener;
+        final String host = HttpUrl.get(url).host();
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "EventStream " + host);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /** The delay before reconnecting until the server sends {@code retry:}, and its cap. */
+    public EventStream reconnectDelay(long initial, long max, TimeUnit unit) {
+        mRetryMillis = unit.toMillis(initial);
+        mMaxReconnectMillis = unit.toMillis(max);
+        return this;
+    }
+
+    /** Resumes after {@code id}, e.g. one persisted from an earlier run. */
+    public EventStream lastEventId(String id) {
+        mLastEventId = id;
+        return this;
+    }
+
+    public String lastEventId() {
+        return mLastEventId;
+    }
+
+    public synchronized void connect() {
+        if (mClosed || mCall != null) {
+            return;
+        }
+        Request.Builder request = new Request.Builder()
+                .url(mUrl)
+                .header("Accept", "text/event-stream")
+                .header("Cache-Control", "no-cache");
+        if (mLastEventId != null) {
+            request.header("Last-Event-ID", mLastEventId);
+        }
+        final Call call = mClient.newCall(request.build());
+        mCall = call;
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                ended(call, e, true);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    read(call, response);
+                } catch (IOException e) {
+                    ended(call, e, true);
+                } finally {
+                    response.close();
+                }
+            }
+        });
+    }
+
+    public long eventCount() {
+        return mEvents.get();
+    }
+
+    public long reconnectCount() {
+        return mReconnects.get();
+    }
+
+    /** Stops reading and reconnecting. Events already read are still delivered. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            if (mCall != null) {
+                mCall.cancel();
+            }
+        }
+        mExecutor.shutdown();
+    }
+
+    private void read(final Call call, Response response) throws IOException {
+        int code = response.code();
+        if (code == 204) {
+            ended(call, null, false);
+            return;
+        }
+        if (!response.isSuccessful()) {
+            boolean retrying = code >= 500 || code == 408 || code == 429;
+            ended(call, new IOException("Unexpected code " + response), retrying);
+            return;
+        }
+        String type = response.header("Content-Type", "");
+        if (!type.startsWith("text/event-stream")) {
+            ended(call, new IOException("Unexpected Content-Type " + type), false);
+            return;
+        }
+
+        EventParser parser;
+        synchronized (this) {
+            if (call != mCall) {
+                return;
+            }
+            mFailures = 0;
+            parser = new EventParser(new EventParser.Callback() {
+                @Override
+                public void onEvent(final String id, final String type, final String data) {
+                    mEvents.incrementAndGet();
+                    mLastEventId = id;
+                    dispatch(new Runnable() {
+                        @Override
+                        public void run() {
+                            mListener.onEvent(id, type, data);
+                        }
+                    });
+                }
+
+                @Override
+                public void onRetry(long millis) {
+                    mRetryMillis = millis;
+                }
+            });
+            parser.lastEventId(mLastEventId);
+        }
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onOpen();
+            }
+        });
+
+        try {
+            parser.parse(response.body().source());
+        } finally {
+            mLastEventId = parser.lastEventId();
+        }
+        ended(call, null, true);
+    }
+
+    private void dispatch(Runnable runnable) {
+        try {
+            mExecutor.execute(runnable);
+        } catch (RejectedExecutionException ignored) {
+            // Closed.
+        }
+    }
+
+    private void ended(Call call, final IOException e, final boolean retrying) {
+        long delay;
+        synchronized (this) {
+            if (call != mCall || mClosed) {
+                return;
+            }
+            mCall = null;
+            if (!retrying) {
+                mClosed = true;
+            }
+            if (e != null) {
+                mFailures++;
+            }
+            delay = reconnectDelayMillis(mFailures);
+        }
+        if (e != null) {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onFailure(e, retrying);
+                }
+            });
+        }
+        if (!retrying) {
+            dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onClosed();
+                }
+            });
+            mExecutor.shutdown();
+            return;
+        }
+        try {
+            mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    mReconnects.incrementAndGet();
+                    connect();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+            // Closed meanwhile.
+        }
+    }
+
+    /** The server's delay for a clean end, backing off from it on repeated failures. */
+    private long reconnectDelayMillis(int failures) {
+        long retry = mRetryMillis;
+        if (failures <= 1) {
+            return retry;
+        }
+        long ceiling = retry << Math.min(failures - 1, 20);
+        if (ceiling <= 0 || ceiling > mMaxReconnectMillis) {
+            ceiling = Math.max(retry, mMaxReconnectMillis);
+        }
+        return ceiling / 2 + (long) (mRandom.nextDouble() * ceiling / 2);
+    }
+}
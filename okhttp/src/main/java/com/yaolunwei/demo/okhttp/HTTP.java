@@ -1,39 +1,533 @@
 package com.yaolunwei.demo.okhttp;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
+import okhttp3.Interceptor;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
-import okhttp3.Request.Builder;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 
 /**
  * Created by bigoat on 17-6-19.
+ *
+ * Long-lived HTTP engine. Every {@link HTTP} made with the no-arg constructor shares one
+ * {@link OkHttpClient}, so calls reuse its connection pool, dispatcher threads and keep-alive
+ * connections instead of paying for them per request. {@link Builder#build()} makes a new
+ * client each time, so build one engine and keep it; {@link #priority} derives engines that
+ * share its pool and dispatcher.
  */
 
 public class HTTP {
     public static final MediaType JSON
             = MediaType.parse("application/json; charset=utf-8");
 
+    private static final class DefaultHolder {
+        static final OkHttpClient CLIENT = new Builder().newClient();
+        static final SingleFlight SINGLE_FLIGHT = new SingleFlight();
+    }
+
+    private final OkHttpClient mClient;
+    private final SingleFlight mSingleFlight;
+    private final MemoryCache mMemoryCache;
+    private final long mMemoryTtlMillis;
+    private final long mMemoryStaleMillis;
+
+    private final SingleFlight.Loader mLoader = new SingleFlight.Loader() {
+        @Override
+        public Call newCall(String url) {
+            return mClient.newCall(new Request.Builder().url(url).build());
+        }
+
+        @Override
+        public String read(String url, Response response) throws IOException {
+            String body = response.body().string();
+            remember(url, response, body);
+            return body;
+        }
+    };
+
+    public HTTP() {
+        this(DefaultHolder.CLIENT, DefaultHolder.SINGLE_FLIGHT, null, 0, 0);
+    }
+
+    public HTTP(OkHttpClient client) {
+        this(client, new SingleFlight(), null, 0, 0);
+    }
+
+    HTTP(OkHttpClient client, SingleFlight singleFlight, MemoryCache memoryCache,
+         long memoryTtlMillis, long memoryStaleMillis) {
+        mClient = client;
+        mSingleFlight = singleFlight;
+        mMemoryCache = memoryCache;
+        mMemoryTtlMillis = memoryTtlMillis;
+        mMemoryStaleMillis = memoryStaleMillis;
+    }
+
+    public OkHttpClient client() {
+        return mClient;
+    }
+
+    public ConnectionPool connectionPool() {
+        return mClient.connectionPool();
+    }
+
+    public Dispatcher dispatcher() {
+        return mClient.dispatcher();
+    }
+
+    /** The disk cache, or null if this engine was built without one. */
+    public Cache cache() {
+        return mClient.cache();
+    }
+
+    /** The in-memory body cache in front of {@link #get}, or null if this engine has none. */
+    public MemoryCache memoryCache() {
+        return mMemoryCache;
+    }
 
-    // GET A URL
+    /** Number of {@link #get} calls that joined an identical in-flight call, not starting one. */
+    public long coalescedCount() {
+        return mSingleFlight.coalescedCount();
+    }
+
+    /** Per-host phase timings, or null if this engine was built without them. */
+    public NetworkTimings timings() {
+        if (mClient.eventListenerFactory() instanceof NetworkTimings) {
+            return (NetworkTimings) mClient.eventListenerFactory();
+        }
+        return null;
+    }
+
+    /** The retry and hedging policy, or null if this engine was built without one. */
+    public RetryPolicy retryPolicy() {
+        for (Interceptor interceptor : mClient.interceptors()) {
+            if (interceptor instanceof RetryPolicy) {
+                return (RetryPolicy) interceptor;
+            }
+        }
+        return null;
+    }
+
+    /** The adaptive concurrency limiter, or null if this engine was built without one. */
+    public ConcurrencyLimiter limiter() {
+        for (Interceptor interceptor : mClient.interceptors()) {
+            if (interceptor instanceof ConcurrencyLimiter) {
+                return (ConcurrencyLimiter) interceptor;
+            }
+        }
+        return null;
+    }
+
+    /** The priority lanes, or null if this engine was built without them. */
+    public PriorityScheduler scheduler() {
+        for (Interceptor interceptor : mClient.interceptors()) {
+            if (interceptor instanceof PriorityScheduler) {
+                return (PriorityScheduler) interceptor;
+            }
+        }
+        return null;
+    }
+
+    /** The shared TLS context and its handshake counters, or null if this engine has none. */
+    public TlsSessionCache tls() {
+        for (Interceptor interceptor : mClient.networkInterceptors()) {
+            if (interceptor instanceof TlsSessionCache) {
+                return (TlsSessionCache) interceptor;
+            }
+        }
+        return null;
+    }
+
+    /** Hit/miss counters of the disk cache, or null if this engine was built without one. */
+    public CacheStats cacheStats() {
+        for (Interceptor interceptor : mClient.interceptors()) {
+            if (interceptor instanceof CacheStats) {
+                return (CacheStats) interceptor;
+            }
+        }
+        return null;
+    }
+
+    // THE SAME ENGINE, SENDING ITS REQUESTS IN priority's LANE; KEEP IT, DON'T MAKE ONE PER CALL
+    public HTTP priority(PriorityScheduler.Priority priority) {
+        OkHttpClient.Builder builder = mClient.newBuilder();
+        builder.interceptors().add(0, PriorityScheduler.tagger(priority));
+        // Its own SingleFlight, so an interactive get never waits on a background one.
+        return new HTTP(builder.build(), new SingleFlight(), mMemoryCache,
+                mMemoryTtlMillis, mMemoryStaleMillis);
+    }
+
+    // GET A URL, SHARING THE CALL WITH CONCURRENT GETS OF THE SAME URL
     public String get(final String url) throws IOException {
-        OkHttpClient client = new OkHttpClient();
+        if (mMemoryCache != null) {
+            MemoryCache.Entry entry = mMemoryCache.get(url);
+            if (entry != null) {
+                if (!mMemoryCache.isFresh(entry) && entry.startRevalidation()) {
+                    revalidate(url, entry);
+                }
+                return entry.body();
+            }
+        }
+
+        return mSingleFlight.get(url, mLoader);
+    }
+
+    private void remember(String url, Response response, String body) {
+        if (mMemoryCache != null && response.isSuccessful()
+                && !response.cacheControl().noStore()) {
+            mMemoryCache.put(url, body, mMemoryTtlMillis, mMemoryStaleMillis);
+        }
+    }
 
+    // REFRESH A STALE MEMORY ENTRY IN THE BACKGROUND
+    private void revalidate(final String url, final MemoryCache.Entry entry) {
         Request request = new Request.Builder().url(url).build();
+        mClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                entry.endRevalidation();
+            }
 
-        Response response = client.newCall(request).execute();
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    remember(url, response, response.body().string());
+                } catch (IOException ignored) {
+                    // The stale entry stays; the next get of it tries again.
+                } finally {
+                    // Also when nothing replaced the entry, e.g. a no-store or error response.
+                    entry.endRevalidation();
+                    response.close();
+                }
+            }
+        });
+    }
+
+    // STREAM A URL, THE CALLER MUST CLOSE THE RESULT
+    public ResponseStream stream(final String url) throws IOException {
+        Request request = new Request.Builder().url(url).build();
+
+        Response response = mClient.newCall(request).execute();
+        if (!response.isSuccessful()) {
+            response.close();
+            throw new IOException("Unexpected code " + response);
+        }
+        return new ResponseStream(response);
+    }
+
+    // OPEN AND PARK UP TO connections POOLED CONNECTIONS TO url's HOST, E.G. DURING STARTUP
+    public void prewarm(String url, int connections) {
+        Request request = new Request.Builder()
+                .url(url)
+                .head()
+                .tag(TlsSessionCache.Prewarm.class, TlsSessionCache.Prewarm.TAG)
+                .build();
+        // Straight to the network: cache stats, retries, the limiter and lanes are for real
+        // requests. The same pool and dispatcher, so the connections are there for them.
+        OkHttpClient.Builder builder = mClient.newBuilder();
+        for (Iterator<Interceptor> i = builder.interceptors().iterator(); i.hasNext(); ) {
+            if (!(i.next() instanceof TlsSessionCache.HandshakeScope)) {
+                i.remove();
+            }
+        }
+        OkHttpClient client = builder.build();
+        // Concurrent calls, so that HTTP/1.1 opens a connection for each instead of reusing one.
+        // An HTTP/2 host multiplexes them all over a single connection.
+        for (int i = 0; i < connections; i++) {
+            client.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                }
+            });
+        }
+    }
+
+    // DOWNLOAD A URL INTO A FILE
+    public long download(final String url, File file) throws IOException {
+        try (ResponseStream stream = stream(url)) {
+            return stream.writeTo(file);
+        }
+    }
 
-        return response.body().string();
+    // STREAM A JSON BODY, THE CALLER MUST CLOSE THE READER
+    public JsonReader getJson(final String url) throws IOException {
+        return new JsonReader(stream(url));
+    }
+
+    // DECODE A JSON ARRAY ONE ELEMENT AT A TIME, RETURNS THE NUMBER OF ELEMENTS
+    public <T> long getArray(final String url, JsonReader.Decoder<T> decoder,
+                             JsonReader.Callback<T> callback) throws IOException {
+        try (JsonReader reader = getJson(url)) {
+            return reader.readArray(decoder, callback);
+        }
+    }
+
+    // UPLOAD FILES AS multipart/form-data, E.G. upload(url).file("photo", file, JPEG).send()
+    public MultipartUpload upload(final String url) {
+        return new MultipartUpload(this, url);
+    }
+
+    // GET MANY URLS, AT MOST maxInFlight AT A TIME
+    public Batch getAll(Collection<String> urls, int maxInFlight, Batch.Callback callback) {
+        Batch batch = new Batch(mClient, urls, maxInFlight, callback);
+        batch.start();
+        return batch;
     }
 
     // POST TO A SERVER
-    private String post(final String url, String json) {
-        RequestBody body = RequestBody.create(JSON, json);
-        return body.toString();
+    public String post(final String url, String json) throws IOException {
+        return post(url, RequestBody.create(JSON, json));
+    }
+
+    // POST A BODY, E.G. StreamingBody.create(HTTP.JSON, file).gzip()
+    public String post(final String url, RequestBody body) throws IOException {
+        Request.Builder request = new Request.Builder().url(url).post(body);
+        if (body instanceof StreamingBody && ((StreamingBody) body).isGzip()) {
+            request.header("Content-Encoding", "gzip");
+        }
+
+        try (Response response = mClient.newCall(request.build()).execute()) {
+            return response.body().string();
+        }
+    }
+
+    /**
+     * Cancels queued and running calls, closes idle pooled connections and stops the
+     * dispatcher threads. Only call this on engines that own their client.
+     */
+    public void shutdown() {
+        mClient.dispatcher().cancelAll();
+        mClient.dispatcher().executorService().shutdown();
+        mClient.connectionPool().evictAll();
+        if (mClient.cache() != null) {
+            try {
+                mClient.cache().close();
+            } catch (IOException ignored) {
+            }
+        }
     }
 
+    public static class Builder {
+        private int mMaxIdleConnections = 5;
+        private long mKeepAliveMillis = TimeUnit.MINUTES.toMillis(5);
+        private int mMaxRequests = 64;
+        private int mMaxRequestsPerHost = 5;
+        private long mConnectTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+        private long mReadTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+        private long mWriteTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+        private File mCacheDirectory;
+        private long mCacheMaxSize;
+        private long mMemoryCacheMaxBytes;
+        private long mMemoryTtlMillis;
+        private long mMemoryStaleMillis;
+        private NetworkTimings mTimings;
+        private RetryPolicy mRetryPolicy;
+        private ConcurrencyLimiter mLimiter;
+        private TlsSessionCache mTls;
+        private Dns mDns;
+        private PriorityScheduler mScheduler;
+
+        public Builder maxIdleConnections(int maxIdleConnections) {
+            if (maxIdleConnections < 0) {
+                throw new IllegalArgumentException("maxIdleConnections < 0: " + maxIdleConnections);
+            }
+            mMaxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        public Builder keepAlive(long duration, TimeUnit unit) {
+            if (duration <= 0) {
+                throw new IllegalArgumentException("keepAlive <= 0: " + duration);
+            }
+            mKeepAliveMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        public Builder maxRequests(int maxRequests) {
+            if (maxRequests < 1) {
+                throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+            }
+            mMaxRequests = maxRequests;
+            return this;
+        }
+
+        public Builder maxRequestsPerHost(int maxRequestsPerHost) {
+            if (maxRequestsPerHost < 1) {
+                throw new IllegalArgumentException("maxRequestsPerHost < 1: " + maxRequestsPerHost);
+            }
+            mMaxRequestsPerHost = maxRequestsPerHost;
+            return this;
+        }
+
+        public Builder connectTimeout(long timeout, TimeUnit unit) {
+            mConnectTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder readTimeout(long timeout, TimeUnit unit) {
+            mReadTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        public Builder writeTimeout(long timeout, TimeUnit unit) {
+            mWriteTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Stores responses under {@code directory}, evicting least recently used entries past
+         * {@code maxSize} bytes. Cache-Control is honored and stale entries are revalidated
+         * with If-None-Match / If-Modified-Since.
+         */
+        public Builder cache(File directory, long maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("maxSize <= 0: " + maxSize);
+            }
+            mCacheDirectory = directory;
+            mCacheMaxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Keeps up to {@code maxBytes} of successful GET bodies in memory. An entry is served
+         * without any I/O for {@code ttl}, then for another {@code staleWhileRevalidate} it is
+         * still served while a single background request refreshes it. Bodies over an eighth
+         * of {@code maxBytes} are not kept; see {@link MemoryCache}.
+         */
+        public Builder memoryCache(long maxBytes, long ttl, long staleWhileRevalidate,
+                                   TimeUnit unit) {
+            if (maxBytes <= 0) {
+                throw new IllegalArgumentException("maxBytes <= 0: " + maxBytes);
+            }
+            mMemoryCacheMaxBytes = maxBytes;
+            mMemoryTtlMillis = unit.toMillis(ttl);
+            mMemoryStaleMillis = unit.toMillis(staleWhileRevalidate);
+            return this;
+        }
 
+        /** Records DNS, connect, TLS, request, TTFB and body read timings of every call. */
+        public Builder timings(NetworkTimings timings) {
+            mTimings = timings;
+            return this;
+        }
+
+        /** Retries, backs off and optionally hedges idempotent requests. */
+        public Builder retry(RetryPolicy policy) {
+            mRetryPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Lets {@code limiter} decide how many calls are in flight instead of the fixed
+         * {@link #maxRequests} and {@link #maxRequestsPerHost}, which are raised to its maximum.
+         */
+        public Builder limiter(ConcurrencyLimiter limiter) {
+            mLimiter = limiter;
+            return this;
+        }
+
+        /**
+         * Makes TLS connections through {@code tls}, so engines sharing it resume each other's
+         * sessions, and counts their handshakes.
+         */
+        public Builder tls(TlsSessionCache tls) {
+            mTls = tls;
+            return this;
+        }
+
+        /** Resolves hosts with {@code dns}, e.g. a {@link CachingDns}, instead of the system's. */
+        public Builder dns(Dns dns) {
+            mDns = dns;
+            return this;
+        }
+
+        /**
+         * Admits calls through {@code scheduler}'s priority lanes. The dispatcher's limits are
+         * raised so that queued async calls wait in the lanes rather than in its FIFO queue.
+         */
+        public Builder scheduler(PriorityScheduler scheduler) {
+            mScheduler = scheduler;
+            return this;
+        }
+
+        /** A new engine on a client of its own, to be released with {@link HTTP#shutdown()}. */
+        public HTTP build() {
+            MemoryCache memoryCache = mMemoryCacheMaxBytes > 0
+                    ? new MemoryCache(mMemoryCacheMaxBytes) : null;
+            return new HTTP(newClient(), new SingleFlight(), memoryCache,
+                    mMemoryTtlMillis, mMemoryStaleMillis);
+        }
+
+        OkHttpClient newClient() {
+            int maxRequests = mMaxRequests;
+            int maxRequestsPerHost = mMaxRequestsPerHost;
+            if (mLimiter != null) {
+                maxRequests = Math.max(maxRequests, mLimiter.maxLimit());
+                maxRequestsPerHost = Math.max(maxRequestsPerHost, mLimiter.maxLimit());
+            }
+            if (mScheduler != null) {
+                // Room for a queue three times the slots, so background calls waiting in a
+                // lane can't hold every dispatcher thread an interactive call would need.
+                maxRequests = Math.max(maxRequests, 4 * mScheduler.maxInFlight());
+                maxRequestsPerHost = Math.max(maxRequestsPerHost, 4 * mScheduler.maxInFlight());
+            }
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(maxRequests);
+            dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+            OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                    .connectionPool(new ConnectionPool(mMaxIdleConnections,
+                            mKeepAliveMillis, TimeUnit.MILLISECONDS))
+                    .dispatcher(dispatcher)
+                    .connectTimeout(mConnectTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .readTimeout(mReadTimeoutMillis, TimeUnit.MILLISECONDS)
+                    .writeTimeout(mWriteTimeoutMillis, TimeUnit.MILLISECONDS);
+
+            if (mDns != null) {
+                builder.dns(mDns);
+            }
+            if (mTimings != null) {
+                builder.eventListenerFactory(mTimings);
+            }
+            // Outermost, so a call keeps its lane's slot across retries and hedges.
+            if (mScheduler != null) {
+                builder.addInterceptor(mScheduler);
+            }
+            // Next, so every retried or hedged attempt passes the interceptors below.
+            if (mRetryPolicy != null) {
+                builder.addInterceptor(mRetryPolicy);
+            }
+            // Every attempt takes its own permit, and its latency feeds the limit.
+            if (mLimiter != null) {
+                builder.addInterceptor(mLimiter);
+            }
+            if (mTls != null) {
+                builder.sslSocketFactory(mTls.socketFactory(), mTls.trustManager())
+                        .addInterceptor(mTls.handshakeScope())
+                        .addNetworkInterceptor(mTls);
+            }
+            if (mCacheDirectory != null) {
+                builder.cache(new Cache(mCacheDirectory, mCacheMaxSize))
+                        .addInterceptor(new CacheStats());
+            }
+            return builder.build();
+        }
+    }
 }
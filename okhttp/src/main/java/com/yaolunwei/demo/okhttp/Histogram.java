@@ -0,0 +1,123 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of durations in microseconds. Values below 8 get their own
+ * bucket; above that every power of two is split into 8 sub-buckets, so a recorded value is
+ * off by at most 12.5% when read back. Recording is a couple of atomic increments and never
+ * allocates, which keeps it cheap enough for per-call use.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Covers up to 2^40 us, about 12 days.
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS =
+            SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public void record(long micros) {
+        if (micros < 0) micros = 0;
+        mCounts.incrementAndGet(indexOf(micros));
+        mCount.incrementAndGet();
+        mSum.addAndGet(micros);
+        long max;
+        while (micros > (max = mMax.get()) && !mMax.compareAndSet(max, micros)) {
+        }
+    }
+
+    public long count() {
+        return mCount.get();
+    }
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        return new Snapshot(counts, total, mSum.get(), mMax.get());
+    }
+
+    static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    /** Upper bound, in microseconds, of the values that land in bucket {@code index}. */
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long low = (1L << exponent) + ((long) sub << (exponent - SUB_BUCKET_BITS));
+        return low + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /** Immutable copy of a histogram's counts. */
+    public static final class Snapshot {
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long count() {
+            return mCount;
+        }
+
+        public long meanMicros() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        public long maxMicros() {
+            return mMax;
+        }
+
+        /** The value at {@code quantile} (0..1), or 0 if nothing was recorded. */
+        public long percentileMicros(double quantile) {
+            if (mCount == 0) return 0;
+            long rank = (long) Math.ceil(quantile * mCount);
+            if (rank < 1) rank = 1;
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBoundOf(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount
+                    + " mean=" + meanMicros() + "us"
+                    + " p50=" + percentileMicros(0.50) + "us"
+                    + " p90=" + percentileMicros(0.90) + "us"
+                    + " p99=" + percentileMicros(0.99) + "us"
+                    + " max=" + mMax + "us";
+        }
+    }
+}
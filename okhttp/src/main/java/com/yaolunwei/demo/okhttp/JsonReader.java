@@ -0,0 +1,525 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+
+/**
+ * Pull parser that reads JSON token by token straight from a {@link BufferedSource}, so a
+ * response body is decoded as it arrives instead of being copied into a String first. Only
+ * the current token is ever held; {@link #readArray} hands array elements to a callback one
+ * at a time so large arrays are never materialized.
+ */
+public class JsonReader implements Closeable {
+
+    public enum Token {
+        BEGIN_ARRAY,
+        END_ARRAY,
+        BEGIN_OBJECT,
+        END_OBJECT,
+        NAME,
+        STRING,
+        NUMBER,
+        BOOLEAN,
+        NULL,
+        END_DOCUMENT
+    }
+
+    /** Builds one value from the reader, consuming exactly that value. */
+    public interface Decoder<T> {
+        T decode(JsonReader reader) throws IOException;
+    }
+
+    public interface Callback<T> {
+        void onElement(T element) throws IOException;
+    }
+
+    private static final ByteString STRING_TERMINALS = ByteString.encodeUtf8("\"\\");
+    private static final ByteString LITERAL_TERMINALS = ByteString.encodeUtf8(" \t\r\n,:]}");
+
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final BufferedSource mSource;
+    private final Buffer mBuffer;
+    private final Closeable mOwner;
+
+    private int[] mScopes = new int[32];
+    private int mDepth = 1;
+    /** The next token with its first byte (and a string's opening quote) consumed, or null. */
+    private Token mPeeked;
+
+    public JsonReader(BufferedSource source) {
+        this(source, source);
+    }
+
+    JsonReader(ResponseStream stream) {
+        this(stream.source(), stream);
+    }
+
+    private JsonReader(BufferedSource source, Closeable owner) {
+        mSource = source;
+        mBuffer = source.buffer();
+        mOwner = owner;
+        mScopes[0] = EMPTY_DOCUMENT;
+    }
+
+    public Token peek() throws IOException {
+        if (mPeeked != null) {
+            return mPeeked;
+        }
+
+        switch (mScopes[mDepth - 1]) {
+            case EMPTY_DOCUMENT:
+                mScopes[mDepth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            case NONEMPTY_DOCUMENT:
+                if (nextNonWhitespace() != -1) {
+                    throw syntaxError("trailing data after the document");
+                }
+                return mPeeked = Token.END_DOCUMENT;
+            case EMPTY_ARRAY:
+                if (nextNonWhitespace() == ']') {
+                    mBuffer.skip(1);
+                    return mPeeked = Token.END_ARRAY;
+                }
+                mScopes[mDepth - 1] = NONEMPTY_ARRAY;
+                break;
+            case NONEMPTY_ARRAY:
+                int c = nextNonWhitespace();
+                if (c == ']') {
+                    mBuffer.skip(1);
+                    return mPeeked = Token.END_ARRAY;
+                }
+                consume(',', c);
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if (c == '}') {
+                    mBuffer.skip(1);
+                    return mPeeked = Token.END_OBJECT;
+                }
+                if (mScopes[mDepth - 1] == NONEMPTY_OBJECT) {
+                    consume(',', c);
+                    c = nextNonWhitespace();
+                }
+                consume('"', c);
+                mScopes[mDepth - 1] = DANGLING_NAME;
+                return mPeeked = Token.NAME;
+            case DANGLING_NAME:
+                consume(':', nextNonWhitespace());
+                mScopes[mDepth - 1] = NONEMPTY_OBJECT;
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+        return mPeeked = peekValue();
+    }
+
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_ARRAY && token != Token.END_OBJECT
+                && token != Token.END_DOCUMENT;
+    }
+
+    public void beginArray() throws IOException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        expect(Token.END_ARRAY);
+        mDepth--;
+    }
+
+    public void beginObject() throws IOException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        expect(Token.END_OBJECT);
+        mDepth--;
+    }
+
+    public String nextName() throws IOException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /** Reads a string, or a number as its literal text. */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.STRING) {
+            mPeeked = null;
+            return readString();
+        } else if (token == Token.NUMBER) {
+            mPeeked = null;
+            return readNumber();
+        }
+        throw unexpected(Token.STRING, token);
+    }
+
+    public long nextLong() throws IOException {
+        String literal = nextNumber();
+        try {
+            return Long.parseLong(literal);
+        } catch (NumberFormatException e) {
+            double value = parseDouble(literal);
+            if (value != (long) value) {
+                throw syntaxError("not a long: " + literal);
+            }
+            return (long) value;
+        }
+    }
+
+    public int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw syntaxError("not an int: " + value);
+        }
+        return (int) value;
+    }
+
+    public double nextDouble() throws IOException {
+        return parseDouble(nextNumber());
+    }
+
+    public boolean nextBoolean() throws IOException {
+        expect(Token.BOOLEAN);
+        String literal = readLiteral();
+        if ("true".equals(literal)) {
+            return true;
+        } else if ("false".equals(literal)) {
+            return false;
+        }
+        throw syntaxError("bad literal: " + literal);
+    }
+
+    public void nextNull() throws IOException {
+        expect(Token.NULL);
+        String literal = readLiteral();
+        if (!"null".equals(literal)) {
+            throw syntaxError("bad literal: " + literal);
+        }
+    }
+
+    /** Skips the next value, including everything nested in it, without decoding strings. */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            switch (token) {
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    if (depth == 0) {
+                        throw syntaxError("no value to skip");
+                    }
+                    endArray();
+                    depth--;
+                    break;
+                case END_OBJECT:
+                    if (depth == 0) {
+                        throw syntaxError("no value to skip");
+                    }
+                    endObject();
+                    depth--;
+                    break;
+                case NAME:
+                case STRING:
+                    mPeeked = null;
+                    skipString();
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("no value to skip");
+                case NUMBER:
+                    mPeeked = null;
+                    readNumber();
+                    break;
+                default:
+                    mPeeked = null;
+                    readLiteral();
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Reads an array, passing each element to {@code callback} as soon as it is decoded.
+     * Returns the number of elements.
+     */
+    public <T> long readArray(Decoder<T> decoder, Callback<T> callback) throws IOException {
+        long count = 0;
+        beginArray();
+        while (hasNext()) {
+            callback.onElement(decoder.decode(this));
+            count++;
+        }
+        endArray();
+        return count;
+    }
+
+    public <T> List<T> readList(Decoder<T> decoder) throws IOException {
+        final List<T> list = new ArrayList<>();
+        readArray(decoder, new Callback<T>() {
+            @Override
+            public void onElement(T element) {
+                list.add(element);
+            }
+        });
+        return list;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mPeeked = null;
+        mDepth = 0;
+        mOwner.close();
+    }
+
+    private Token peekValue() throws IOException {
+        int c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                mBuffer.skip(1);
+                return Token.BEGIN_OBJECT;
+            case '[':
+                mBuffer.skip(1);
+                return Token.BEGIN_ARRAY;
+            case '"':
+                mBuffer.skip(1);
+                return Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            case -1:
+                throw new EOFException("End of input");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw syntaxError("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private String nextNumber() throws IOException {
+        Token token = peek();
+        if (token == Token.NUMBER) {
+            mPeeked = null;
+            return readNumber();
+        } else if (token == Token.STRING) {
+            mPeeked = null;
+            String literal = readString();
+            if (!isNumber(literal)) {
+                throw syntaxError("not a number: " + literal);
+            }
+            return literal;
+        }
+        throw unexpected(Token.NUMBER, token);
+    }
+
+    /** Reads up to and including the closing quote; the opening quote is already consumed. */
+    private String readString() throws IOException {
+        StringBuilder builder = null;
+        while (true) {
+            long index = mSource.indexOfElement(STRING_TERMINALS);
+            if (index == -1) {
+                throw syntaxError("unterminated string");
+            }
+            if (mBuffer.getByte(index) == '"') {
+                String chunk = mBuffer.readUtf8(index);
+                mBuffer.skip(1);
+                if (builder == null) {
+                    return chunk;
+                }
+                return builder.append(chunk).toString();
+            }
+            if (builder == null) {
+                builder = new StringBuilder();
+            }
+            builder.append(mBuffer.readUtf8(index));
+            mBuffer.skip(1);
+            builder.append(readEscape());
+        }
+    }
+
+    private void skipString() throws IOException {
+        while (true) {
+            long index = mSource.indexOfElement(STRING_TERMINALS);
+            if (index == -1) {
+                throw syntaxError("unterminated string");
+            }
+            byte terminal = mBuffer.getByte(index);
+            mBuffer.skip(index + 1);
+            if (terminal == '"') {
+                return;
+            }
+            readEscape();
+        }
+    }
+
+    private char readEscape() throws IOException {
+        if (!mSource.request(1)) {
+            throw syntaxError("unterminated escape");
+        }
+        byte escaped = mBuffer.readByte();
+        switch (escaped) {
+            case 'u':
+                if (!mSource.request(4)) {
+                    throw syntaxError("unterminated escape");
+                }
+                String hex = mBuffer.readUtf8(4);
+                try {
+                    return (char) Integer.parseInt(hex, 16);
+                } catch (NumberFormatException e) {
+                    throw syntaxError("bad escape \\u" + hex);
+                }
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case 'r':
+                return '\r';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case '"':
+            case '\\':
+            case '/':
+                return (char) escaped;
+            default:
+                throw syntaxError("bad escape \\" + (char) escaped);
+        }
+    }
+
+    /** Reads a number literal, rejecting anything outside the JSON number grammar. */
+    private String readNumber() throws IOException {
+        String literal = readLiteral();
+        if (!isNumber(literal)) {
+            throw syntaxError("not a number: " + literal);
+        }
+        return literal;
+    }
+
+    /** Reads an unquoted number, boolean or null. */
+    private String readLiteral() throws IOException {
+        long index = mSource.indexOfElement(LITERAL_TERMINALS);
+        return index != -1 ? mBuffer.readUtf8(index) : mBuffer.readUtf8();
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        while (mSource.request(1)) {
+            int c = mBuffer.getByte(0) & 0xff;
+            if (c != ' ' && c != '\n' && c != '\t' && c != '\r') {
+                return c;
+            }
+            mBuffer.skip(1);
+        }
+        return -1;
+    }
+
+    private void consume(char expected, int c) throws IOException {
+        if (c != expected) {
+            throw c == -1 ? new EOFException("End of input")
+                    : syntaxError("expected '" + expected + "' but was '" + (char) c + "'");
+        }
+        mBuffer.skip(1);
+    }
+
+    private void expect(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw unexpected(expected, token);
+        }
+        mPeeked = null;
+    }
+
+    private void push(int scope) {
+        if (mDepth == mScopes.length) {
+            mScopes = Arrays.copyOf(mScopes, mDepth * 2);
+        }
+        mScopes[mDepth++] = scope;
+    }
+
+    /** {@code -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?} */
+    private static boolean isNumber(String literal) {
+        int i = 0;
+        int length = literal.length();
+        if (i < length && literal.charAt(i) == '-') {
+            i++;
+        }
+        if (i < length && literal.charAt(i) == '0') {
+            i++;
+        } else {
+            int start = i;
+            i = skipDigits(literal, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && literal.charAt(i) == '.') {
+            int start = ++i;
+            i = skipDigits(literal, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        if (i < length && (literal.charAt(i) == 'e' || literal.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (literal.charAt(i) == '+' || literal.charAt(i) == '-')) {
+                i++;
+            }
+            int start = i;
+            i = skipDigits(literal, i);
+            if (i == start) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    private static int skipDigits(String literal, int i) {
+        while (i < literal.length() && literal.charAt(i) >= '0' && literal.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private double parseDouble(String literal) throws IOException {
+        try {
+            return Double.parseDouble(literal);
+        } catch (NumberFormatException e) {
+            throw syntaxError("not a number: " + literal);
+        }
+    }
+
+    private IOException unexpected(Token expected, Token actual) {
+        return syntaxError("expected " + expected + " but was " + actual);
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON at depth " + (mDepth - 1) + ": " + message);
+    }
+}
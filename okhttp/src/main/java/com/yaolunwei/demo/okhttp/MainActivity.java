@@ -3,35 +3,67 @@ package com.yaolunwei.demo.okhttp;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
+import android.view.View;
 
+import java.io.File;
 import java.io.IOException;
-
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
+import java.util.Collections;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "okhttp";
+    private static final long CACHE_SIZE = 10 * 1024 * 1024;
 
     private String mGeturl = "https://raw.github.com/square/okhttp/master/README.md";
 
+    private HTTP mHttp;
+    private Batch mBatch;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-//        new Thread() {
-//            @Override
-//            public void run() {
-//                try {
-//                    String getString = get(mGeturl);
-//                    Log.d(TAG, getString);
-//                } catch (IOException e) {
-//                    e.printStackTrace();
-//                }
-//            }
-//        }.start();
+        mHttp = new HTTP.Builder()
+                .cache(new File(getCacheDir(), "http"), CACHE_SIZE)
+                .build();
+
+        findViewById(R.id.fetch).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                fetch();
+            }
+        });
+    }
+
+    private void fetch() {
+        if (mBatch != null) {
+            mBatch.cancel();
+        }
+        mBatch = mHttp.getAll(Collections.singletonList(mGeturl), 4, new Batch.Callback() {
+            @Override
+            public void onResponse(String url, String body) {
+                Log.d(TAG, body);
+            }
 
+            @Override
+            public void onFailure(String url, IOException e) {
+                Log.e(TAG, "GET " + url + " failed", e);
+            }
+
+            @Override
+            public void onComplete() {
+                Log.d(TAG, "cache: " + mHttp.cacheStats());
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mBatch != null) {
+            mBatch.cancel();
+        }
+        mHttp.shutdown();
     }
 
 }
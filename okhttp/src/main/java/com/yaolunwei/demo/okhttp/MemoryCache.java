@@ -0,0 +1,218 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.Utf8;
+
+/**
+ * Size-bounded in-memory LRU of response bodies, weighted by their UTF-8 byte size.
+ *
+ * <p>Keys are spread over independently locked segments, each an access-ordered
+ * {@link LinkedHashMap} holding an equal share of the byte budget, so concurrent lookups
+ * of different urls rarely contend. A body larger than one share is never cached: with the
+ * default 8 segments, anything over an eighth of {@code maxBytes}. Every entry is fresh for
+ * its TTL and may then be served stale for a further window while it is revalidated.
+ */
+public class MemoryCache {
+
+    interface Clock {
+        long millis();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    public static final class Entry {
+        final String body;
+        final long weight;
+        final long expiresAt;
+        final long staleUntil;
+        final AtomicBoolean revalidating = new AtomicBoolean();
+
+        Entry(String body, long weight, long expiresAt, long staleUntil) {
+            this.body = body;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+            this.staleUntil = staleUntil;
+        }
+
+        public String body() {
+            return body;
+        }
+
+        boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+
+        /**
+         * Claims the right to refresh this stale entry; only the first caller gets true.
+         */
+        boolean startRevalidation() {
+            return revalidating.compareAndSet(false, true);
+        }
+
+        /** Gives up the claim, whatever the refresh's outcome. */
+        void endRevalidation() {
+            revalidating.set(false);
+        }
+    }
+
+    private static final class Segment extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        final long maxBytes;
+        long bytes;
+
+        Segment(long maxBytes) {
+            super(16, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    private final Segment[] mSegments;
+    private final Clock mClock;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mStaleHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    /** A cache of 8 segments, each holding at most {@code maxBytes / 8} bytes. */
+    public MemoryCache(long maxBytes) {
+        this(maxBytes, 8, SYSTEM_CLOCK);
+    }
+
+    MemoryCache(long maxBytes, int concurrencyLevel, Clock clock) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes <= 0: " + maxBytes);
+        }
+        int segments = 1;
+        while (segments < concurrencyLevel) {
+            segments <<= 1;
+        }
+        mSegments = new Segment[segments];
+        for (int i = 0; i < segments; i++) {
+            mSegments[i] = new Segment(maxBytes / segments);
+        }
+        mClock = clock;
+    }
+
+    /** Returns the entry for {@code key} if it is fresh or still servable stale, otherwise null. */
+    public Entry get(String key) {
+        Segment segment = segmentFor(key);
+        long now = mClock.millis();
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && now >= entry.staleUntil) {
+                segment.remove(key);
+                segment.bytes -= entry.weight;
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            mMisses.incrementAndGet();
+        } else if (entry.isFresh(now)) {
+            mHits.incrementAndGet();
+        } else {
+            mStaleHits.incrementAndGet();
+        }
+        return entry;
+    }
+
+    public boolean isFresh(Entry entry) {
+        return entry.isFresh(mClock.millis());
+    }
+
+    /**
+     * Stores {@code body}, fresh for {@code ttlMillis} and then servable stale for another
+     * {@code staleMillis}. Bodies larger than a segment's share of the budget are not kept.
+     */
+    public void put(String key, String body, long ttlMillis, long staleMillis) {
+        long weight = Utf8.size(body);
+        Segment segment = segmentFor(key);
+        if (weight > segment.maxBytes) {
+            remove(key);
+            return;
+        }
+
+        long now = mClock.millis();
+        Entry entry = new Entry(body, weight, now + ttlMillis, now + ttlMillis + staleMillis);
+        synchronized (segment) {
+            Entry previous = segment.put(key, entry);
+            if (previous != null) {
+                segment.bytes -= previous.weight;
+            }
+            segment.bytes += weight;
+
+            Iterator<Map.Entry<String, Entry>> eldest = segment.entrySet().iterator();
+            while (segment.bytes > segment.maxBytes && eldest.hasNext()) {
+                Entry evicted = eldest.next().getValue();
+                eldest.remove();
+                segment.bytes -= evicted.weight;
+                mEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void remove(String key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry removed = segment.remove(key);
+            if (removed != null) {
+                segment.bytes -= removed.weight;
+            }
+        }
+    }
+
+    public void evictAll() {
+        for (Segment segment : mSegments) {
+            synchronized (segment) {
+                segment.clear();
+                segment.bytes = 0;
+            }
+        }
+    }
+
+    /** Total weight of the cached bodies in bytes. */
+    public long size() {
+        long size = 0;
+        for (Segment segment : mSegments) {
+            synchronized (segment) {
+                size += segment.bytes;
+            }
+        }
+        return size;
+    }
+
+    public long hitCount() {
+        return mHits.get();
+    }
+
+    public long staleHitCount() {
+        return mStaleHits.get();
+    }
+
+    public long missCount() {
+        return mMisses.get();
+    }
+
+    public long evictionCount() {
+        return mEvictions.get();
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return mSegments[h & (mSegments.length - 1)];
+    }
+}
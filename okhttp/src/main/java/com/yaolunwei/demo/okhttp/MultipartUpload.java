@@ -0,0 +1,267 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+/**
+ * A {@code multipart/form-data} upload whose file parts are {@link StreamingBody}s, copied
+ * from disk to the socket a segment at a time, so memory use does not depend on file size.
+ *
+ * <p>By default every part goes in one request. With {@link #parallel(int)} each file is sent
+ * as its own request, carrying all the form fields, with up to that many in flight. Progress
+ * is reported over all requests together, and restarts from a request's beginning if OkHttp
+ * retries it.
+ */
+public class MultipartUpload {
+
+    public interface ProgressListener {
+        /** Called on the writing thread, at most every {@link #PROGRESS_INTERVAL} bytes. */
+        void onProgress(long bytesWritten, long contentLength);
+    }
+
+    public static final long PROGRESS_INTERVAL = 64 * 1024;
+
+    private final OkHttpClient mClient;
+    private final String mUrl;
+    private final List<MultipartBody.Part> mFields = new ArrayList<>();
+    private final List<MultipartBody.Part> mFiles = new ArrayList<>();
+    private int mParallelism = 1;
+    private ProgressListener mListener;
+
+    private final AtomicLong mWritten = new AtomicLong();
+    private long mContentLength;
+
+    public MultipartUpload(HTTP http, String url) {
+        mClient = http.client();
+        mUrl = url;
+    }
+
+    public MultipartUpload field(String name, String value) {
+        mFields.add(MultipartBody.Part.createFormData(name, value));
+        return this;
+    }
+
+    public MultipartUpload file(String name, File file, MediaType contentType) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("not a file: " + file);
+        }
+        mFiles.add(MultipartBody.Part.createFormData(name, file.getName(),
+                StreamingBody.create(contentType, file)));
+        return this;
+    }
+
+    /** Sends each file in a request of its own, at most {@code maxInFlight} at a time. */
+    public MultipartUpload parallel(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight < 1: " + maxInFlight);
+        }
+        mParallelism = maxInFlight;
+        return this;
+    }
+
+    public MultipartUpload progress(ProgressListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Sends the upload and returns the response bodies, one per request. Fails with the first
+     * error, after canceling the requests still running.
+     *
+     * @throws IllegalStateException if no field or file was added.
+     */
+    public List<String> send() throws IOException {
+        if (mFields.isEmpty() && mFiles.isEmpty()) {
+            throw new IllegalStateException("nothing to upload");
+        }
+        List<RequestBody> bodies = new ArrayList<>();
+        if (mParallelism == 1 || mFiles.size() <= 1) {
+            bodies.add(multipart(mFiles));
+        } else {
+            for (MultipartBody.Part file : mFiles) {
+                bodies.add(multipart(Arrays.asList(file)));
+            }
+        }
+        mContentLength = 0;
+        for (RequestBody body : bodies) {
+            mContentLength += body.contentLength();
+        }
+        mWritten.set(0);
+
+        if (bodies.size() == 1) {
+            try (Response response = execute(bodies.get(0))) {
+                return Arrays.asList(response.body().string());
+            }
+        }
+        return sendAll(bodies);
+    }
+
+    private RequestBody multipart(List<MultipartBody.Part> files) {
+        MultipartBody.Builder builder = new MultipartBody.Builder().setType(MultipartBody.FORM);
+        for (MultipartBody.Part part : mFields) {
+            builder.addPart(part);
+        }
+        for (MultipartBody.Part part : files) {
+            builder.addPart(part);
+        }
+        return new ProgressBody(builder.build());
+    }
+
+    private Response execute(RequestBody body) throws IOException {
+        Response response = mClient.newCall(request(body)).execute();
+        if (!response.isSuccessful()) {
+            response.close();
+            throw new IOException("Unexpected code " + response);
+        }
+        return response;
+    }
+
+    private Request request(RequestBody body) {
+        return new Request.Builder().url(mUrl).post(body).build();
+    }
+
+    private List<String> sendAll(final List<RequestBody> bodies) throws IOException {
+        final String[] results = new String[bodies.size()];
+        // Guarded by calls, so a part is either canceled by fail() or not started after it.
+        final IOException[] failure = new IOException[1];
+        final List<Call> calls = new ArrayList<>();
+        final Semaphore permits = new Semaphore(mParallelism);
+        final CountDownLatch done = new CountDownLatch(bodies.size());
+        try {
+            for (int i = 0; i < bodies.size(); i++) {
+                permits.acquire();
+                final int index = i;
+                Call call = mClient.newCall(request(bodies.get(i)));
+                synchronized (calls) {
+                    if (failure[0] != null) {
+                        break;
+                    }
+                    calls.add(call);
+                }
+                call.enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        fail(e);
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        try {
+                            if (!response.isSuccessful()) {
+                                fail(new IOException("Unexpected code " + response));
+                                return;
+                            }
+                            results[index] = response.body().string();
+                            permits.release();
+                            done.countDown();
+                        } catch (IOException e) {
+                            fail(e);
+                        } finally {
+                            response.close();
+                        }
+                    }
+
+                    private void fail(IOException e) {
+                        synchronized (calls) {
+                            if (failure[0] == null) {
+                                failure[0] = e;
+                            }
+                            for (Call other : calls) {
+                                other.cancel();
+                            }
+                        }
+                        // Wake the sender and the waiter.
+                        permits.release(bodies.size());
+                        while (done.getCount() > 0) {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            done.await();
+        } catch (InterruptedException e) {
+            synchronized (calls) {
+                for (Call call : calls) {
+                    call.cancel();
+                }
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted uploading");
+        }
+        synchronized (calls) {
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    private void written(long delta) {
+        long after = mWritten.addAndGet(delta);
+        long before = after - delta;
+        ProgressListener listener = mListener;
+        if (listener != null && (after / PROGRESS_INTERVAL != before / PROGRESS_INTERVAL
+                || after == mContentLength)) {
+            listener.onProgress(after, mContentLength);
+        }
+    }
+
+    /** Counts the bytes of a request body as they go to the socket. */
+    private final class ProgressBody extends RequestBody {
+        private final RequestBody mDelegate;
+        private long mAttemptWritten;
+
+        ProgressBody(RequestBody delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return mDelegate.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return mDelegate.contentLength();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            // A retried request starts over; take back what the failed attempt counted.
+            if (mAttemptWritten > 0) {
+                mWritten.addAndGet(-mAttemptWritten);
+                mAttemptWritten = 0;
+            }
+            BufferedSink counting = Okio.buffer(new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    super.write(source, byteCount);
+                    mAttemptWritten += byteCount;
+                    written(byteCount);
+                }
+            });
+            mDelegate.writeTo(counting);
+            counting.emit();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Per-phase call timings collected from OkHttp's {@link EventListener} and aggregated into a
+ * {@link Histogram} per host and {@link Phase}. Each call gets its own listener that only
+ * stores {@link System#nanoTime()} stamps; the histograms are updated once when the call
+ * ends. Install it with {@link HTTP.Builder#timings(NetworkTimings)}.
+ */
+public class NetworkTimings implements EventListener.Factory {
+
+    public enum Phase {
+        DNS,
+        /** TCP connect including TLS. */
+        CONNECT,
+        TLS,
+        REQUEST_WRITE,
+        /** From the request being written to the response headers being read. */
+        TTFB,
+        BODY_READ,
+        TOTAL
+    }
+
+    private final ConcurrentMap<String, Map<Phase, Histogram>> mHosts = new ConcurrentHashMap<>();
+
+    @Override
+    public EventListener create(Call call) {
+        return new CallTimings(call.request().url().host());
+    }
+
+    /** Copies the current histograms, keyed by host and then phase, in sorted order. */
+    public Map<String, Map<Phase, Histogram.Snapshot>> snapshot() {
+        Map<String, Map<Phase, Histogram.Snapshot>> snapshot = new TreeMap<>();
+        for (Map.Entry<String, Map<Phase, Histogram>> host : mHosts.entrySet()) {
+            Map<Phase, Histogram.Snapshot> phases = new EnumMap<>(Phase.class);
+            for (Map.Entry<Phase, Histogram> phase : host.getValue().entrySet()) {
+                if (phase.getValue().count() > 0) {
+                    phases.put(phase.getKey(), phase.getValue().snapshot());
+                }
+            }
+            snapshot.put(host.getKey(), Collections.unmodifiableMap(phases));
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /** The snapshot as text, one "host phase count=.. p50=.. ..." line per histogram. */
+    public String export() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Map<Phase, Histogram.Snapshot>> host : snapshot().entrySet()) {
+            for (Map.Entry<Phase, Histogram.Snapshot> phase : host.getValue().entrySet()) {
+                out.append(host.getKey()).append(' ')
+                        .append(phase.getKey()).append(' ')
+                        .append(phase.getValue()).append('\n');
+            }
+        }
+        return out.toString();
+    }
+
+    Histogram histogram(String host, Phase phase) {
+        Map<Phase, Histogram> phases = mHosts.get(host);
+        if (phases == null) {
+            Map<Phase, Histogram> created = new EnumMap<>(Phase.class);
+            for (Phase p : Phase.values()) {
+                created.put(p, new Histogram());
+            }
+            phases = mHosts.putIfAbsent(host, created);
+            if (phases == null) {
+                phases = created;
+            }
+        }
+        return phases.get(phase);
+    }
+
+    final class CallTimings extends EventListener {
+        private final String mHost;
+        private long mCallStart;
+        private long mDnsStart;
+        private long mDnsEnd;
+        private long mConnectStart;
+        private long mConnectEnd;
+        private long mSecureStart;
+        private long mSecureEnd;
+        private long mRequestStart;
+        private long mRequestEnd;
+        private long mResponseHeaders;
+        private long mBodyStart;
+        private long mBodyEnd;
+
+        CallTimings(String host) {
+            mHost = host;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            mCallStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            mDnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            mDnsEnd = System.nanoTime();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            mConnectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            mSecureStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            mSecureEnd = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                               Protocol protocol) {
+            mConnectEnd = System.nanoTime();
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            mRequestStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            mRequestEnd = System.nanoTime();
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            mRequestEnd = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            mResponseHeaders = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            mBodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            mBodyEnd = System.nanoTime();
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            record(System.nanoTime());
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            record(System.nanoTime());
+        }
+
+        private void record(long callEnd) {
+            add(Phase.DNS, mDnsStart, mDnsEnd);
+            add(Phase.CONNECT, mConnectStart, mConnectEnd);
+            add(Phase.TLS, mSecureStart, mSecureEnd);
+            add(Phase.REQUEST_WRITE, mRequestStart, mRequestEnd);
+            add(Phase.TTFB, mRequestEnd, mResponseHeaders);
+            add(Phase.BODY_READ, mBodyStart, mBodyEnd);
+            add(Phase.TOTAL, mCallStart, callEnd);
+        }
+
+        private void add(Phase phase, long start, long end) {
+            if (start != 0 && end >= start) {
+                histogram(mHost, phase).record((end - start) / 1000);
+            }
+        }
+    }
+}
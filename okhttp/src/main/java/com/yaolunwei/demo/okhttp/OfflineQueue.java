@@ -0,0 +1,614 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+
+/**
+ * POSTs that survive losing the network or the process. {@link #enqueue} appends the request
+ * to a write-ahead journal and returns at once; a single background thread replays the
+ * journal in order, in batches, and appends one acknowledgement record per batch. When the
+ * server can't be reached (I/O error, 408, 429 or 5xx) replay stops and retries with
+ * backoff, or right away on {@link #replay()}. Other 4xx responses are dropped.
+ *
+ * <p>Every record carries a CRC, so a journal cut short by a crash is truncated back to its
+ * last whole record on {@link #open}; a record that fails to append is truncated away at
+ * once. Bodies stay on disk and are read back by offset when sent. Once acknowledged records
+ * make up most of the file it is rewritten with only the pending ones, off the lock that
+ * {@link #enqueue} takes. Delivery is at least once: each request carries an
+ * {@code Idempotency-Key} that stays the same across replays.
+ */
+public class OfflineQueue implements Closeable {
+    private static final int MAGIC = 0x4f465131; // "OFQ1"
+    private static final int HEADER_SIZE = 4 + 8;
+    private static final byte POST = 1;
+    private static final byte ACK = 2;
+    private static final long COMPACT_MIN_BYTES = 64 * 1024;
+
+    private static final class Entry {
+        final long seq;
+        final String url;
+        final MediaType contentType;
+        final int length;
+        final long size;
+        /** Offset of the record in the journal; moves when the journal is rewritten. */
+        long start;
+
+        Entry(long seq, String url, MediaType contentType, int length, long size, long start) {
+            this.seq = seq;
+            this.url = url;
+            this.contentType = contentType;
+            this.length = length;
+            this.size = size;
+            this.start = start;
+        }
+
+        /** The body is the last thing in the record before its CRC. */
+        long bodyStart() {
+            return start + size - 4 - length;
+        }
+    }
+
+    private final OkHttpClient mClient;
+    private final File mFile;
+    private final long mId;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Random mRandom = new Random();
+
+    private int mBatchSize = 32;
+    private long mMinRetryMillis = 1000;
+    private long mMaxRetryMillis = TimeUnit.MINUTES.toMillis(5);
+    private boolean mSyncWrites;
+
+    // Guarded by this.
+    private final ArrayDeque<Entry> mPending = new ArrayDeque<>();
+    private RandomAccessFile mJournal;
+    private long mNextSeq;
+    private long mJournalBytes;
+    private long mPendingBytes;
+    private ScheduledFuture<?> mReplay;
+    private int mFailures;
+    private boolean mCompacting;
+    private boolean mBroken;
+    private boolean mClosed;
+
+    /** Reads bodies back; only the replay thread uses it, so reads don't take the lock. */
+    private RandomAccessFile mReader;
+
+    private final AtomicLong mDelivered = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+
+    private OfflineQueue(OkHttpClient client, File file, long id) {
+        mClient = client;
+        mFile = file;
+        mId = id;
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "OfflineQueue replay");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Opens the queue journaled in {@code directory}, recovering anything a previous process
+     * left pending. Replay starts with the next {@link #enqueue} or {@link #replay()}.
+     */
+    public static OfflineQueue open(HTTP http, File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        File file = journalFile(directory);
+        OfflineQueue queue = file.exists() ? recover(http.client(), file) : null;
+        if (queue == null) {
+            queue = new OfflineQueue(http.client(), file, new Random().nextLong());
+            queue.rewrite();
+        } else {
+            queue.openForAppend();
+        }
+        return queue;
+    }
+
+    static File journalFile(File directory) {
+        return new File(directory, "offline.journal");
+    }
+
+    /** Requests acknowledged together by one journal record. */
+    public OfflineQueue batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize < 1: " + batchSize);
+        }
+        mBatchSize = batchSize;
+        return this;
+    }
+
+    public OfflineQueue retryDelay(long min, long max, TimeUnit unit) {
+        mMinRetryMillis = unit.toMillis(min);
+        mMaxRetryMillis = unit.toMillis(max);
+        return this;
+    }
+
+    /** Whether {@link #enqueue} waits for the journal to reach the disk (fsync). */
+    public OfflineQueue syncWrites(boolean syncWrites) {
+        mSyncWrites = syncWrites;
+        return this;
+    }
+
+    // QUEUE A JSON POST, RETURNS ITS SEQUENCE NUMBER
+    public long enqueue(String url, String json) throws IOException {
+        return enqueue(url, HTTP.JSON, json.getBytes("UTF-8"));
+    }
+
+    public long enqueue(String url, MediaType contentType, byte[] body) throws IOException {
+        RandomAccessFile journal;
+        long seq;
+        synchronized (this) {
+            if (mClosed) {
+                throw new IOException("closed");
+            }
+            journal = mJournal;
+            seq = mNextSeq;
+            long start = mJournalBytes;
+            long size = appendToJournal(POST, postRecord(seq, url, contentType, body));
+            mNextSeq++;
+            mPending.add(new Entry(seq, url, contentType, body.length, size, start));
+            mPendingBytes += size;
+            if (mFailures == 0) {
+                scheduleReplay(0);
+            }
+        }
+        if (mSyncWrites) {
+            // Outside the lock so other callers can append meanwhile.
+            try {
+                journal.getFD().sync();
+            } catch (IOException e) {
+                synchronized (this) {
+                    // A rewrite that replaced the journal has synced its copy of this request.
+                    if (mJournal == journal) {
+                        throw e;
+                    }
+                }
+            }
+        }
+        return seq;
+    }
+
+    /** Replays now, e.g. when connectivity comes back, instead of waiting for the backoff. */
+    public synchronized void replay() {
+        mFailures = 0;
+        if (mReplay != null && mReplay.cancel(false)) {
+            mReplay = null;
+        }
+        scheduleReplay(0);
+    }
+
+    public synchronized int size() {
+        return mPending.size();
+    }
+
+    public long deliveredCount() {
+        return mDelivered.get();
+    }
+
+    /** Requests dropped because the server refused them with a 4xx. */
+    public long rejectedCount() {
+        return mRejected.get();
+    }
+
+    /**
+     * Waits until every queued request has been delivered or rejected, and the journal has
+     * been compacted if that was due.
+     */
+    public boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (!mPending.isEmpty() || mCompacting) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /** Stops replaying and closes the journal; pending requests stay in it for next time. */
+    @Override
+    public void close() throws IOException {
+        mExecutor.shutdownNow();
+        synchronized (this) {
+            mClosed = true;
+            notifyAll();
+            try {
+                if (mReader != null) {
+                    mReader.close();
+                }
+            } finally {
+                if (mJournal != null) {
+                    mJournal.close();
+                }
+            }
+        }
+    }
+
+    private void scheduleReplay(long delayMillis) {
+        if (mClosed || mReplay != null || mPending.isEmpty()) {
+            return;
+        }
+        mReplay = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (OfflineQueue.this) {
+                    mReplay = null;
+                }
+                replayPending();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Runs on the replay thread, which is the only one that removes entries. */
+    private void replayPending() {
+        while (true) {
+            List<Entry> batch = new ArrayList<>();
+            synchronized (this) {
+                if (mClosed) {
+                    return;
+                }
+                for (Entry entry : mPending) {
+                    if (batch.size() == mBatchSize) break;
+                    batch.add(entry);
+                }
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            int sent = 0;
+            boolean reachable = true;
+            for (Entry entry : batch) {
+                if (!send(entry)) {
+                    reachable = false;
+                    break;
+                }
+                sent++;
+            }
+
+            boolean compact = false;
+            synchronized (this) {
+                try {
+                    if (sent > 0) {
+                        acknowledge(batch.get(sent - 1).seq, sent);
+                        compact = mJournalBytes > COMPACT_MIN_BYTES
+                                && mJournalBytes > 2 * mPendingBytes;
+                        mCompacting = compact;
+                    }
+                } catch (IOException e) {
+                    // The journal still holds them; they'll be sent again.
+                    reachable = false;
+                }
+                if (!reachable) {
+                    mFailures++;
+                    scheduleReplay(retryDelayMillis(mFailures));
+                    return;
+                }
+                mFailures = 0;
+            }
+            if (compact) {
+                try {
+                    rewrite();
+                } catch (IOException e) {
+                    // The old journal is intact; compaction is tried again after the next batch.
+                } finally {
+                    synchronized (this) {
+                        mCompacting = false;
+                        notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /** Returns false if the request should be tried again later. */
+    private boolean send(Entry entry) {
+        byte[] body = new byte[entry.length];
+        long start;
+        synchronized (this) {
+            start = entry.bodyStart();
+        }
+        try {
+            mReader.seek(start);
+            mReader.readFully(body);
+        } catch (IOException e) {
+            return false;
+        }
+        Request request = new Request.Builder()
+                .url(entry.url)
+                .header("Idempotency-Key", Long.toHexString(mId) + "-" + entry.seq)
+                .post(RequestBody.create(entry.contentType, body))
+                .build();
+        try (Response response = mClient.newCall(request).execute()) {
+            int code = response.code();
+            if (response.isSuccessful()) {
+                mDelivered.incrementAndGet();
+                return true;
+            }
+            if (code == 408 || code == 429 || code >= 500) {
+                return false;
+            }
+            mRejected.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private long retryDelayMillis(int failures) {
+        long ceiling = mMinRetryMillis << Math.min(failures - 1, 20);
+        if (ceiling <= 0 || ceiling > mMaxRetryMillis) {
+            ceiling = mMaxRetryMillis;
+        }
+        return ceiling / 2 + (long) (mRandom.nextDouble() * ceiling / 2);
+    }
+
+    private void acknowledge(long seq, int count) throws IOException {
+        if (mClosed) {
+            throw new IOException("closed");
+        }
+        appendToJournal(ACK, new Buffer().writeLong(seq));
+        for (int i = 0; i < count; i++) {
+            mPendingBytes -= mPending.remove().size;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Appends at the end of the journal. A failed append is truncated away so the next record
+     * follows the last whole one; if even that fails the queue refuses further writes.
+     */
+    private long appendToJournal(byte type, Buffer record) throws IOException {
+        if (mBroken) {
+            throw new IOException("journal is broken: " + mFile);
+        }
+        try {
+            mJournal.seek(mJournalBytes);
+            long size = append(mJournal, type, record);
+            mJournalBytes += size;
+            return size;
+        } catch (IOException e) {
+            try {
+                mJournal.setLength(mJournalBytes);
+            } catch (IOException truncateFailed) {
+                mBroken = true;
+            }
+            throw e;
+        }
+    }
+
+    /** Writes type, length, record and CRC, and returns the bytes written. */
+    private static long append(RandomAccessFile out, byte type, Buffer record)
+            throws IOException {
+        long size = record.size() + 9;
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(record.snapshot().toByteArray());
+        Buffer buffer = new Buffer();
+        buffer.writeByte(type).writeInt((int) record.size()).writeAll(record);
+        buffer.writeInt((int) crc.getValue());
+        out.write(buffer.readByteArray());
+        return size;
+    }
+
+    /**
+     * Atomically replaces the journal with one holding only the pending requests. The pending
+     * records are copied and synced without the lock; only requests enqueued meanwhile are
+     * copied under it, just before the swap. Runs on the replay thread, or in {@link #open}.
+     */
+    private void rewrite() throws IOException {
+        List<Entry> pending;
+        long end;
+        long delivered;
+        synchronized (this) {
+            pending = new ArrayList<>(mPending);
+            end = mJournalBytes;
+            // Everything before the first pending request has been delivered; recording that
+            // keeps the sequence, and so the Idempotency-Keys, moving forward once drained.
+            delivered = pending.isEmpty() ? mNextSeq - 1 : pending.get(0).seq - 1;
+        }
+
+        File tmp = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile journal = null;
+        RandomAccessFile reader = null;
+        try {
+            journal = new RandomAccessFile(tmp, "rw");
+            journal.setLength(0);
+            journal.write(new Buffer().writeInt(MAGIC).writeLong(mId).readByteArray());
+            long position = HEADER_SIZE + append(journal, ACK, new Buffer().writeLong(delivered));
+            long[] starts = new long[pending.size()];
+            for (int i = 0; i < starts.length; i++) {
+                Entry entry = pending.get(i);
+                starts[i] = position;
+                copy(entry.start, entry.size, journal);
+                position += entry.size;
+            }
+            journal.getFD().sync();
+            reader = new RandomAccessFile(tmp, "r");
+
+            synchronized (this) {
+                if (mClosed) {
+                    throw new IOException("closed");
+                }
+                long appended = mJournalBytes - end;
+                if (appended > 0) {
+                    copy(end, appended, journal);
+                    if (mSyncWrites) {
+                        journal.getFD().sync();
+                    }
+                }
+                // The old journal stays open and current until the new one is in place.
+                if (!tmp.renameTo(mFile)) {
+                    throw new IOException("cannot replace " + mFile);
+                }
+                int i = 0;
+                for (Entry entry : mPending) {
+                    entry.start = i < starts.length ? starts[i++] : entry.start - end + position;
+                }
+                mJournalBytes = position + appended;
+                RandomAccessFile oldJournal = mJournal;
+                RandomAccessFile oldReader = mReader;
+                mJournal = journal;
+                mReader = reader;
+                journal = oldJournal;
+                reader = oldReader;
+                tmp = null;
+            }
+        } finally {
+            closeQuietly(reader);
+            closeQuietly(journal);
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /** Copies {@code count} bytes at {@code start} of the journal through {@link #mReader}. */
+    private void copy(long start, long count, RandomAccessFile out) throws IOException {
+        byte[] buffer = new byte[8192];
+        mReader.seek(start);
+        while (count > 0) {
+            int n = (int) Math.min(buffer.length, count);
+            mReader.readFully(buffer, 0, n);
+            out.write(buffer, 0, n);
+            count -= n;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void openForAppend() throws IOException {
+        mJournal = new RandomAccessFile(mFile, "rw");
+        mReader = new RandomAccessFile(mFile, "r");
+    }
+
+    /** Reads the journal up to its last whole record and drops whatever follows it. */
+    private static OfflineQueue recover(OkHttpClient client, File file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        long acked = -1;
+        long nextSeq = 0;
+        long good;
+        OfflineQueue queue;
+        try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+            try {
+                if (source.readInt() != MAGIC) {
+                    return null;
+                }
+                queue = new OfflineQueue(client, file, source.readLong());
+            } catch (EOFException e) {
+                return null;
+            }
+            good = HEADER_SIZE;
+
+            CRC32 crc = new CRC32();
+            while (!source.exhausted()) {
+                try {
+                    byte type = source.readByte();
+                    int length = source.readInt();
+                    if (length < 0 || !source.request(length + 4L)) {
+                        break;
+                    }
+                    Buffer record = new Buffer();
+                    source.readFully(record, length);
+                    crc.reset();
+                    crc.update(type);
+                    crc.update(record.snapshot().toByteArray());
+                    if (source.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+
+                    long seq = record.readLong();
+                    if (type == ACK) {
+                        acked = seq;
+                        nextSeq = Math.max(nextSeq, seq + 1);
+                    } else if (type == POST) {
+                        String url = readString(record);
+                        String contentType = readString(record);
+                        entries.add(new Entry(seq, url,
+                                contentType.isEmpty() ? null : MediaType.parse(contentType),
+                                record.readInt(), length + 9, good));
+                        nextSeq = Math.max(nextSeq, seq + 1);
+                    } else {
+                        break;
+                    }
+                    good += length + 9;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+
+        if (good < file.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(good);
+            }
+        }
+
+        queue.mNextSeq = nextSeq;
+        queue.mJournalBytes = good;
+        for (Entry entry : entries) {
+            if (entry.seq > acked) {
+                queue.mPending.add(entry);
+                queue.mPendingBytes += entry.size;
+            }
+        }
+        return queue;
+    }
+
+    private static Buffer postRecord(long seq, String url, MediaType contentType, byte[] body) {
+        Buffer record = new Buffer();
+        record.writeLong(seq);
+        writeString(record, url);
+        writeString(record, contentType != null ? contentType.toString() : "");
+        record.writeInt(body.length).write(body);
+        return record;
+    }
+
+    private static void writeString(Buffer buffer, String value) {
+        ByteString bytes = ByteString.encodeUtf8(value);
+        buffer.writeInt(bytes.size()).write(bytes);
+    }
+
+    private static String readString(Buffer buffer) throws EOFException {
+        return buffer.readUtf8(buffer.readInt());
+    }
+}
@@ -0,0 +1,254 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Admits calls through three priority lanes sharing {@link #maxInFlight} slots. A free slot
+ * goes to a waiting interactive call first, then a normal one, then a background one, so a
+ * queued background call is passed over by anything that arrives after it. Background calls
+ * also never hold more than {@code limit} slots, and only {@code limitWhileInteractive} while
+ * an interactive call is running or waiting. A call holds its slot until its response body is
+ * closed or read to the end. Calls fail with an {@link InterruptedIOException} once their
+ * queue deadline passes.
+ *
+ * <p>A call's lane is its {@link Priority} tag, {@link Priority#NORMAL} if it has none; use
+ * {@link HTTP#priority} to get an engine whose calls carry one. Install the scheduler with
+ * {@link HTTP.Builder#scheduler(PriorityScheduler)}.
+ */
+public class PriorityScheduler implements Interceptor {
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    public enum Priority {
+        /** Someone is looking at a spinner. */
+        INTERACTIVE,
+        NORMAL,
+        /** Prefetches and sync that nobody waits for. */
+        BACKGROUND
+    }
+
+    private int mMaxInFlight = 16;
+    private int mBackgroundLimit = 4;
+    private int mBackgroundLimitWhileInteractive = 1;
+    private long mQueueTimeoutNanos = TimeUnit.SECONDS.toNanos(30);
+
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mAvailable = mLock.newCondition();
+    private final int[] mInFlight = new int[Priority.values().length];
+    private final int[] mQueued = new int[Priority.values().length];
+    private int mTotalInFlight;
+
+    private final Histogram[] mQueueWait = new Histogram[Priority.values().length];
+    private final AtomicLong mPreempted = new AtomicLong();
+    private final AtomicLong mRejections = new AtomicLong();
+
+    public PriorityScheduler() {
+        for (int i = 0; i < mQueueWait.length; i++) {
+            mQueueWait[i] = new Histogram();
+        }
+    }
+
+    /** Slots shared by all lanes. */
+    public PriorityScheduler maxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight < 1: " + maxInFlight);
+        }
+        mMaxInFlight = maxInFlight;
+        return this;
+    }
+
+    /**
+     * Background calls hold at most {@code limit} slots, and at most {@code
+     * limitWhileInteractive} while interactive calls are running or queued.
+     */
+    public PriorityScheduler background(int limit, int limitWhileInteractive) {
+        if (limit < 1 || limitWhileInteractive < 0 || limitWhileInteractive > limit) {
+            throw new IllegalArgumentException(
+                    "bad background limits: " + limit + ", " + limitWhileInteractive);
+        }
+        mBackgroundLimit = limit;
+        mBackgroundLimitWhileInteractive = limitWhileInteractive;
+        return this;
+    }
+
+    /** How long a call may wait for a slot before it fails. */
+    public PriorityScheduler queueTimeout(long timeout, TimeUnit unit) {
+        mQueueTimeoutNanos = unit.toNanos(timeout);
+        return this;
+    }
+
+    public int maxInFlight() {
+        return mMaxInFlight;
+    }
+
+    public int inFlight(Priority priority) {
+        mLock.lock();
+        try {
+            return mInFlight[priority.ordinal()];
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public int queued(Priority priority) {
+        mLock.lock();
+        try {
+            return mQueued[priority.ordinal()];
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /** Time calls of {@code priority} spent waiting for a slot, in microseconds. */
+    public Histogram.Snapshot queueWait(Priority priority) {
+        return mQueueWait[priority.ordinal()].snapshot();
+    }
+
+    /** Slots given to an interactive or normal call while background calls were queued. */
+    public long preemptedCount() {
+        return mPreempted.get();
+    }
+
+    /** Calls that failed because their queue deadline passed before a slot was free. */
+    public long rejectionCount() {
+        return mRejections.get();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        if (RetryPolicy.isHedge(chain.call())) {
+            // Its original call already holds a slot and is waiting for it.
+            return chain.proceed(chain.request());
+        }
+        final Priority priority = priorityOf(chain.request());
+        acquire(chain.call(), priority);
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException | RuntimeException e) {
+            release(priority);
+            throw e;
+        }
+
+        // The slot covers the body too, so a large download keeps background calls throttled.
+        final AtomicBoolean released = new AtomicBoolean();
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                if (released.compareAndSet(false, true)) {
+                    release(priority);
+                }
+            }
+        };
+        ResponseBody body = response.body();
+        if (body == null) {
+            release.run();
+            return response;
+        }
+        return response.newBuilder().body(new ReleasingBody(body, release)).build();
+    }
+
+    static Priority priorityOf(Request request) {
+        Priority priority = request.tag(Priority.class);
+        return priority != null ? priority : Priority.NORMAL;
+    }
+
+    /** Tags requests that don't have a priority yet with {@code priority}. */
+    static Interceptor tagger(final Priority priority) {
+        return new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                Request request = chain.request();
+                if (request.tag(Priority.class) == null) {
+                    request = request.newBuilder().tag(Priority.class, priority).build();
+                }
+                return chain.proceed(request);
+            }
+        };
+    }
+
+    void acquire(Call call, Priority priority) throws IOException {
+        int lane = priority.ordinal();
+        long start = System.nanoTime();
+        mLock.lock();
+        try {
+            mQueued[lane]++;
+            try {
+                while (!canStart(priority)) {
+                    long remaining = mQueueTimeoutNanos - (System.nanoTime() - start);
+                    if (remaining <= 0) {
+                        mRejections.incrementAndGet();
+                        throw new InterruptedIOException(
+                                "no " + priority + " slot within queue timeout");
+                    }
+                    if (call != null && call.isCanceled()) {
+                        throw new IOException("Canceled");
+                    }
+                    mAvailable.awaitNanos(Math.min(remaining, POLL_NANOS));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for a slot");
+            } finally {
+                mQueued[lane]--;
+                if (priority != Priority.BACKGROUND && mQueued[lane] == 0) {
+                    // This lane no longer holds the lanes below it back.
+                    mAvailable.signalAll();
+                }
+            }
+            if (priority != Priority.BACKGROUND
+                    && mQueued[Priority.BACKGROUND.ordinal()] > 0) {
+                mPreempted.incrementAndGet();
+            }
+            mInFlight[lane]++;
+            mTotalInFlight++;
+        } finally {
+            mLock.unlock();
+        }
+        mQueueWait[lane].record((System.nanoTime() - start) / 1000);
+    }
+
+    void release(Priority priority) {
+        mLock.lock();
+        try {
+            mInFlight[priority.ordinal()]--;
+            mTotalInFlight--;
+            mAvailable.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private boolean canStart(Priority priority) {
+        if (mTotalInFlight >= mMaxInFlight) {
+            return false;
+        }
+        int interactive = Priority.INTERACTIVE.ordinal();
+        int normal = Priority.NORMAL.ordinal();
+        int background = Priority.BACKGROUND.ordinal();
+        switch (priority) {
+            case INTERACTIVE:
+                return true;
+            case NORMAL:
+                return mQueued[interactive] == 0;
+            default:
+                if (mQueued[interactive] > 0 || mQueued[normal] > 0) {
+                    return false;
+                }
+                int limit = mInFlight[interactive] > 0
+                        ? mBackgroundLimitWhileInteractive : mBackgroundLimit;
+                return mInFlight[background] < limit;
+        }
+    }
+}
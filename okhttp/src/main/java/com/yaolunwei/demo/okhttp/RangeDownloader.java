@@ -0,0 +1,378 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * Downloads a resource as several byte ranges fetched in parallel over the engine's pooled
+ * client. The target file is preallocated and every range is written at its own offset
+ * with positional {@link FileChannel} writes. Progress is kept in a journal next to the
+ * file ({@code <file>.journal}), so a failed or interrupted download resumes where each
+ * range stopped. Servers without range support get a plain single-connection download.
+ *
+ * <p>Every request asks for the identity encoding, so lengths and offsets are those of the
+ * stored bytes rather than of a gzip stream, and a 206 is only trusted if its Content-Range
+ * is the range that was asked for. Ranges are sent with {@code If-Range}: a strong ETag, or
+ * Last-Modified if the ETag is weak, as a weak one makes the server answer 200. A weak ETag
+ * with no Last-Modified gets a plain download. The journal only records bytes that have been
+ * forced to disk, so a crash cannot leave a hole behind a saved position.
+ */
+public class RangeDownloader {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long JOURNAL_INTERVAL = 512 * 1024;
+
+    private final HTTP mHttp;
+    private final OkHttpClient mClient;
+
+    public RangeDownloader(HTTP http) {
+        mHttp = http;
+        mClient = http.client();
+    }
+
+    /** Downloads {@code url} into {@code file} using up to {@code segments} ranges. */
+    public long download(String url, File file, int segments) throws IOException {
+        if (segments < 1) {
+            throw new IllegalArgumentException("segments < 1: " + segments);
+        }
+
+        Request head = new Request.Builder()
+                .url(url)
+                .header("Accept-Encoding", "identity")
+                .head()
+                .build();
+        long length;
+        boolean ranges;
+        String validator;
+        try (Response response = mClient.newCall(head).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("Unexpected code " + response);
+            }
+            length = parseLength(response.header("Content-Length"));
+            ranges = "bytes".equals(response.header("Accept-Ranges"));
+            String etag = response.header("ETag");
+            validator = etag != null && !etag.startsWith("W/")
+                    ? etag : response.header("Last-Modified");
+            if (validator == null && etag != null) {
+                // Only weakly validated: If-Range with it would always get the whole body.
+                ranges = false;
+            }
+        }
+
+        File journalFile = journalFile(file);
+        if (!ranges || length <= 0) {
+            journalFile.delete();
+            return mHttp.download(url, file);
+        }
+
+        Journal journal = Journal.read(journalFile);
+        if (journal == null || !journal.matches(url, length, validator) || !file.exists()) {
+            journal = Journal.create(journalFile, url, length, validator,
+                    (int) Math.min(segments, Math.max(1, length / BUFFER_SIZE)));
+        }
+
+        boolean interrupted = false;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            FileChannel channel = raf.getChannel();
+            raf.setLength(length);
+            journal.save();
+            try {
+                interrupted = !fetchRanges(journal, channel);
+            } finally {
+                journal.save(channel);
+            }
+        } finally {
+            // Restored only now: an interrupted thread's FileChannel.force() closes the file.
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (interrupted) {
+            throw new InterruptedIOException("interrupted downloading " + url);
+        }
+
+        journalFile.delete();
+        return length;
+    }
+
+    static File journalFile(File file) {
+        return new File(file.getPath() + ".journal");
+    }
+
+    /**
+     * Fetches the ranges not done yet. Returns false if interrupted, once the ranges have
+     * stopped, with the interrupt flag clear.
+     */
+    private boolean fetchRanges(Journal journal, FileChannel channel) throws IOException {
+        int pending = 0;
+        for (int i = 0; i < journal.segments(); i++) {
+            if (!journal.isDone(i)) pending++;
+        }
+
+        CountDownLatch done = new CountDownLatch(pending);
+        AtomicReference<IOException> error = new AtomicReference<>();
+        List<Call> calls = new ArrayList<>();
+        for (int i = 0; i < journal.segments(); i++) {
+            if (journal.isDone(i)) continue;
+
+            Request.Builder request = new Request.Builder()
+                    .url(journal.url)
+                    .header("Range", "bytes=" + journal.position(i) + "-" + journal.end[i])
+                    .header("Accept-Encoding", "identity");
+            if (journal.validator != null) {
+                request.header("If-Range", journal.validator);
+            }
+            Call call = mClient.newCall(request.build());
+            calls.add(call);
+            call.enqueue(new RangeCallback(journal, i, channel, done, error));
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            // Stop the ranges and let them finish before the caller closes the channel.
+            for (Call call : calls) {
+                call.cancel();
+            }
+            awaitUninterruptibly(done);
+            return false;
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return true;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException ignored) {
+                // Still interrupted; download() restores the flag.
+            }
+        }
+    }
+
+    private static final class RangeCallback implements Callback {
+        private final Journal mJournal;
+        private final int mSegment;
+        private final FileChannel mChannel;
+        private final CountDownLatch mDone;
+        private final AtomicReference<IOException> mError;
+
+        RangeCallback(Journal journal, int segment, FileChannel channel, CountDownLatch done,
+                      AtomicReference<IOException> error) {
+            mJournal = journal;
+            mSegment = segment;
+            mChannel = channel;
+            mDone = done;
+            mError = error;
+        }
+
+        @Override
+        public void onFailure(Call call, IOException e) {
+            mError.compareAndSet(null, e);
+            mDone.countDown();
+        }
+
+        @Override
+        public void onResponse(Call call, Response response) {
+            try {
+                long position = mJournal.position(mSegment);
+                long end = mJournal.end[mSegment];
+                if (response.code() != 206) {
+                    throw new IOException("Range not honored: " + response);
+                }
+                String contentRange = response.header("Content-Range");
+                if (!isContentRange(contentRange, position, end, mJournal.length)) {
+                    throw new IOException("Asked for bytes " + position + "-" + end + "/"
+                            + mJournal.length + " but got " + contentRange);
+                }
+                BufferedSource source = response.body().source();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long unsaved = 0;
+                int read;
+                while (position <= end && (read = source.read(buffer, 0,
+                        (int) Math.min(BUFFER_SIZE, end + 1 - position))) != -1) {
+                    ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                    while (bytes.hasRemaining()) {
+                        position += mChannel.write(bytes, position);
+                    }
+                    unsaved += read;
+                    mJournal.advance(mSegment, position);
+                    if (unsaved >= JOURNAL_INTERVAL) {
+                        mJournal.save(mChannel);
+                        unsaved = 0;
+                    }
+                }
+                if (!mJournal.isDone(mSegment)) {
+                    throw new IOException("Range ended early at " + position + " of "
+                            + mJournal.url);
+                }
+            } catch (IOException e) {
+                mError.compareAndSet(null, e);
+            } finally {
+                response.close();
+                mDone.countDown();
+            }
+        }
+    }
+
+    /** Whether {@code header} is exactly {@code bytes start-end/length}. */
+    static boolean isContentRange(String header, long start, long end, long length) {
+        return header != null
+                && header.equals("bytes " + start + "-" + end + "/" + length);
+    }
+
+    private static long parseLength(String header) {
+        if (header == null) return -1;
+        try {
+            return Long.parseLong(header);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Text journal: a magic line, the url, the total length, the validator ("-" if none)
+     * and then one "start end position" line per range.
+     */
+    static final class Journal {
+        private static final String MAGIC = "range-journal 1";
+
+        final File file;
+        final String url;
+        final long length;
+        final String validator;
+        final long[] start;
+        final long[] end;
+        private final long[] position;
+        /** Keeps concurrent saves from sharing the temporary file. */
+        private final Object writeLock = new Object();
+
+        private Journal(File file, String url, long length, String validator, int segments) {
+            this.file = file;
+            this.url = url;
+            this.length = length;
+            this.validator = validator;
+            this.start = new long[segments];
+            this.end = new long[segments];
+            this.position = new long[segments];
+        }
+
+        static Journal create(File file, String url, long length, String validator,
+                              int segments) {
+            Journal journal = new Journal(file, url, length, validator, segments);
+            long size = length / segments;
+            for (int i = 0; i < segments; i++) {
+                journal.start[i] = i * size;
+                journal.end[i] = i == segments - 1 ? length - 1 : (i + 1) * size - 1;
+                journal.position[i] = journal.start[i];
+            }
+            return journal;
+        }
+
+        static Journal read(File file) {
+            if (!file.exists()) return null;
+            try (BufferedSource source = Okio.buffer(Okio.source(file))) {
+                if (!MAGIC.equals(source.readUtf8LineStrict())) return null;
+                String url = source.readUtf8LineStrict();
+                long length = Long.parseLong(source.readUtf8LineStrict());
+                String validator = source.readUtf8LineStrict();
+                int segments = Integer.parseInt(source.readUtf8LineStrict());
+
+                Journal journal = new Journal(file, url, length,
+                        "-".equals(validator) ? null : validator, segments);
+                for (int i = 0; i < segments; i++) {
+                    String[] parts = source.readUtf8LineStrict().split(" ");
+                    journal.start[i] = Long.parseLong(parts[0]);
+                    journal.end[i] = Long.parseLong(parts[1]);
+                    journal.position[i] = Long.parseLong(parts[2]);
+                }
+                return journal;
+            } catch (IOException | RuntimeException e) {
+                // A torn or foreign journal only costs a restart from zero.
+                return null;
+            }
+        }
+
+        boolean matches(String url, long length, String validator) {
+            return this.url.equals(url) && this.length == length
+                    && (this.validator == null
+                    ? validator == null : this.validator.equals(validator));
+        }
+
+        int segments() {
+            return start.length;
+        }
+
+        synchronized long position(int segment) {
+            return position[segment];
+        }
+
+        synchronized void advance(int segment, long newPosition) {
+            position[segment] = newPosition;
+        }
+
+        synchronized boolean isDone(int segment) {
+            return position[segment] > end[segment];
+        }
+
+        /** Saves the positions; only for when no data was written since the last save. */
+        void save() throws IOException {
+            write(positions());
+        }
+
+        /**
+         * Saves the positions, first forcing the data written to {@code data} up to them to
+         * disk. Positions advanced after the force are left for the next save.
+         */
+        void save(FileChannel data) throws IOException {
+            long[] positions = positions();
+            data.force(false);
+            write(positions);
+        }
+
+        private synchronized long[] positions() {
+            return position.clone();
+        }
+
+        private void write(long[] positions) throws IOException {
+            synchronized (writeLock) {
+                File tmp = new File(file.getPath() + ".tmp");
+                try (BufferedSink sink = Okio.buffer(Okio.sink(tmp))) {
+                    sink.writeUtf8(MAGIC).writeByte('\n');
+                    sink.writeUtf8(url).writeByte('\n');
+                    sink.writeDecimalLong(length).writeByte('\n');
+                    sink.writeUtf8(validator == null ? "-" : validator).writeByte('\n');
+                    sink.writeDecimalLong(start.length).writeByte('\n');
+                    for (int i = 0; i < start.length; i++) {
+                        sink.writeDecimalLong(start[i]).writeByte(' ')
+                                .writeDecimalLong(end[i]).writeByte(' ')
+                                .writeDecimalLong(positions[i]).writeByte('\n');
+                    }
+                }
+                if (!tmp.renameTo(file)) {
+                    throw new IOException("failed to rename " + tmp + " to " + file);
+                }
+            }
+        }
+    }
+}
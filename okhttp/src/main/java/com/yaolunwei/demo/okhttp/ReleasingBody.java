@@ -0,0 +1,58 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+/**
+ * Runs {@code release} once the body is closed or read to the end, so an interceptor can hold
+ * what it admitted the call with until the response is really done. {@code release} may run
+ * more than once and must ignore all but the first.
+ */
+final class ReleasingBody extends ResponseBody {
+    private final ResponseBody mDelegate;
+    private final BufferedSource mSource;
+
+    ReleasingBody(ResponseBody delegate, final Runnable release) {
+        mDelegate = delegate;
+        mSource = Okio.buffer(new ForwardingSource(delegate.source()) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read == -1) {
+                    release.run();
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    release.run();
+                }
+            }
+        });
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mDelegate.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return mDelegate.contentLength();
+    }
+
+    @Override
+    public BufferedSource source() {
+        return mSource;
+    }
+}
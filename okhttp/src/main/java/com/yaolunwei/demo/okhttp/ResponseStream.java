@@ -0,0 +1,56 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+
+/**
+ * An open response whose body has not been read yet. The body is consumed straight from the
+ * socket through {@link #source()}, {@link #readLine()} or {@link #writeTo(File)}, so only
+ * okio's small segment buffers are held in memory regardless of the body size.
+ * Must be closed to release the connection back to the pool.
+ */
+public class ResponseStream implements Closeable {
+    private final Response mResponse;
+    private final BufferedSource mSource;
+
+    ResponseStream(Response response) {
+        mResponse = response;
+        mSource = response.body().source();
+    }
+
+    public int code() {
+        return mResponse.code();
+    }
+
+    /** Body length in bytes, or -1 if unknown. */
+    public long contentLength() {
+        return mResponse.body().contentLength();
+    }
+
+    public BufferedSource source() {
+        return mSource;
+    }
+
+    /** Returns the next UTF-8 line of the body without its line terminator, or null at the end. */
+    public String readLine() throws IOException {
+        return mSource.readUtf8Line();
+    }
+
+    /** Copies the rest of the body into {@code file}, replacing it, and returns the byte count. */
+    public long writeTo(File file) throws IOException {
+        try (BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+            return sink.writeAll(mSource);
+        }
+    }
+
+    @Override
+    public void close() {
+        mResponse.close();
+    }
+}
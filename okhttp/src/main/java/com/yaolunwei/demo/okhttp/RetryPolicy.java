@@ -0,0 +1,435 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Retries idempotent requests that fail with an I/O error or a 502/503/504, sleeping a
+ * jittered exponential backoff between attempts. With {@link #hedge} enabled, an attempt
+ * that has not answered within the host's p95 latency gets a second attempt racing it; the
+ * first response wins and the other attempt is cancelled, freeing its connection and permits.
+ *
+ * <p>Every retry and hedge spends a token from a per-host budget that only refills as a
+ * fraction of the requests made, so retries stay a bounded share of the traffic to a host
+ * and cannot amplify an outage. Install it with {@link HTTP.Builder#retry(RetryPolicy)}.
+ */
+public class RetryPolicy implements Interceptor {
+    private static final int MIN_LATENCY_SAMPLES = 20;
+    /** Attempts racing at once across all hosts; past it requests simply aren't hedged. */
+    private static final int MAX_HEDGE_THREADS = 64;
+    /** How often a caller waiting on its attempts checks whether its call was cancelled. */
+    private static final long CANCEL_POLL_MILLIS = 20;
+
+    /** Attempts in flight, clones that run under the slot their caller's call already holds. */
+    private static final Set<Call> HEDGES =
+            Collections.newSetFromMap(new ConcurrentHashMap<Call, Boolean>());
+
+    private int mMaxAttempts = 3;
+    private long mBaseBackoffMillis = 100;
+    private long mMaxBackoffMillis = 2000;
+    private boolean mHedge;
+    private long mMinHedgeDelayMillis;
+    private double mBudgetRatio = 0.1;
+    private int mBudgetMinRetries = 10;
+
+    private final Random mRandom = new Random();
+    private final ConcurrentMap<String, Budget> mBudgets = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> mLatencies = new ConcurrentHashMap<>();
+
+    private final AtomicLong mRetries = new AtomicLong();
+    private final AtomicLong mHedges = new AtomicLong();
+    private final AtomicLong mBudgetRejections = new AtomicLong();
+
+    private ExecutorService mHedgeExecutor;
+    private final Semaphore mHedgeThreads = new Semaphore(MAX_HEDGE_THREADS);
+
+    /** Total attempts per request including the first one. */
+    public RetryPolicy maxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts < 1: " + maxAttempts);
+        }
+        mMaxAttempts = maxAttempts;
+        return this;
+    }
+
+    /** The n-th retry waits a random time up to {@code min(max, base * 2^(n-1))}. */
+    public RetryPolicy backoff(long base, long max, TimeUnit unit) {
+        mBaseBackoffMillis = unit.toMillis(base);
+        mMaxBackoffMillis = unit.toMillis(max);
+        return this;
+    }
+
+    /**
+     * Starts a second attempt when the first has not answered within the host's p95 latency,
+     * but never earlier than {@code minDelay}.
+     */
+    public synchronized RetryPolicy hedge(long minDelay, TimeUnit unit) {
+        mHedge = true;
+        mMinHedgeDelayMillis = unit.toMillis(minDelay);
+        if (mHedgeExecutor == null) {
+            // Bounded by mHedgeThreads, which is taken before anything is spent on an attempt.
+            mHedgeExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "HTTP hedge");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return this;
+    }
+
+    /**
+     * Each request to a host adds {@code ratio} of a retry token to the host's budget, which
+     * starts with and never holds more than {@code minRetries} tokens.
+     */
+    public RetryPolicy budget(double ratio, int minRetries) {
+        mBudgetRatio = ratio;
+        mBudgetMinRetries = minRetries;
+        return this;
+    }
+
+    public long retryCount() {
+        return mRetries.get();
+    }
+
+    public long hedgeCount() {
+        return mHedges.get();
+    }
+
+    /** Retries and hedges that were skipped because the host's budget was empty. */
+    public long budgetRejectionCount() {
+        return mBudgetRejections.get();
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (isHedge(chain.call()) || !isIdempotent(request.method())) {
+            return chain.proceed(request);
+        }
+
+        String host = request.url().host();
+        Budget budget = budgetFor(host);
+        budget.deposit();
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Response response = mHedge ? hedged(chain, host, budget) : timed(chain, host);
+                if (!isRetryable(response.code()) || attempt >= mMaxAttempts
+                        || !withdraw(budget)) {
+                    return response;
+                }
+                response.close();
+            } catch (IOException e) {
+                if (chain.call().isCanceled() || attempt >= mMaxAttempts || !withdraw(budget)) {
+                    throw e;
+                }
+            }
+
+            mRetries.incrementAndGet();
+            sleep(backoffMillis(attempt));
+        }
+    }
+
+    /** Whether {@code call} is an attempt racing for a call that is already past the scheduler. */
+    static boolean isHedge(Call call) {
+        return HEDGES.contains(call);
+    }
+
+    long backoffMillis(int attempt) {
+        long ceiling = mBaseBackoffMillis << Math.min(attempt - 1, 30);
+        if (ceiling <= 0 || ceiling > mMaxBackoffMillis) {
+            ceiling = mMaxBackoffMillis;
+        }
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * ceiling);
+        }
+    }
+
+    long hedgeDelayMillis(String host) {
+        Histogram latency = mLatencies.get(host);
+        if (latency == null || latency.count() < MIN_LATENCY_SAMPLES) {
+            return mMinHedgeDelayMillis;
+        }
+        long p95 = latency.snapshot().percentileMicros(0.95) / 1000;
+        return Math.max(mMinHedgeDelayMillis, p95);
+    }
+
+    private Response timed(Chain chain, String host) throws IOException {
+        long start = System.nanoTime();
+        Response response = chain.proceed(chain.request());
+        recordLatency(host, start);
+        return response;
+    }
+
+    private Response hedged(Chain chain, String host, Budget budget) throws IOException {
+        if (!mHedgeThreads.tryAcquire()) {
+            // Every hedge thread is busy; don't make this request wait for one.
+            return timed(chain, host);
+        }
+        HedgeGroup group = new HedgeGroup(chain, host);
+        group.start();
+
+        HedgeGroup.Outcome outcome = group.poll(hedgeDelayMillis(host));
+        // Only spend a token on a hedge that has a thread to run on.
+        if (outcome == null && mHedgeThreads.tryAcquire()) {
+            if (withdraw(budget)) {
+                group.start();
+                mHedges.incrementAndGet();
+            } else {
+                mHedgeThreads.release();
+            }
+        }
+
+        int pending = group.started();
+        while (true) {
+            if (outcome == null) {
+                outcome = group.poll(Long.MAX_VALUE);
+            }
+            pending--;
+            if (outcome.response != null) {
+                group.finish(outcome.call);
+                return outcome.response;
+            }
+            if (pending == 0) {
+                group.finish(null);
+                throw outcome.error;
+            }
+            outcome = null;
+        }
+    }
+
+    private void recordLatency(String host, long startNanos) {
+        Histogram latency = mLatencies.get(host);
+        if (latency == null) {
+            Histogram created = new Histogram();
+            latency = mLatencies.putIfAbsent(host, created);
+            if (latency == null) {
+                latency = created;
+            }
+        }
+        latency.record((System.nanoTime() - startNanos) / 1000);
+    }
+
+    private boolean withdraw(Budget budget) {
+        if (budget.withdraw()) {
+            return true;
+        }
+        mBudgetRejections.incrementAndGet();
+        return false;
+    }
+
+    private Budget budgetFor(String host) {
+        Budget budget = mBudgets.get(host);
+        if (budget == null) {
+            Budget created = new Budget(mBudgetRatio, mBudgetMinRetries);
+            budget = mBudgets.putIfAbsent(host, created);
+            if (budget == null) {
+                budget = created;
+            }
+        }
+        return budget;
+    }
+
+    private static boolean isIdempotent(String method) {
+        return "GET".equals(method) || "HEAD".equals(method) || "OPTIONS".equals(method)
+                || "PUT".equals(method) || "DELETE".equals(method);
+    }
+
+    private static boolean isRetryable(int code) {
+        return code == 502 || code == 503 || code == 504;
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted during retry backoff");
+        }
+    }
+
+    /** Token bucket in thousandths of a retry. */
+    private static final class Budget {
+        private final long mDeposit;
+        private final long mCapacity;
+        private final AtomicLong mTokens;
+
+        Budget(double ratio, int minRetries) {
+            mDeposit = (long) (ratio * 1000);
+            mCapacity = Math.max(1, minRetries) * 1000L;
+            mTokens = new AtomicLong(minRetries * 1000L);
+        }
+
+        void deposit() {
+            long tokens;
+            do {
+                tokens = mTokens.get();
+            } while (tokens < mCapacity
+                    && !mTokens.compareAndSet(tokens, Math.min(mCapacity, tokens + mDeposit)));
+        }
+
+        boolean withdraw() {
+            long tokens;
+            do {
+                tokens = mTokens.get();
+                if (tokens < 1000) return false;
+            } while (!mTokens.compareAndSet(tokens, tokens - 1000));
+            return true;
+        }
+    }
+
+    /**
+     * Racing attempts of one request. Every attempt, the first one included, is a clone of the
+     * caller's call run on a hedge thread, so the loser can be cancelled without touching the
+     * caller's call; the caller's call itself waits in {@link #poll}, which cancels every
+     * attempt once the caller's call is cancelled. Attempts run outside the dispatcher's
+     * per-host limit and, being in {@link #HEDGES}, outside the {@link PriorityScheduler} too,
+     * so they never wait for the slot their caller is holding.
+     */
+    private final class HedgeGroup {
+        final class Outcome {
+            final Call call;
+            final Response response;
+            final IOException error;
+
+            Outcome(Call call, Response response, IOException error) {
+                this.call = call;
+                this.response = response;
+                this.error = error;
+            }
+        }
+
+        private final Chain mChain;
+        private final String mHost;
+        private final LinkedBlockingQueue<Outcome> mOutcomes = new LinkedBlockingQueue<>();
+        private final List<Call> mCalls = new ArrayList<>();
+        private int mStarted;
+        private boolean mFinished;
+
+        HedgeGroup(Chain chain, String host) {
+            mChain = chain;
+            mHost = host;
+        }
+
+        synchronized int started() {
+            return mStarted;
+        }
+
+        /** Starts another attempt on a hedge thread the caller has already taken. */
+        void start() {
+            final Call call = mChain.call().clone();
+            synchronized (this) {
+                mCalls.add(call);
+                mStarted++;
+            }
+            HEDGES.add(call);
+            mHedgeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    Outcome outcome;
+                    try {
+                        Response response = call.execute();
+                        recordLatency(mHost, start);
+                        outcome = new Outcome(call, response, null);
+                    } catch (IOException e) {
+                        outcome = new Outcome(call, null, e);
+                    } finally {
+                        HEDGES.remove(call);
+                        mHedgeThreads.release();
+                    }
+                    deliver(outcome);
+                }
+            });
+        }
+
+        private void deliver(Outcome outcome) {
+            synchronized (this) {
+                if (!mFinished) {
+                    mOutcomes.add(outcome);
+                    return;
+                }
+            }
+            if (outcome.response != null) {
+                outcome.response.close();
+            }
+        }
+
+        /**
+         * Waits up to {@code millis} for the next outcome. If the caller's call is cancelled
+         * meanwhile, cancels every attempt and fails.
+         */
+        Outcome poll(long millis) throws IOException {
+            long deadline = millis == Long.MAX_VALUE
+                    ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            Outcome outcome = null;
+            while (outcome == null && !mChain.call().isCanceled()) {
+                long wait = Math.min(CANCEL_POLL_MILLIS, TimeUnit.NANOSECONDS.toMillis(
+                        Math.max(0, deadline - System.nanoTime())));
+                try {
+                    outcome = mOutcomes.poll(wait, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    finish(null);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted waiting for " + mHost);
+                }
+                if (wait == 0 || System.nanoTime() >= deadline) {
+                    break;
+                }
+            }
+            if (mChain.call().isCanceled()) {
+                finish(null);
+                if (outcome != null && outcome.response != null) {
+                    outcome.response.close();
+                }
+                throw new IOException("Canceled");
+            }
+            return outcome;
+        }
+
+        /** Cancels every attempt but {@code winner} and closes responses nobody will read. */
+        void finish(Call winner) {
+            List<Call> calls;
+            List<Outcome> leftovers = new ArrayList<>();
+            synchronized (this) {
+                mFinished = true;
+                calls = new ArrayList<>(mCalls);
+                mOutcomes.drainTo(leftovers);
+            }
+            for (Call call : calls) {
+                if (call != winner) {
+                    call.cancel();
+                }
+            }
+            for (Outcome leftover : leftovers) {
+                if (leftover.response != null) {
+                    leftover.response.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Response;
+
+/**
+ * Coalesces concurrent loads of the same key into one in-flight {@link Call}. The first
+ * caller executes the call on its own thread, so a load made from a dispatcher thread never
+ * waits for a dispatcher slot, and the callers that arrive meanwhile wait for its result; a
+ * failure reaches all of them as the exception the leader saw.
+ *
+ * <p>A waiting caller that is interrupted stops waiting on its own. Interrupting the leader
+ * fails its call at the next read or write, as with any {@code execute()}; the callers
+ * waiting on it then start over instead of failing with it.
+ */
+class SingleFlight {
+
+    interface Loader {
+        Call newCall(String key);
+
+        /** Reads the body of a finished call on the leader's thread. */
+        String read(String key, Response response) throws IOException;
+    }
+
+    private final class Flight {
+        final String key;
+        final CountDownLatch done = new CountDownLatch(1);
+        String body;
+        IOException error;
+        boolean leaderInterrupted;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        void finish(String body, IOException error, boolean leaderInterrupted) {
+            synchronized (mFlights) {
+                if (mFlights.get(key) == this) {
+                    mFlights.remove(key);
+                }
+            }
+            this.body = body;
+            this.error = error;
+            this.leaderInterrupted = leaderInterrupted;
+            done.countDown();
+        }
+    }
+
+    private final Map<String, Flight> mFlights = new HashMap<>();
+    private final AtomicLong mCoalesced = new AtomicLong();
+
+    String get(String key, Loader loader) throws IOException {
+        while (true) {
+            Flight flight;
+            boolean leader = false;
+            synchronized (mFlights) {
+                flight = mFlights.get(key);
+                if (flight == null) {
+                    flight = new Flight(key);
+                    mFlights.put(key, flight);
+                    leader = true;
+                } else {
+                    mCoalesced.incrementAndGet();
+                }
+            }
+            if (leader) {
+                return load(flight, loader);
+            }
+
+            try {
+                flight.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for " + key);
+            }
+            if (flight.leaderInterrupted) {
+                continue;
+            }
+            if (flight.error != null) {
+                throw flight.error;
+            }
+            return flight.body;
+        }
+    }
+
+    /** Number of callers that joined an existing call instead of starting their own. */
+    long coalescedCount() {
+        return mCoalesced.get();
+    }
+
+    private String load(Flight flight, Loader loader) throws IOException {
+        Call call = loader.newCall(flight.key);
+        String body;
+        // Closing the response releases the connection before the waiters wake.
+        try (Response response = call.execute()) {
+            body = loader.read(flight.key, response);
+        } catch (IOException e) {
+            flight.finish(null, e, e instanceof InterruptedIOException
+                    && Thread.currentThread().isInterrupted());
+            throw e;
+        } catch (RuntimeException e) {
+            flight.finish(null, new IOException(e), false);
+            throw e;
+        }
+        flight.finish(body, null, false);
+        return body;
+    }
+}
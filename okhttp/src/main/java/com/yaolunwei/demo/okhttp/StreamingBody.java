@@ -0,0 +1,128 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * Request body copied from a file or source straight into the socket, optionally gzipped
+ * on the way. After the body is written, {@link #contentBytes()} is the uncompressed size
+ * and {@link #wireBytes()} what was actually sent.
+ *
+ * <p>A file body is reopened on every write and may be retried; a source body is one-shot.
+ */
+public class StreamingBody extends RequestBody {
+    private final MediaType mContentType;
+    private final File mFile;
+    private Source mSource;
+    private boolean mGzip;
+
+    private volatile long mContentBytes = -1;
+    private volatile long mWireBytes = -1;
+
+    private StreamingBody(MediaType contentType, File file, Source source) {
+        mContentType = contentType;
+        mFile = file;
+        mSource = source;
+    }
+
+    public static StreamingBody create(MediaType contentType, File file) {
+        return new StreamingBody(contentType, file, null);
+    }
+
+    public static StreamingBody create(MediaType contentType, Source source) {
+        return new StreamingBody(contentType, null, source);
+    }
+
+    /** Compresses the body with gzip; the request is sent with {@code Content-Encoding: gzip}. */
+    public StreamingBody gzip() {
+        mGzip = true;
+        return this;
+    }
+
+    public boolean isGzip() {
+        return mGzip;
+    }
+
+    /** Uncompressed bytes read from the file or source, or -1 before the body was written. */
+    public long contentBytes() {
+        return mContentBytes;
+    }
+
+    /** Bytes written to the connection, or -1 before the body was written. */
+    public long wireBytes() {
+        return mWireBytes;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mContentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return mFile != null && !mGzip ? mFile.length() : -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        Source source = openSource();
+        try {
+            if (!mGzip) {
+                long written = sink.writeAll(source);
+                mContentBytes = written;
+                mWireBytes = written;
+                return;
+            }
+
+            CountingSink wire = new CountingSink(sink);
+            BufferedSink gzip = Okio.buffer(new GzipSink(wire));
+            mContentBytes = gzip.writeAll(source);
+            // Finishes the gzip trailer without closing the connection's sink.
+            gzip.close();
+            mWireBytes = wire.count;
+        } finally {
+            source.close();
+        }
+    }
+
+    private Source openSource() throws IOException {
+        if (mFile != null) {
+            return Okio.source(mFile);
+        }
+        if (mSource == null) {
+            throw new IllegalStateException("source body can only be written once");
+        }
+        Source source = mSource;
+        mSource = null;
+        return source;
+    }
+
+    private static final class CountingSink extends ForwardingSink {
+        long count;
+
+        CountingSink(Sink delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            super.write(source, byteCount);
+            count += byteCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.Connection;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+/**
+ * One TLS client context shared by every engine it is installed in, so a session negotiated
+ * by one connection lets later connections to the same host and port resume it with an
+ * abbreviated handshake. Without it each {@link okhttp3.OkHttpClient} built from scratch gets
+ * a context, and a session cache, of its own.
+ *
+ * <p>Installed as a network interceptor it also sees every new connection: it counts full and
+ * resumed handshakes with their durations, and credits {@link #savedMicros()} with the
+ * handshakes that resumption and {@link HTTP#prewarm} kept off the request path. Its
+ * {@link #handshakeScope()} goes with the application interceptors, to forget a socket whose
+ * handshake failed before any request reached it.
+ */
+public class TlsSessionCache implements Interceptor {
+
+    /** Tags the requests {@link HTTP#prewarm} makes. */
+    static final class Prewarm {
+        static final Prewarm TAG = new Prewarm();
+    }
+
+    private static final class Pending {
+        final SSLSocket mSocket;
+        final long mStartNanos = System.nanoTime();
+        final long mStartMillis = System.currentTimeMillis();
+
+        Pending(SSLSocket socket) {
+            mSocket = socket;
+        }
+    }
+
+    private final X509TrustManager mTrustManager;
+    private final SSLContext mContext;
+    private final SSLSocketFactory mSocketFactory;
+
+    // The socket the factory last created on this thread, until its first request.
+    private final ThreadLocal<Pending> mPending = new ThreadLocal<>();
+    // Handshake time of prewarmed connections that no request has used yet.
+    private final Map<Connection, Long> mParked
+            = Collections.synchronizedMap(new WeakHashMap<Connection, Long>());
+
+    private final HandshakeScope mHandshakeScope = new HandshakeScope();
+
+    private final Histogram mFull = new Histogram();
+    private final Histogram mResumed = new Histogram();
+    private final AtomicLong mPrewarmed = new AtomicLong();
+    private final AtomicLong mSavedMicros = new AtomicLong();
+
+    /** Trusts the system's certificate authorities. */
+    public TlsSessionCache() {
+        this(systemTrustManager());
+    }
+
+    public TlsSessionCache(X509TrustManager trustManager) {
+        mTrustManager = trustManager;
+        try {
+            mContext = SSLContext.getInstance("TLS");
+            mContext.init(null, new TrustManager[]{trustManager}, null);
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError(e);
+        }
+        mSocketFactory = new SessionSocketFactory(mContext.getSocketFactory());
+    }
+
+    /** At most {@code size} sessions, each resumable for {@code timeout}; 0 means no limit. */
+    public TlsSessionCache sessionCache(int size, long timeout, TimeUnit unit) {
+        SSLSessionContext sessions = mContext.getClientSessionContext();
+        sessions.setSessionCacheSize(size);
+        sessions.setSessionTimeout((int) unit.toSeconds(timeout));
+        return this;
+    }
+
+    public SSLSocketFactory socketFactory() {
+        return mSocketFactory;
+    }
+
+    public X509TrustManager trustManager() {
+        return mTrustManager;
+    }
+
+    /**
+     * Application interceptor that clears this thread's pending socket once the call is done,
+     * which is the only cleanup a socket gets when its handshake fails.
+     */
+    public Interceptor handshakeScope() {
+        return mHandshakeScope;
+    }
+
+    /** The socket on this thread that has not carried a request yet, or null. */
+    SSLSocket pendingSocket() {
+        Pending pending = mPending.get();
+        return pending != null ? pending.mSocket : null;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Connection connection = chain.connection();
+        boolean prewarm = chain.request().tag(Prewarm.class) != null;
+        Pending pending = mPending.get();
+        if (pending != null && connection != null && connection.socket() == pending.mSocket) {
+            mPending.remove();
+            long micros = (System.nanoTime() - pending.mStartNanos) / 1000;
+            if (pending.mSocket.getSession().getCreationTime() < pending.mStartMillis) {
+                mResumed.record(micros);
+                mSavedMicros.addAndGet(Math.max(0, mFull.snapshot().meanMicros() - micros));
+            } else {
+                mFull.record(micros);
+            }
+            if (prewarm) {
+                mPrewarmed.incrementAndGet();
+                mParked.put(connection, micros);
+            }
+        } else if (connection != null && !prewarm) {
+            Long parked = mParked.remove(connection);
+            if (parked != null) {
+                mSavedMicros.addAndGet(parked);
+            }
+        }
+        return chain.proceed(chain.request());
+    }
+
+    public long fullHandshakeCount() {
+        return mFull.count();
+    }
+
+    public long resumedHandshakeCount() {
+        return mResumed.count();
+    }
+
+    /** Full handshake durations, from the socket's creation to its first request. */
+    public Histogram.Snapshot fullHandshakes() {
+        return mFull.snapshot();
+    }
+
+    public Histogram.Snapshot resumedHandshakes() {
+        return mResumed.snapshot();
+    }
+
+    /** Connections opened by {@link HTTP#prewarm}. */
+    public long prewarmedCount() {
+        return mPrewarmed.get();
+    }
+
+    /**
+     * Handshake time requests did not wait for: a resumption saves the mean full handshake
+     * less its own duration, and the first request on a prewarmed connection saves that
+     * connection's whole handshake.
+     */
+    public long savedMicros() {
+        return mSavedMicros.get();
+    }
+
+    @Override
+    public String toString() {
+        return "TlsSessionCache{full=" + fullHandshakeCount()
+                + ", resumed=" + resumedHandshakeCount()
+                + ", prewarmed=" + prewarmedCount()
+                + ", savedMicros=" + savedMicros() + "}";
+    }
+
+    private static X509TrustManager systemTrustManager() {
+        try {
+            TrustManagerFactory factory = TrustManagerFactory.getInstance(
+                    TrustManagerFactory.getDefaultAlgorithm());
+            factory.init((KeyStore) null);
+            TrustManager[] trustManagers = factory.getTrustManagers();
+            if (trustManagers.length != 1 || !(trustManagers[0] instanceof X509TrustManager)) {
+                throw new IllegalStateException("Unexpected default trust managers: "
+                        + Arrays.toString(trustManagers));
+            }
+            return (X509TrustManager) trustManagers[0];
+        } catch (GeneralSecurityException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    final class HandshakeScope implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            try {
+                return chain.proceed(chain.request());
+            } finally {
+                mPending.remove();
+            }
+        }
+    }
+
+    /**
+     * Remembers the TLS socket OkHttp layers over each new TCP connection. OkHttp handshakes
+     * and sends the connection's first request on the thread that created it, which is where
+     * {@link #intercept} picks it up again.
+     */
+    private final class SessionSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory mDelegate;
+
+        SessionSocketFactory(SSLSocketFactory delegate) {
+            mDelegate = delegate;
+        }
+
+        private Socket pending(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                mPending.set(new Pending((SSLSocket) socket));
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return mDelegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return mDelegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose)
+                throws IOException {
+            return pending(mDelegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return pending(mDelegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                throws IOException {
+            return pending(mDelegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return pending(mDelegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+                                   int localPort) throws IOException {
+            return pending(mDelegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.yaolunwei.demo.okhttp;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+/**
+ * A WebSocket that stays connected, over the engine's pooled client. A dropped connection
+ * is reopened after a jittered exponential backoff.
+ *
+ * <p>Each message is a text frame of its own unless a {@link #batchWindow} is set. Then the
+ * messages sent within the window of each other go out as one frame joined with {@code '\n'},
+ * and inbound frames are split the same way, so both ends must speak that framing and
+ * messages must not contain newlines; compact JSON never does.
+ *
+ * <p>Inbound messages wait in a bounded queue read with {@link #take} or {@link #poll}. When
+ * it is full, {@link Overflow#DROP_OLDEST} discards the oldest message and {@link
+ * Overflow#BACKPRESSURE} stops reading the socket until there is room, which in turn slows
+ * the server down through TCP flow control. Outbound messages wait for a connection in a
+ * queue of {@link #outbound} messages.
+ *
+ * <p>Messages handed to a connection that then fails are lost; delivery is at most once.
+ */
+public class WebSocketClient implements Closeable {
+    private static final int MAX_BATCH_CHARS = 64 * 1024;
+
+    public enum Overflow {
+        DROP_OLDEST,
+        BACKPRESSURE
+    }
+
+    private final OkHttpClient mClient;
+    private final Request mRequest;
+    private final ScheduledThreadPoolExecutor mExecutor;
+    private final Random mRandom = new Random();
+
+    private long mBatchWindowMillis;
+    private int mOutboundCapacity = 1024;
+    private int mCapacity = 1024;
+    private Overflow mOverflow = Overflow.DROP_OLDEST;
+    private long mMinReconnectMillis = 500;
+    private long mMaxReconnectMillis = TimeUnit.SECONDS.toMillis(30);
+
+    // Guarded by this.
+    private WebSocket mSocket;
+    private boolean mOpen;
+    private volatile boolean mClosed;
+    private int mFailures;
+    private final ArrayDeque<String> mOutbound = new ArrayDeque<>();
+    private int mOutboundChars;
+    private ScheduledFuture<?> mFlush;
+
+    // Guarded by mInbound.
+    private final ArrayDeque<String> mInbound = new ArrayDeque<>();
+
+    private final AtomicLong mFramesSent = new AtomicLong();
+    private final AtomicLong mMessagesSent = new AtomicLong();
+    private final AtomicLong mMessagesReceived = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mReconnects = new AtomicLong();
+
+    public WebSocketClient(HTTP http, String url) {
+        mClient = http.client();
+        mRequest = new Request.Builder().url(url).build();
+        mExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WebSocketClient " + mRequest.url().host());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * How long a message may wait for others to share its newline-joined frame. The default,
+     * 0, sends each message as a frame of its own and leaves inbound frames whole.
+     */
+    public WebSocketClient batchWindow(long window, TimeUnit unit) {
+        mBatchWindowMillis = unit.toMillis(window);
+        return this;
+    }
+
+    /** How many messages {@link #send} holds while there is no connection to send them on. */
+    public WebSocketClient outbound(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1: " + capacity);
+        }
+        mOutboundCapacity = capacity;
+        return this;
+    }
+
+    public WebSocketClient inbound(int capacity, Overflow overflow) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1: " + capacity);
+        }
+        mCapacity = capacity;
+        mOverflow = overflow;
+        return this;
+    }
+
+    public WebSocketClient reconnectDelay(long min, long max, TimeUnit unit) {
+        mMinReconnectMillis = unit.toMillis(min);
+        mMaxReconnectMillis = unit.toMillis(max);
+        return this;
+    }
+
+    public synchronized void connect() {
+        if (!mClosed && mSocket == null) {
+            mSocket = mClient.newWebSocket(mRequest, new Listener());
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return mOpen;
+    }
+
+    /**
+     * Queues {@code message} for the next frame. Messages sent while disconnected wait for the
+     * connection. Returns false once the client is closed, or if {@link #outbound} messages
+     * are already waiting.
+     */
+    public synchronized boolean send(String message) {
+        if (mBatchWindowMillis > 0 && message.indexOf('\n') != -1) {
+            throw new IllegalArgumentException("batched message contains a newline");
+        }
+        if (mClosed || mOutbound.size() >= mOutboundCapacity) {
+            return false;
+        }
+        mOutbound.addLast(message);
+        mOutboundChars += message.length() + 1;
+
+        if (mBatchWindowMillis == 0 || mOutboundChars >= MAX_BATCH_CHARS) {
+            flush();
+        } else if (mFlush == null && mOpen) {
+            mFlush = mExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (WebSocketClient.this) {
+                        mFlush = null;
+                        flush();
+                    }
+                }
+            }, mBatchWindowMillis, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /** Waits for the next inbound message, or returns null once closed and drained. */
+    public String take() throws InterruptedException {
+        synchronized (mInbound) {
+            while (mInbound.isEmpty()) {
+                if (mClosed) {
+                    return null;
+                }
+                mInbound.wait();
+            }
+            String message = mInbound.removeFirst();
+            mInbound.notifyAll();
+            return message;
+        }
+    }
+
+    /**
+     * Waits up to {@code timeout} for the next inbound message, or returns null. Returns null
+     * right away once closed and drained.
+     */
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (mInbound) {
+            while (mInbound.isEmpty()) {
+                if (mClosed) {
+                    return null;
+                }
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return null;
+                }
+                mInbound.wait(remaining);
+            }
+            String message = mInbound.removeFirst();
+            mInbound.notifyAll();
+            return message;
+        }
+    }
+
+    public long framesSent() {
+        return mFramesSent.get();
+    }
+
+    public long messagesSent() {
+        return mMessagesSent.get();
+    }
+
+    public long messagesReceived() {
+        return mMessagesReceived.get();
+    }
+
+    /** Inbound messages discarded by {@link Overflow#DROP_OLDEST}. */
+    public long droppedCount() {
+        return mDropped.get();
+    }
+
+    public long reconnectCount() {
+        return mReconnects.get();
+    }
+
+    /** Sends what is batched, closes the connection and stops reconnecting. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            // A socket still handshaking holds what it is sent until it opens.
+            if (mSocket != null) {
+                sendBatch();
+            }
+            mClosed = true;
+            if (mSocket != null) {
+                mSocket.close(1000, null);
+            }
+        }
+        mExecutor.shutdownNow();
+        synchronized (mInbound) {
+            mInbound.notifyAll();
+        }
+    }
+
+    private void flush() {
+        if (mOpen) {
+            sendBatch();
+        }
+    }
+
+    private void sendBatch() {
+        while (!mOutbound.isEmpty()) {
+            String frame;
+            int count;
+            if (mBatchWindowMillis == 0) {
+                frame = mOutbound.peekFirst();
+                count = 1;
+            } else {
+                StringBuilder batch = new StringBuilder();
+                count = 0;
+                for (String message : mOutbound) {
+                    if (count > 0 && batch.length() + message.length() >= MAX_BATCH_CHARS) {
+                        break;
+                    }
+                    if (count > 0) {
+                        batch.append('\n');
+                    }
+                    batch.append(message);
+                    count++;
+                }
+                frame = batch.toString();
+            }
+            // False means the socket is already going away; keep the rest for the next one.
+            if (!mSocket.send(frame)) {
+                return;
+            }
+            mFramesSent.incrementAndGet();
+            mMessagesSent.addAndGet(count);
+            for (int i = 0; i < count; i++) {
+                mOutboundChars -= mOutbound.removeFirst().length() + 1;
+            }
+        }
+    }
+
+    private void receive(String frame) {
+        if (mBatchWindowMillis == 0) {
+            deliver(frame);
+            return;
+        }
+        int start = 0;
+        while (true) {
+            int end = frame.indexOf('\n', start);
+            if (!deliver(end == -1 ? frame.substring(start) : frame.substring(start, end))) {
+                return;
+            }
+            if (end == -1) {
+                return;
+            }
+            start = end + 1;
+        }
+    }
+
+    /** Runs on the socket's reader thread, so blocking here is what pushes back. */
+    private boolean deliver(String message) {
+        synchronized (mInbound) {
+            while (mInbound.size() >= mCapacity) {
+                if (mOverflow == Overflow.DROP_OLDEST) {
+                    mInbound.removeFirst();
+                    mDropped.incrementAndGet();
+                    continue;
+                }
+                if (mClosed) {
+                    return false;
+                }
+                try {
+                    mInbound.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            mInbound.addLast(message);
+            mMessagesReceived.incrementAndGet();
+            mInbound.notifyAll();
+            return true;
+        }
+    }
+
+    private synchronized void disconnected(WebSocket socket) {
+        if (socket != mSocket) {
+            return;
+        }
+        mSocket = null;
+        mOpen = false;
+        if (mFlush != null) {
+            mFlush.cancel(false);
+            mFlush = null;
+        }
+        if (mClosed) {
+            return;
+        }
+        mFailures++;
+        mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mReconnects.incrementAndGet();
+                connect();
+            }
+        }, reconnectDelayMillis(mFailures), TimeUnit.MILLISECONDS);
+    }
+
+    private long reconnectDelayMillis(int failures) {
+        long ceiling = mMinReconnectMillis << Math.min(failures - 1, 20);
+        if (ceiling <= 0 || ceiling > mMaxReconnectMillis) {
+            ceiling = mMaxReconnectMillis;
+        }
+        return ceiling / 2 + (long) (mRandom.nextDouble() * ceiling / 2);
+    }
+
+    private final class Listener extends WebSocketListener {
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            synchronized (WebSocketClient.this) {
+                if (webSocket != mSocket) {
+                    return;
+                }
+                mOpen = true;
+                mFailures = 0;
+                flush();
+            }
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            receive(text);
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(1000, null);
+            disconnected(webSocket);
+        }
+
+        @Override
+        public void onClosed(WebSocket webSocket, int code, String reason) {
+            disconnected(webSocket);
+        }
+
+        @Override
+        public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+            disconnected(webSocket);
+        }
+    }
+}
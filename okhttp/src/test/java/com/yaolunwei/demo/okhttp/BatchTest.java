@@ -0,0 +1,191 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchTest {
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mHttp = new HTTP.Builder()
+                .maxRequestsPerHost(16)
+                .maxIdleConnections(16)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void getAll_deliversInCompletionOrder() throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                long delay = Long.parseLong(request.getPath().substring(1));
+                Thread.sleep(delay);
+                return new MockResponse().setBody(request.getPath());
+            }
+        });
+
+        Recorder recorder = new Recorder();
+        mHttp.getAll(urls("/300", "/10", "/150"), 3, recorder);
+
+        assertTrue(recorder.await());
+        assertEquals(3, recorder.bodies.size());
+        assertEquals("/10", recorder.bodies.get(0));
+        assertEquals("/150", recorder.bodies.get(1));
+        assertEquals("/300", recorder.bodies.get(2));
+    }
+
+    @Test
+    public void getAll_respectsInFlightLimit() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int now = inFlight.incrementAndGet();
+                int max;
+                while (now > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, now)) {
+                }
+                Thread.sleep(20);
+                inFlight.decrementAndGet();
+                return new MockResponse().setBody("ok");
+            }
+        });
+
+        Recorder recorder = new Recorder();
+        mHttp.getAll(repeat(mServer.url("/").toString(), 20), 3, recorder);
+
+        assertTrue(recorder.await());
+        assertEquals(20, recorder.bodies.size());
+        assertTrue("max in flight " + maxInFlight.get(), maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void cancel_stopsWholeBatch() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            mServer.enqueue(new MockResponse().setBody("ok").setBodyDelay(1, TimeUnit.SECONDS));
+        }
+
+        Recorder recorder = new Recorder();
+        Batch batch = mHttp.getAll(repeat(mServer.url("/").toString(), 10), 2, recorder);
+        batch.cancel();
+
+        assertFalse(recorder.await(1500));
+        assertTrue(batch.isCanceled());
+        assertEquals(0, batch.inFlight());
+        assertEquals(0, recorder.bodies.size());
+        assertTrue(mServer.getRequestCount() <= 2);
+    }
+
+    @Test
+    public void getAll_reportsUrlsAsGiven() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        String url = "http://" + mServer.getHostName().toUpperCase(Locale.US) + ":"
+                + mServer.getPort() + "/a";
+
+        Recorder recorder = new Recorder();
+        mHttp.getAll(Collections.singletonList(url), 1, recorder);
+
+        assertTrue(recorder.await());
+        assertEquals(Collections.singletonList(url), recorder.urls);
+    }
+
+    @Test
+    public void getAll_reportsMalformedUrlsAsFailures() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("ok"));
+        List<String> urls = urls("/a");
+        urls.add(0, "not a url");
+
+        Recorder recorder = new Recorder();
+        mHttp.getAll(urls, 1, recorder);
+
+        assertTrue(recorder.await());
+        assertEquals(urls, recorder.urls);
+        assertTrue(recorder.bodies.get(0).startsWith("failure: "));
+        assertEquals("ok", recorder.bodies.get(1));
+    }
+
+    @Test
+    public void getAll_reportsErrorCodesAsFailures() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(503).setBody("busy"));
+
+        Recorder recorder = new Recorder();
+        mHttp.getAll(urls("/a"), 1, recorder);
+
+        assertTrue(recorder.await());
+        assertTrue(recorder.bodies.get(0),
+                recorder.bodies.get(0).startsWith("failure: java.io.IOException: Unexpected code"));
+        assertTrue(recorder.bodies.get(0), recorder.bodies.get(0).contains("code=503"));
+    }
+
+    private static List<String> repeat(String url, int count) {
+        return new ArrayList<>(Collections.nCopies(count, url));
+    }
+
+    private List<String> urls(String... paths) {
+        List<String> urls = new ArrayList<>();
+        for (String path : paths) {
+            urls.add(mServer.url(path).toString());
+        }
+        return urls;
+    }
+
+    private static class Recorder implements Batch.Callback {
+        final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+        final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void onResponse(String url, String body) {
+            urls.add(url);
+            bodies.add(body);
+        }
+
+        @Override
+        public void onFailure(String url, IOException e) {
+            urls.add(url);
+            bodies.add("failure: " + e);
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return await(10000);
+        }
+
+        boolean await(long millis) throws InterruptedException {
+            return done.await(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
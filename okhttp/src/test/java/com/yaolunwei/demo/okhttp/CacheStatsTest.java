@@ -0,0 +1,136 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CacheStatsTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mHttp = new HTTP.Builder()
+                .cache(mFolder.newFolder("http"), 1024 * 1024)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void freshResponse_isServedFromDisk() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .addHeader("Cache-Control", "max-age=60")
+                .setBody("readme"));
+        String url = mServer.url("/README.md").toString();
+
+        assertEquals("readme", mHttp.get(url));
+        assertEquals("readme", mHttp.get(url));
+
+        assertEquals(1, mServer.getRequestCount());
+        CacheStats stats = mHttp.cacheStats();
+        assertEquals(1, stats.missCount());
+        assertEquals(1, stats.hitCount());
+        assertEquals(0, stats.conditionalHitCount());
+        assertEquals("readme".length(), stats.bytesSaved());
+    }
+
+    @Test
+    public void chunkedHit_countsTheBytesRead() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .addHeader("Cache-Control", "max-age=60")
+                .setChunkedBody("readme", 2));
+        String url = mServer.url("/README.md").toString();
+
+        assertEquals("readme", mHttp.get(url));
+        assertEquals(0, mHttp.cacheStats().bytesSaved());
+        assertEquals("readme", mHttp.get(url));
+
+        assertEquals(1, mHttp.cacheStats().hitCount());
+        assertEquals("readme".length(), mHttp.cacheStats().bytesSaved());
+    }
+
+    @Test
+    public void staleResponse_isRevalidatedWithEtag() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .addHeader("Cache-Control", "no-cache")
+                .addHeader("ETag", "\"v1\"")
+                .setBody("readme"));
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+        String url = mServer.url("/README.md").toString();
+
+        assertEquals("readme", mHttp.get(url));
+        assertEquals("readme", mHttp.get(url));
+
+        mServer.takeRequest();
+        RecordedRequest revalidation = mServer.takeRequest();
+        assertEquals("\"v1\"", revalidation.getHeader("If-None-Match"));
+        assertEquals(1, mHttp.cacheStats().conditionalHitCount());
+        assertEquals(1, mHttp.cacheStats().missCount());
+        assertEquals("readme".length(), mHttp.cacheStats().bytesSaved());
+    }
+
+    @Test
+    public void staleResponse_isRevalidatedWithLastModified() throws Exception {
+        mServer.enqueue(new MockResponse()
+                .addHeader("Cache-Control", "no-cache")
+                .addHeader("Last-Modified", "Mon, 19 Jun 2017 00:00:00 GMT")
+                .setBody("readme"));
+        mServer.enqueue(new MockResponse().setResponseCode(304));
+        String url = mServer.url("/README.md").toString();
+
+        mHttp.get(url);
+        assertEquals("readme", mHttp.get(url));
+
+        mServer.takeRequest();
+        assertEquals("Mon, 19 Jun 2017 00:00:00 GMT",
+                mServer.takeRequest().getHeader("If-Modified-Since"));
+        assertEquals(1, mHttp.cacheStats().conditionalHitCount());
+    }
+
+    @Test
+    public void cache_evictsPastMaxSize() throws Exception {
+        HTTP small = new HTTP.Builder()
+                .cache(mFolder.newFolder("small"), 16 * 1024)
+                .build();
+        char[] body = new char[4 * 1024];
+        Arrays.fill(body, 'x');
+        for (int i = 0; i < 10; i++) {
+            mServer.enqueue(new MockResponse()
+                    .addHeader("Cache-Control", "max-age=60")
+                    .setBody(new String(body)));
+            small.get(mServer.url("/" + i).toString());
+        }
+
+        // Trimming runs in the background; flush() trims before returning.
+        small.cache().flush();
+        assertTrue(small.cache().size() <= 16 * 1024);
+        small.shutdown();
+    }
+
+    @Test
+    public void engineWithoutCache_hasNoStats() {
+        assertNull(new HTTP.Builder().build().cacheStats());
+    }
+}
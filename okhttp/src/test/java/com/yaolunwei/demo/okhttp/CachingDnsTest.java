@@ -0,0 +1,210 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Dns;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachingDnsTest {
+
+    private static class FakeClock implements MemoryCache.Clock {
+        volatile long now = 1000;
+
+        @Override
+        public long millis() {
+            return now;
+        }
+    }
+
+    /** Answers 10.0.0.n for the n-th lookup, optionally blocking until released. */
+    private static class FakeDns implements Dns {
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile CountDownLatch gate;
+        volatile boolean down;
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            int n = lookups.incrementAndGet();
+            CountDownLatch latch = gate;
+            if (latch != null) {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new UnknownHostException(hostname);
+                }
+            }
+            if (down) {
+                throw new UnknownHostException(hostname);
+            }
+            return Arrays.asList(address(hostname, 10, 0, 0, n));
+        }
+    }
+
+    private final FakeClock mClock = new FakeClock();
+    private final FakeDns mUpstream = new FakeDns();
+    private final CachingDns mDns = new CachingDns(mUpstream, mClock)
+            .ttl(60, TimeUnit.SECONDS)
+            .refreshAhead(10, TimeUnit.SECONDS)
+            .serveStale(30, TimeUnit.SECONDS);
+
+    @Test
+    public void servesFreshEntriesWithoutLookingUp() throws Exception {
+        List<InetAddress> first = mDns.lookup("example.com");
+        mClock.now += TimeUnit.SECONDS.toMillis(49);
+        assertSame(first, mDns.lookup("example.com"));
+        mDns.lookup("other.com");
+
+        assertEquals(2, mUpstream.lookups.get());
+        assertEquals(1, mDns.hitCount());
+        assertEquals(2, mDns.missCount());
+        assertEquals(0, mDns.refreshCount());
+    }
+
+    @Test
+    public void refreshesInTheBackgroundBeforeExpiry() throws Exception {
+        List<InetAddress> first = mDns.lookup("example.com");
+        mClock.now += TimeUnit.SECONDS.toMillis(55);
+        mUpstream.gate = new CountDownLatch(1);
+
+        // Served from the cache while one refresh waits on the resolver.
+        assertSame(first, mDns.lookup("example.com"));
+        assertSame(first, mDns.lookup("example.com"));
+        mUpstream.gate.countDown();
+        awaitLookups(2);
+
+        assertEquals("10.0.0.2", mDns.lookup("example.com").get(0).getHostAddress());
+        assertEquals(1, mDns.refreshCount());
+        assertEquals(1, mDns.missCount());
+    }
+
+    @Test
+    public void servesStaleWhileRefreshingAndAfterRefreshFails() throws Exception {
+        List<InetAddress> first = mDns.lookup("example.com");
+        mClock.now += TimeUnit.SECONDS.toMillis(70);
+        mUpstream.down = true;
+
+        assertSame(first, mDns.lookup("example.com"));
+        awaitLookups(2);
+        Thread.sleep(50);
+        assertSame(first, mDns.lookup("example.com"));
+        assertEquals(2, mDns.staleHitCount());
+        assertTrue(mDns.refreshFailureCount() >= 1);
+
+        mClock.now += TimeUnit.SECONDS.toMillis(30);
+        try {
+            mDns.lookup("example.com");
+            fail();
+        } catch (UnknownHostException expected) {
+        }
+    }
+
+    @Test
+    public void concurrentMissesShareOneLookup() throws Exception {
+        mUpstream.gate = new CountDownLatch(1);
+        final InetAddress[] results = new InetAddress[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results[index] = mDns.lookup("example.com").get(0);
+                    } catch (UnknownHostException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        Thread.sleep(100);
+        mUpstream.gate.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, mUpstream.lookups.get());
+        for (InetAddress result : results) {
+            assertEquals("10.0.0.1", result.getHostAddress());
+        }
+    }
+
+    @Test
+    public void interleavesAddressFamilies() throws Exception {
+        InetAddress v6a = address("h", 0x20, 1, 0, 1);
+        InetAddress v6b = address("h", 0x20, 1, 0, 2);
+        InetAddress v6c = address("h", 0x20, 1, 0, 3);
+        InetAddress v4a = address("h", 10, 0, 0, 1);
+        InetAddress v4b = address("h", 10, 0, 0, 2);
+        assertEquals(Arrays.asList(v6a, v4a, v6b, v4b, v6c),
+                CachingDns.interleave(Arrays.asList(v6a, v6b, v6c, v4a, v4b)));
+        assertEquals(Arrays.asList(v4a, v6a, v4b, v6b, v6c),
+                CachingDns.interleave(Arrays.asList(v4a, v4b, v6a, v6b, v6c)));
+    }
+
+    @Test
+    public void plugsIntoTheEngine() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        final AtomicInteger lookups = new AtomicInteger();
+        CachingDns dns = new CachingDns(new Dns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                lookups.incrementAndGet();
+                return Dns.SYSTEM.lookup(hostname);
+            }
+        });
+        HTTP http = new HTTP.Builder().dns(dns).build();
+        try {
+            for (int i = 0; i < 3; i++) {
+                server.enqueue(new MockResponse().setBody("ok"));
+                assertEquals("ok", http.get(server.url("/" + i).toString()));
+                http.connectionPool().evictAll();
+            }
+            assertEquals(1, lookups.get());
+            assertEquals(2, dns.hitCount());
+        } finally {
+            http.shutdown();
+            server.shutdown();
+        }
+    }
+
+    private void awaitLookups(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mUpstream.lookups.get() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        // Let the refresh store its result.
+        Thread.sleep(20);
+    }
+
+    private static InetAddress address(String host, int a, int b, int c, int d) {
+        try {
+            if (a == 0x20) {
+                byte[] v6 = new byte[16];
+                v6[0] = (byte) a;
+                v6[1] = (byte) b;
+                v6[15] = (byte) d;
+                return InetAddress.getByAddress(host, v6);
+            }
+            byte[] v4 = {(byte) a, (byte) b, (byte) c, (byte) d};
+            return InetAddress.getByAddress(host, v4);
+        } catch (UnknownHostException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
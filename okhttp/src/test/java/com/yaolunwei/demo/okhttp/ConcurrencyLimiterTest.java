@@ -0,0 +1,271 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimiterTest {
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @After
+    public void tearDown() throws Exception {
+        if (mHttp != null) {
+            mHttp.shutdown();
+        }
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    @Test
+    public void growsWhileLatencyIsFlat() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4).limits(1, 100);
+        for (int round = 0; round < 40; round++) {
+            int permits = limiter.limit("a");
+            for (int i = 0; i < permits; i++) {
+                limiter.acquire("a", null);
+            }
+            for (int i = 0; i < permits; i++) {
+                limiter.release("a", TimeUnit.MILLISECONDS.toNanos(10), true);
+            }
+        }
+        // Additive: well under one per call, or it would have hit the maximum.
+        int limit = limiter.limit("a");
+        assertTrue("limit " + limit, limit > 15 && limit < 40);
+    }
+
+    @Test
+    public void doesNotGrowWhenUnused() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire("a", null);
+            limiter.release("a", TimeUnit.MILLISECONDS.toNanos(10), true);
+        }
+        assertEquals(10, limiter.limit("a"));
+    }
+
+    @Test
+    public void cutsOnErrorsAndSlowResponses() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20).backoff(2, 0.5);
+        limiter.acquire("a", null);
+        limiter.release("a", TimeUnit.MILLISECONDS.toNanos(10), true);
+
+        limiter.acquire("a", null);
+        limiter.release("a", TimeUnit.MILLISECONDS.toNanos(10), false);
+        assertEquals(10, limiter.limit("a"));
+
+        // A second overload signal from the same round trip does not cut again.
+        limiter.acquire("a", null);
+        limiter.release("a", TimeUnit.MILLISECONDS.toNanos(50), true);
+        assertEquals(10, limiter.limit("a"));
+
+        Thread.sleep(60);
+        limiter.acquire("a", null);
+        limiter.release("a", TimeUnit.MILLISECONDS.toNanos(50), true);
+        assertEquals(5, limiter.limit("a"));
+    }
+
+    @Test
+    public void queuedCallFailsAfterDeadline() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1)
+                .queueTimeout(100, TimeUnit.MILLISECONDS);
+        limiter.acquire("a", null);
+
+        long start = System.nanoTime();
+        try {
+            limiter.acquire("a", null);
+            fail();
+        } catch (InterruptedIOException expected) {
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, limiter.rejectionCount());
+        assertEquals(1, limiter.inFlight("a"));
+        assertEquals(0, limiter.queued("a"));
+    }
+
+    @Test
+    public void queuedCallRunsWhenPermitFrees() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+        limiter.acquire("a", null);
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException ignored) {
+                }
+                limiter.release("a", TimeUnit.MILLISECONDS.toNanos(50), true);
+            }
+        });
+        releaser.start();
+
+        limiter.acquire("a", null);
+        releaser.join();
+        assertEquals(1, limiter.inFlight("a"));
+        assertTrue(limiter.queueWait().maxMicros() >= 40000);
+    }
+
+    @Test
+    public void hostsHaveLimitsOfTheirOwn() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20).backoff(2, 0.5);
+        limiter.acquire("a", null);
+        limiter.release("a", TimeUnit.MILLISECONDS.toNanos(10), false);
+
+        assertEquals(10, limiter.limit("a"));
+        assertEquals(20, limiter.limit("b"));
+    }
+
+    @Test
+    public void fastestLatencyAgesOut() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20).backoff(2, 0.5)
+                .minLatencyWindow(50, TimeUnit.MILLISECONDS);
+        limiter.acquire("a", null);
+        limiter.release("a", TimeUnit.MILLISECONDS.toNanos(10), true);
+
+        // The route got slower for good; past the window that is the new baseline.
+        Thread.sleep(60);
+        limiter.acquire("a", null);
+        limiter.release("a", TimeUnit.MILLISECONDS.toNanos(50), true);
+        assertEquals(20, limiter.limit("a"));
+    }
+
+    @Test
+    public void permitIsHeldUntilTheBodyIsClosed() throws Exception {
+        mServer = new MockWebServer();
+        mServer.enqueue(new MockResponse().setBody("body"));
+        mServer.start();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4);
+        mHttp = new HTTP.Builder().limiter(limiter).build();
+        String host = mServer.getHostName();
+
+        Response response = mHttp.client()
+                .newCall(new Request.Builder().url(mServer.url("/")).build()).execute();
+        assertEquals(1, limiter.inFlight(host));
+        assertEquals("body", response.body().string());
+        assertEquals(0, limiter.inFlight(host));
+        response.close();
+        assertEquals(0, limiter.inFlight(host));
+    }
+
+    @Test
+    public void cancelledCallIsNotAnOverloadSignal() throws Exception {
+        mServer = new MockWebServer();
+        mServer.enqueue(new MockResponse().setBody("late")
+                .setHeadersDelay(2, TimeUnit.SECONDS));
+        mServer.start();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20).backoff(2, 0.5);
+        mHttp = new HTTP.Builder().limiter(limiter).build();
+        String host = mServer.getHostName();
+
+        final Call call = mHttp.client()
+                .newCall(new Request.Builder().url(mServer.url("/")).build());
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                }
+                call.cancel();
+            }
+        }).start();
+        try {
+            call.execute();
+            fail();
+        } catch (IOException expected) {
+        }
+
+        assertEquals(20, limiter.limit(host));
+        assertEquals(0, limiter.inFlight(host));
+    }
+
+    /**
+     * A server that answers in 50ms up to {@code capacity} concurrent requests and gets 40ms
+     * slower for every request beyond that, hammered by far more callers than it can take.
+     */
+    @Test
+    public void simulation_convergesNearServerCapacity() throws Exception {
+        final int capacity = 8;
+        final int callers = 48;
+        final AtomicInteger active = new AtomicInteger();
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                int concurrent = active.incrementAndGet();
+                try {
+                    Thread.sleep(50 + 40 * Math.max(0, concurrent - capacity));
+                    return new MockResponse().setBody("ok");
+                } finally {
+                    active.decrementAndGet();
+                }
+            }
+        });
+        mServer.start();
+
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(callers)
+                .limits(1, callers).backoff(2, 0.5);
+        mHttp = new HTTP.Builder().limiter(limiter).build();
+        assertSame(limiter, mHttp.limiter());
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        final AtomicLong served = new AtomicLong();
+        final AtomicInteger ids = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(callers);
+        for (int i = 0; i < callers; i++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.nanoTime() < deadline) {
+                        try {
+                            mHttp.get(mServer.url("/?id=" + ids.incrementAndGet()).toString());
+                            served.incrementAndGet();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            });
+        }
+        // Sample the server's load once the limit has settled.
+        Thread.sleep(2500);
+        long samples = 0;
+        long load = 0;
+        while (System.nanoTime() < deadline) {
+            load += active.get();
+            samples++;
+            Thread.sleep(10);
+        }
+        double averageLoad = (double) load / samples;
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(20, TimeUnit.SECONDS));
+
+        int limit = limiter.limit(mServer.getHostName());
+        String state = "limit=" + limit + " load=" + averageLoad + " served=" + served.get()
+                + " wait=" + limiter.queueWait();
+        // Without the limiter all callers would be on the server.
+        assertTrue(state, averageLoad > 1 && averageLoad < capacity * 1.5);
+        assertTrue(state, limit < capacity * 2);
+        assertTrue(state, served.get() > 0);
+    }
+}
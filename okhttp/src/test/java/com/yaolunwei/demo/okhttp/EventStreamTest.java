@@ -0,0 +1,235 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EventStreamTest {
+    private MockWebServer mServer;
+    private HTTP mHttp;
+    private EventStream mStream;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mStream != null) {
+            mStream.close();
+        }
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void parsesFieldsCommentsAndMultilineData() throws Exception {
+        Recorder recorder = new Recorder();
+        EventParser parser = new EventParser(recorder);
+        parser.parse(new Buffer().writeUtf8(""
+                + ": keep-alive\n"
+                + "id: 1\n"
+                + "event: tick\n"
+                + "data: first\n"
+                + "data:second\n"
+                + "\n"
+                + "data: {\"n\":2}\r\n"
+                + "unknown: field\r\n"
+                + "\r\n"
+                + "retry: 250\r"
+                + "id\r"
+                + "data\r"
+                + "\r"
+                + "event: lost\n"
+                + "\n"
+                + "data: unterminated\n"));
+
+        assertEquals("1 tick first\nsecond", recorder.events.poll());
+        assertEquals("1 message {\"n\":2}", recorder.events.poll());
+        assertEquals(" message ", recorder.events.poll());
+        assertNull(recorder.events.poll());
+        assertEquals(250, recorder.retry);
+        assertEquals("", parser.lastEventId());
+    }
+
+    @Test
+    public void takesTheIdOnDispatchAndIgnoresBadRetries() throws Exception {
+        final List<String> types = new ArrayList<>();
+        final long[] retry = {-1};
+        EventParser parser = new EventParser(new EventParser.Callback() {
+            @Override
+            public void onEvent(String id, String type, String data) {
+                types.add(type);
+            }
+
+            @Override
+            public void onRetry(long millis) {
+                retry[0] = millis;
+            }
+        });
+        parser.parse(new Buffer().writeUtf8(""
+                + "id: 1\n"
+                + "event: tick\n"
+                + "data: a\n"
+                + "\n"
+                + "event: tick\n"
+                + "data: b\n"
+                + "\n"
+                + "retry: -5\n"
+                + "retry: 10s\n"
+                + "retry:\n"
+                + "id: 2\n"
+                + "data: cut off\n"));
+
+        assertEquals("1", parser.lastEventId());
+        assertEquals(2, types.size());
+        assertSame(types.get(0), types.get(1));
+        assertEquals(-1, retry[0]);
+    }
+
+    @Test
+    public void deliversEventsInOrderOffTheReaderThread() throws Exception {
+        mServer.enqueue(events(new Buffer().writeUtf8("data: a\n\ndata: b\n\ndata: c\n\n")));
+        Recorder recorder = new Recorder();
+        mStream = newStream(recorder);
+        mStream.connect();
+
+        assertEquals("open", recorder.events.poll(5, TimeUnit.SECONDS));
+        assertEquals(" message a", recorder.events.poll(5, TimeUnit.SECONDS));
+        assertEquals(" message b", recorder.events.poll(5, TimeUnit.SECONDS));
+        assertEquals(" message c", recorder.events.poll(5, TimeUnit.SECONDS));
+        assertTrue(recorder.thread.startsWith("EventStream "));
+        assertEquals("text/event-stream", mServer.takeRequest().getHeader("Accept"));
+    }
+
+    @Test
+    public void resumesFromTheLastEventIdAfterTheStreamEnds() throws Exception {
+        mServer.enqueue(events(new Buffer().writeUtf8(
+                "retry: 10\n\nid: 7\ndata: a\n\nid: 8\ndata: b\n\n")));
+        mServer.enqueue(events(new Buffer().writeUtf8("id: 9\ndata: c\n\n")));
+        Recorder recorder = new Recorder();
+        mStream = newStream(recorder).reconnectDelay(1, 1, TimeUnit.HOURS);
+        mStream.connect();
+
+        recorder.awaitEvents(3);
+        assertNull(mServer.takeRequest().getHeader("Last-Event-ID"));
+        assertEquals("8", mServer.takeRequest().getHeader("Last-Event-ID"));
+        assertEquals("9", mStream.lastEventId());
+        assertEquals(1, mStream.reconnectCount());
+    }
+
+    @Test
+    public void retriesServerErrorsAndStopsOnNoContent() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(events(new Buffer().writeUtf8("id: 1\ndata: a\n\n")));
+        mServer.enqueue(new MockResponse().setResponseCode(204));
+        Recorder recorder = new Recorder();
+        mStream = newStream(recorder).lastEventId("0");
+        mStream.connect();
+
+        assertTrue(recorder.stopped.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mStream.eventCount());
+        assertEquals(2, mStream.reconnectCount());
+        assertEquals("0", mServer.takeRequest().getHeader("Last-Event-ID"));
+        assertEquals("0", mServer.takeRequest().getHeader("Last-Event-ID"));
+        assertEquals("1", mServer.takeRequest().getHeader("Last-Event-ID"));
+        Thread.sleep(100);
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    @Test
+    public void clientErrorsStopTheStream() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(404));
+        Recorder recorder = new Recorder();
+        mStream = newStream(recorder);
+        mStream.connect();
+
+        assertTrue(recorder.stopped.await(5, TimeUnit.SECONDS));
+        assertFalse(recorder.retrying);
+        Thread.sleep(100);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    private EventStream newStream(EventStream.Listener listener) {
+        return new EventStream(mHttp, mServer.url("/events").toString(), listener)
+                .reconnectDelay(10, 50, TimeUnit.MILLISECONDS);
+    }
+
+    private static MockResponse events(Buffer body) {
+        return new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody(body);
+    }
+
+    private static final class Recorder extends EventStream.Listener
+            implements EventParser.Callback {
+        final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+        final List<String> received = new ArrayList<>();
+        final CountDownLatch stopped = new CountDownLatch(1);
+        volatile String thread;
+        volatile long retry;
+        volatile boolean retrying;
+
+        @Override
+        public void onOpen() {
+            events.add("open");
+        }
+
+        @Override
+        public void onEvent(String id, String type, String data) {
+            thread = Thread.currentThread().getName();
+            String event = (id != null ? id : "") + " " + type + " " + data;
+            synchronized (received) {
+                received.add(event);
+                received.notifyAll();
+            }
+            events.add(event);
+        }
+
+        @Override
+        public void onRetry(long millis) {
+            retry = millis;
+        }
+
+        @Override
+        public void onFailure(IOException e, boolean retrying) {
+            this.retrying = retrying;
+        }
+
+        @Override
+        public void onClosed() {
+            stopped.countDown();
+        }
+
+        void awaitEvents(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            synchronized (received) {
+                while (received.size() < count && System.currentTimeMillis() < deadline) {
+                    received.wait(100);
+                }
+                assertEquals(count, received.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HTTPTest {
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mHttp = new HTTP.Builder()
+                .maxIdleConnections(2)
+                .keepAlive(1, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void get_reusesPooledConnection() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            mServer.enqueue(new MockResponse().setBody("hello " + i));
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("hello " + i, mHttp.get(mServer.url("/").toString()));
+        }
+
+        // The sequence number counts requests per connection, so a single keep-alive
+        // connection yields 0, 1, 2 ...
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, mServer.takeRequest().getSequenceNumber());
+        }
+        assertEquals(1, mHttp.connectionPool().connectionCount());
+    }
+
+    @Test
+    public void defaultEnginesShareOneClient() {
+        assertSame(new HTTP().client(), new HTTP().client());
+    }
+
+    @Test
+    public void get_latencyAndThreadsStayFlatAsVolumeGrows() throws Exception {
+        String url = mServer.url("/").toString();
+
+        long small = averageNanos(url, 10);
+        int threadsAfterSmall = Thread.activeCount();
+
+        long large = averageNanos(url, 100);
+        int threadsAfterLarge = Thread.activeCount();
+
+        // A client per call would leave a pool cleanup thread and a fresh connection
+        // behind for every request; a shared engine adds neither.
+        assertTrue("threads grew from " + threadsAfterSmall + " to " + threadsAfterLarge,
+                threadsAfterLarge <= threadsAfterSmall + 2);
+        assertTrue("average latency grew from " + small + "ns to " + large + "ns",
+                large <= small * 3 + TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(1, mHttp.connectionPool().connectionCount());
+    }
+
+    private long averageNanos(String url, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            mServer.enqueue(new MockResponse().setBody("ok"));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            mHttp.get(url);
+        }
+        return (System.nanoTime() - start) / count;
+    }
+}
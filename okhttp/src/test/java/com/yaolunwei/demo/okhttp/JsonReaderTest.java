@@ -0,0 +1,256 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonReaderTest {
+    private static final JsonReader.Decoder<String> NAME = new JsonReader.Decoder<String>() {
+        @Override
+        public String decode(JsonReader reader) throws IOException {
+            String name = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("name".equals(reader.nextName())) {
+                    name = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return name;
+        }
+    };
+
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void readsNestedDocument() throws Exception {
+        JsonReader reader = reader(" {\"id\": 7, \"score\": -1.5e2, \"ok\": true, \"none\": null,\n"
+                + "  \"tags\": [\"a\", \"b\"], \"empty\": {}, \"list\": []} ");
+
+        reader.beginObject();
+        assertEquals("id", reader.nextName());
+        assertEquals(7, reader.nextInt());
+        assertEquals("score", reader.nextName());
+        assertEquals(-150.0, reader.nextDouble(), 0);
+        assertEquals("ok", reader.nextName());
+        assertTrue(reader.nextBoolean());
+        assertEquals("none", reader.nextName());
+        assertEquals(JsonReader.Token.NULL, reader.peek());
+        reader.nextNull();
+        assertEquals("tags", reader.nextName());
+        reader.beginArray();
+        assertEquals("a", reader.nextString());
+        assertEquals("b", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("empty", reader.nextName());
+        reader.beginObject();
+        reader.endObject();
+        assertEquals("list", reader.nextName());
+        reader.beginArray();
+        reader.endArray();
+        reader.endObject();
+        assertEquals(JsonReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void decodesEscapes() throws Exception {
+        JsonReader reader = reader("[\"a\\\"b\\\\c\\/d\\n\\u4e2d\", \"文字\"]");
+        reader.beginArray();
+        assertEquals("a\"b\\c/d\n中", reader.nextString());
+        assertEquals("文字", reader.nextString());
+        reader.endArray();
+    }
+
+    @Test
+    public void skipsNestedValues() throws Exception {
+        JsonReader reader = reader("[{\"a\":[1,{\"b\":\"x\\\"]\"}],\"c\":null},\"next\"]");
+        reader.beginArray();
+        reader.skipValue();
+        assertEquals("next", reader.nextString());
+        reader.endArray();
+    }
+
+    @Test
+    public void readsNumbersAsStringsAndBack() throws Exception {
+        JsonReader reader = reader("[12345678901, \"42\", 1e3]");
+        reader.beginArray();
+        assertEquals(12345678901L, reader.nextLong());
+        assertEquals(42, reader.nextInt());
+        assertEquals(1000, reader.nextLong());
+        reader.endArray();
+    }
+
+    @Test
+    public void rejectsMalformedInput() throws Exception {
+        assertMalformed("[1 2]");
+        assertMalformed("{\"a\" 1}");
+        assertMalformed("[1,]");
+        assertMalformed("[\"abc");
+        assertMalformed("{} []");
+        try {
+            JsonReader reader = reader("[1");
+            reader.beginArray();
+            reader.nextInt();
+            reader.peek();
+            fail();
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void rejectsMalformedNumbers() throws Exception {
+        String[] numbers = {"01", "-", "1.", "1.e3", "1e", "1e+", "--1", "1x", "0x1F"};
+        for (String number : numbers) {
+            assertMalformed("[" + number + "]");
+            JsonReader reader = reader("[\"" + number + "\"]");
+            reader.beginArray();
+            try {
+                reader.nextLong();
+                fail(number);
+            } catch (IOException expected) {
+                assertTrue(expected.getMessage().startsWith("Malformed JSON"));
+            }
+        }
+        JsonReader reader = reader("[0, -0.5, 1E+2, 2e-1]");
+        reader.beginArray();
+        assertEquals(0, reader.nextLong());
+        assertEquals(-0.5, reader.nextDouble(), 0);
+        assertEquals(100, reader.nextLong());
+        assertEquals(0.2, reader.nextDouble(), 0);
+        reader.endArray();
+    }
+
+    @Test
+    public void typeMismatchLeavesTheTokenInPlace() throws Exception {
+        JsonReader reader = reader("[[1], {}]");
+        reader.beginArray();
+        try {
+            reader.nextString();
+            fail();
+        } catch (IOException expected) {
+        }
+        try {
+            reader.nextLong();
+            fail();
+        } catch (IOException expected) {
+        }
+        reader.beginArray();
+        assertEquals(1, reader.nextInt());
+        reader.endArray();
+        reader.skipValue();
+        reader.endArray();
+    }
+
+    @Test
+    public void skipValueRejectsTheEndOfAScope() throws Exception {
+        JsonReader reader = reader("[{}]");
+        reader.beginArray();
+        reader.beginObject();
+        try {
+            reader.skipValue();
+            fail();
+        } catch (IOException expected) {
+        }
+        reader.endObject();
+        try {
+            reader.skipValue();
+            fail();
+        } catch (IOException expected) {
+        }
+        reader.endArray();
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void getArrayDeliversElementsWhileTheBodyIsStillArriving() throws Exception {
+        Buffer body = new Buffer().writeUtf8("[");
+        for (int i = 0; i < 200; i++) {
+            body.writeUtf8(i == 0 ? "" : ",")
+                    .writeUtf8("{\"id\":" + i + ",\"name\":\"user" + i + "\"}");
+        }
+        body.writeUtf8("]");
+        long size = body.size();
+        // Roughly 1s to send the whole body.
+        mServer.enqueue(new MockResponse().setBody(body)
+                .throttleBody(size / 10, 100, TimeUnit.MILLISECONDS));
+
+        final long start = System.nanoTime();
+        final long[] firstElementNanos = new long[1];
+        final List<String> names = new ArrayList<>();
+        long count = mHttp.getArray(mServer.url("/users").toString(), NAME,
+                new JsonReader.Callback<String>() {
+                    @Override
+                    public void onElement(String name) {
+                        if (names.isEmpty()) {
+                            firstElementNanos[0] = System.nanoTime() - start;
+                        }
+                        names.add(name);
+                    }
+                });
+        long totalNanos = System.nanoTime() - start;
+
+        assertEquals(200, count);
+        assertEquals("user0", names.get(0));
+        assertEquals("user199", names.get(199));
+        assertTrue(firstElementNanos[0] < totalNanos / 2);
+    }
+
+    @Test
+    public void getJsonFailsOnErrorResponse() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(500));
+        try {
+            mHttp.getJson(mServer.url("/").toString());
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(new Buffer().writeUtf8(json));
+    }
+
+    private static void assertMalformed(String json) throws IOException {
+        JsonReader reader = reader(json);
+        try {
+            reader.skipValue();
+            reader.peek();
+            fail(json);
+        } catch (EOFException e) {
+            fail(json + ": " + e);
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Malformed JSON"));
+        }
+    }
+}
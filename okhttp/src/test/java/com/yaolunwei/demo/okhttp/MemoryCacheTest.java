@@ -0,0 +1,162 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryCacheTest {
+
+    private static class FakeClock implements MemoryCache.Clock {
+        long now = 1000;
+
+        @Override
+        public long millis() {
+            return now;
+        }
+    }
+
+    private final FakeClock mClock = new FakeClock();
+
+    @Test
+    public void evictsLeastRecentlyUsedByBytes() {
+        MemoryCache cache = new MemoryCache(10, 1, mClock);
+        cache.put("a", "aaaa", 1000, 0);
+        cache.put("b", "bbbb", 1000, 0);
+        cache.get("a");
+        cache.put("c", "cccc", 1000, 0);
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(8, cache.size());
+        assertEquals(1, cache.evictionCount());
+    }
+
+    @Test
+    public void weighsEntriesByUtf8Bytes() {
+        MemoryCache cache = new MemoryCache(6, 1, mClock);
+        cache.put("a", "你好", 1000, 0);
+        assertEquals(6, cache.size());
+
+        cache.put("b", "x", 1000, 0);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void dropsBodiesLargerThanBudget() {
+        MemoryCache cache = new MemoryCache(4, 1, mClock);
+        cache.put("a", "aaaaa", 1000, 0);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void replacingEntryUpdatesSize() {
+        MemoryCache cache = new MemoryCache(100, 1, mClock);
+        cache.put("a", "aaaa", 1000, 0);
+        cache.put("a", "aa", 1000, 0);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void entryGoesStaleThenExpires() {
+        MemoryCache cache = new MemoryCache(100, 1, mClock);
+        cache.put("a", "body", 100, 50);
+
+        assertTrue(cache.isFresh(cache.get("a")));
+
+        mClock.now += 120;
+        MemoryCache.Entry stale = cache.get("a");
+        assertNotNull(stale);
+        assertTrue(!cache.isFresh(stale));
+        assertTrue(stale.startRevalidation());
+        assertTrue(!stale.startRevalidation());
+
+        mClock.now += 40;
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.staleHitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    public void get_servesStaleWhileRevalidating() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("v1"));
+        server.enqueue(new MockResponse().setBody("v2"));
+        server.start();
+        OkHttpClient client = new OkHttpClient();
+        MemoryCache cache = new MemoryCache(1024, 4, mClock);
+        HTTP http = new HTTP(client, new SingleFlight(), cache, 100, 1000);
+        String url = server.url("/").toString();
+
+        assertEquals("v1", http.get(url));
+        assertEquals("v1", http.get(url));
+        assertEquals(1, server.getRequestCount());
+
+        mClock.now += 200;
+        assertEquals("v1", http.get(url));
+        server.takeRequest();
+        server.takeRequest(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 100 && !cache.isFresh(cache.get(url)); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("v2", http.get(url));
+        assertEquals(2, server.getRequestCount());
+
+        server.shutdown();
+    }
+
+    @Test
+    public void get_retriesRevalidationAfterAnErrorResponse() throws Exception {
+        assertRevalidationRetriedAfter(new MockResponse().setResponseCode(503));
+    }
+
+    @Test
+    public void get_retriesRevalidationAfterANoStoreResponse() throws Exception {
+        assertRevalidationRetriedAfter(new MockResponse().setBody("private")
+                .setHeader("Cache-Control", "no-store"));
+    }
+
+    private void assertRevalidationRetriedAfter(MockResponse refresh) throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setBody("v1"));
+        server.enqueue(refresh);
+        server.enqueue(new MockResponse().setBody("v2"));
+        server.start();
+        MemoryCache cache = new MemoryCache(1024, 4, mClock);
+        HTTP http = new HTTP(new OkHttpClient(), new SingleFlight(), cache, 100, 1000);
+        String url = server.url("/").toString();
+
+        assertEquals("v1", http.get(url));
+        mClock.now += 200;
+        assertEquals("v1", http.get(url));
+        server.takeRequest();
+        server.takeRequest(5, TimeUnit.SECONDS);
+        // The refresh that stored nothing gives up its claim on the entry.
+        MemoryCache.Entry entry = cache.get(url);
+        boolean released = false;
+        for (int i = 0; i < 100 && !(released = entry.startRevalidation()); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(released);
+        entry.endRevalidation();
+
+        assertEquals("v1", http.get(url));
+        assertNotNull(server.takeRequest(5, TimeUnit.SECONDS));
+        assertEquals(3, server.getRequestCount());
+
+        server.shutdown();
+    }
+}
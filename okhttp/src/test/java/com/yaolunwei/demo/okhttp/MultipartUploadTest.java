@@ -0,0 +1,175 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.MediaType;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.BufferedSink;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultipartUploadTest {
+    private static final MediaType JPEG = MediaType.parse("image/jpeg");
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().startsWith("/broken")
+                        && request.getBody().clone().readUtf8().contains("b.jpg")) {
+                    return new MockResponse().setResponseCode(500);
+                }
+                return new MockResponse().setBody("stored " + request.getBodySize());
+            }
+        });
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void sendsFieldsAndFilesInOneRequest() throws Exception {
+        final AtomicLong progress = new AtomicLong();
+        final AtomicLong total = new AtomicLong();
+        List<String> responses = mHttp.upload(url("/upload"))
+                .field("album", "holiday")
+                .file("photo", file("a.jpg", 100 * 1024), JPEG)
+                .file("photo", file("b.jpg", 3), JPEG)
+                .progress(new MultipartUpload.ProgressListener() {
+                    @Override
+                    public void onProgress(long bytesWritten, long contentLength) {
+                        assertTrue(bytesWritten >= progress.get());
+                        progress.set(bytesWritten);
+                        total.set(contentLength);
+                    }
+                })
+                .send();
+
+        RecordedRequest request = mServer.takeRequest();
+        assertTrue(request.getHeader("Content-Type").startsWith("multipart/form-data; boundary="));
+        String body = request.getBody().readUtf8();
+        assertTrue(body.contains("name=\"album\"\r\nContent-Length: 7\r\n\r\nholiday"));
+        assertTrue(body.contains("filename=\"a.jpg\"\r\nContent-Type: image/jpeg"));
+        assertTrue(body.contains("filename=\"b.jpg\""));
+        assertEquals(Collections.singletonList("stored " + request.getBodySize()), responses);
+        assertEquals(request.getBodySize(), total.get());
+        assertEquals(request.getBodySize(), progress.get());
+    }
+
+    @Test
+    public void parallelUploadSendsEachFileOnItsOwn() throws Exception {
+        MultipartUpload upload = mHttp.upload(url("/upload")).field("album", "holiday").parallel(2);
+        for (int i = 0; i < 3; i++) {
+            upload.file("photo", file(i + ".jpg", 10 * 1024), JPEG);
+        }
+        List<String> responses = upload.send();
+
+        assertEquals(3, responses.size());
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String body = mServer.takeRequest().getBody().readUtf8();
+            assertTrue(body.contains("holiday"));
+            files.add(body.substring(body.indexOf("filename=\"") + 10, body.indexOf(".jpg\"")));
+        }
+        Collections.sort(files);
+        assertEquals(java.util.Arrays.asList("0", "1", "2"), files);
+    }
+
+    @Test
+    public void failedPartFailsTheUpload() throws Exception {
+        MultipartUpload upload = mHttp.upload(url("/broken")).parallel(3);
+        upload.file("photo", file("a.jpg", 10), JPEG)
+                .file("photo", file("b.jpg", 10), JPEG)
+                .file("photo", file("c.jpg", 10), JPEG);
+        try {
+            upload.send();
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("500"));
+        }
+    }
+
+    @Test
+    public void noPartStartsAfterTheUploadFailed() throws Exception {
+        // The other parts are still in flight when b.jpg fails.
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (request.getBody().clone().readUtf8().contains("b.jpg")) {
+                    return new MockResponse().setResponseCode(500);
+                }
+                Thread.sleep(500);
+                return new MockResponse().setBody("stored");
+            }
+        });
+        MultipartUpload upload = mHttp.upload(url("/upload")).parallel(2);
+        for (String name : new String[]{"a", "b", "c", "d"}) {
+            upload.file("photo", file(name + ".jpg", 10), JPEG);
+        }
+        try {
+            upload.send();
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("500"));
+        }
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void emptyUploadIsRejectedBeforeSending() throws Exception {
+        mHttp.upload(url("/upload")).send();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingFileIsRejectedWhenAdded() {
+        mHttp.upload(url("/upload")).file("photo", new File(mTemp.getRoot(), "gone.jpg"), JPEG);
+    }
+
+    private File file(String name, int size) throws IOException {
+        File file = mTemp.newFile(name);
+        byte[] chunk = new byte[8192];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) (i * 31);
+        }
+        try (BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+            for (int written = 0; written < size; written += chunk.length) {
+                sink.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    private String url(String path) {
+        return mServer.url(path).toString();
+    }
+}
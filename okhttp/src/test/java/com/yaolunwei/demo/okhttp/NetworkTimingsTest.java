@@ -0,0 +1,89 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkTimingsTest {
+    private MockWebServer mServer;
+    private NetworkTimings mTimings;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mTimings = new NetworkTimings();
+        mHttp = new HTTP.Builder().timings(mTimings).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void recordsPhasesPerHost() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("slow")
+                .setHeadersDelay(100, TimeUnit.MILLISECONDS));
+        mServer.enqueue(new MockResponse().setBody("fast"));
+        String url = mServer.url("/").toString();
+
+        mHttp.get(url);
+        mHttp.get(url);
+
+        assertSame(mTimings, mHttp.timings());
+        Map<NetworkTimings.Phase, Histogram.Snapshot> phases =
+                mTimings.snapshot().get(mServer.getHostName());
+        assertNotNull(phases);
+        assertEquals(2, phases.get(NetworkTimings.Phase.TOTAL).count());
+        assertEquals(2, phases.get(NetworkTimings.Phase.TTFB).count());
+        assertEquals(2, phases.get(NetworkTimings.Phase.BODY_READ).count());
+        // The second call reuses the pooled connection.
+        assertEquals(1, phases.get(NetworkTimings.Phase.CONNECT).count());
+        assertFalse(phases.containsKey(NetworkTimings.Phase.TLS));
+        assertTrue(phases.get(NetworkTimings.Phase.TTFB).maxMicros() >= 100000);
+        assertTrue(mTimings.export().contains(mServer.getHostName() + " TTFB count=2"));
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.count());
+        assertEquals(1000000, snapshot.maxMicros());
+        assertWithin(500000, snapshot.percentileMicros(0.5));
+        assertWithin(990000, snapshot.percentileMicros(0.99));
+    }
+
+    @Test
+    public void histogramBucketsRoundTrip() {
+        for (long value = 0; value < 1000000; value = value * 3 / 2 + 1) {
+            int index = Histogram.indexOf(value);
+            assertTrue(value <= Histogram.upperBoundOf(index));
+            assertTrue(index == 0 || value > Histogram.upperBoundOf(index - 1));
+        }
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected ~" + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / 8);
+    }
+}
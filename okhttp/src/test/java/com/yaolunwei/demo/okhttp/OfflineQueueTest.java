@@ -0,0 +1,280 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OfflineQueueTest {
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private final AtomicBoolean mUp = new AtomicBoolean(true);
+    private MockWebServer mServer;
+    private HTTP mHttp;
+    private File mDirectory;
+    private OfflineQueue mQueue;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (!mUp.get()) {
+                    return new MockResponse().setResponseCode(503);
+                }
+                if (request.getPath().startsWith("/bad")) {
+                    return new MockResponse().setResponseCode(400);
+                }
+                return new MockResponse().setBody("ok");
+            }
+        });
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+        mDirectory = mTemp.newFolder("queue");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mQueue != null) {
+            mQueue.close();
+        }
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void holdsPostsUntilServerIsReachableThenReplaysInOrder() throws Exception {
+        mUp.set(false);
+        mQueue = open();
+        for (int i = 0; i < 5; i++) {
+            mQueue.enqueue(url("/events"), "{\"n\":" + i + "}");
+        }
+        Thread.sleep(100);
+        assertEquals(5, mQueue.size());
+        int failedAttempts = mServer.getRequestCount();
+
+        mUp.set(true);
+        mQueue.replay();
+        assertTrue(mQueue.awaitEmpty(5, TimeUnit.SECONDS));
+
+        assertEquals(5, mQueue.deliveredCount());
+        for (int i = 0; i < failedAttempts; i++) {
+            mServer.takeRequest();
+        }
+        for (int i = 0; i < 5; i++) {
+            RecordedRequest request = mServer.takeRequest();
+            assertEquals("POST", request.getMethod());
+            assertEquals("{\"n\":" + i + "}", request.getBody().readUtf8());
+            assertTrue(request.getHeader("Content-Type").startsWith("application/json"));
+        }
+    }
+
+    @Test
+    public void acknowledgedPostsAreNotReplayedAfterRestart() throws Exception {
+        mQueue = open();
+        mQueue.enqueue(url("/events"), "{}");
+        mQueue.enqueue(url("/events"), "{}");
+        assertTrue(mQueue.awaitEmpty(5, TimeUnit.SECONDS));
+        mQueue.close();
+
+        mQueue = open();
+        assertEquals(0, mQueue.size());
+        mQueue.replay();
+        Thread.sleep(100);
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void pendingPostsSurviveRestartWithTheSameIdempotencyKey() throws Exception {
+        mUp.set(false);
+        mQueue = open().retryDelay(1, 1, TimeUnit.HOURS);
+        mQueue.enqueue(url("/events"), "{\"n\":0}");
+        RecordedRequest first = mServer.takeRequest();
+        mQueue.close();
+
+        mUp.set(true);
+        mQueue = open();
+        assertEquals(1, mQueue.size());
+        mQueue.replay();
+        assertTrue(mQueue.awaitEmpty(5, TimeUnit.SECONDS));
+
+        RecordedRequest replayed = mServer.takeRequest();
+        assertEquals("{\"n\":0}", replayed.getBody().readUtf8());
+        assertEquals(first.getHeader("Idempotency-Key"), replayed.getHeader("Idempotency-Key"));
+    }
+
+    @Test
+    public void truncatedJournalRecoversWholeRecords() throws Exception {
+        mUp.set(false);
+        mQueue = open().retryDelay(1, 1, TimeUnit.HOURS);
+        mQueue.enqueue(url("/events"), "{\"n\":0}");
+        mQueue.enqueue(url("/events"), "{\"n\":1}");
+        mQueue.enqueue(url("/events"), "{\"n\":2}");
+        // The one attempt made before the outage backoff.
+        mServer.takeRequest();
+        mQueue.close();
+
+        // A crash in the middle of writing the last record.
+        File journal = OfflineQueue.journalFile(mDirectory);
+        long length = journal.length();
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.setLength(length - 5);
+        }
+
+        mUp.set(true);
+        mQueue = open();
+        assertEquals(2, mQueue.size());
+        assertTrue(journal.length() < length - 5);
+
+        mQueue.enqueue(url("/events"), "{\"n\":3}");
+        assertTrue(mQueue.awaitEmpty(5, TimeUnit.SECONDS));
+        assertEquals(3, mQueue.deliveredCount());
+        assertEquals("{\"n\":0}", mServer.takeRequest().getBody().readUtf8());
+        assertEquals("{\"n\":1}", mServer.takeRequest().getBody().readUtf8());
+        assertEquals("{\"n\":3}", mServer.takeRequest().getBody().readUtf8());
+    }
+
+    @Test
+    public void corruptRecordEndsRecovery() throws Exception {
+        mUp.set(false);
+        mQueue = open().retryDelay(1, 1, TimeUnit.HOURS);
+        mQueue.enqueue(url("/events"), "{\"n\":0}");
+        mQueue.enqueue(url("/events"), "{\"n\":1}");
+        mQueue.close();
+
+        File journal = OfflineQueue.journalFile(mDirectory);
+        try (RandomAccessFile raf = new RandomAccessFile(journal, "rw")) {
+            raf.seek(journal.length() - 6);
+            raf.write('x');
+        }
+
+        mQueue = open();
+        assertEquals(1, mQueue.size());
+    }
+
+    @Test
+    public void rejectedPostsAreDropped() throws Exception {
+        mQueue = open();
+        mQueue.enqueue(url("/bad"), "{}");
+        mQueue.enqueue(url("/events"), "{}");
+        assertTrue(mQueue.awaitEmpty(5, TimeUnit.SECONDS));
+        assertEquals(1, mQueue.rejectedCount());
+        assertEquals(1, mQueue.deliveredCount());
+    }
+
+    @Test
+    public void journalIsCompactedOnceAcknowledged() throws Exception {
+        mQueue = open().batchSize(50);
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 1024) {
+            body.append("0123456789");
+        }
+        for (int i = 0; i < 70; i++) {
+            mQueue.enqueue(url("/events"), body.toString());
+        }
+        assertTrue(mQueue.awaitEmpty(10, TimeUnit.SECONDS));
+        assertTrue(OfflineQueue.journalFile(mDirectory).length() < 64 * 1024);
+    }
+
+    @Test
+    public void idempotencyKeysAreNotReusedAfterCompaction() throws Exception {
+        mUp.set(false);
+        mQueue = open().batchSize(100).retryDelay(1, 1, TimeUnit.HOURS);
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 1024) {
+            body.append("0123456789");
+        }
+        for (int i = 0; i < 70; i++) {
+            mQueue.enqueue(url("/events"), body.toString());
+        }
+        int failedAttempts = mServer.getRequestCount();
+        mUp.set(true);
+        mQueue.replay();
+        assertTrue(mQueue.awaitEmpty(10, TimeUnit.SECONDS));
+        assertTrue(OfflineQueue.journalFile(mDirectory).length() < 1024);
+        mQueue.close();
+
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < failedAttempts + 70; i++) {
+            keys.add(mServer.takeRequest().getHeader("Idempotency-Key"));
+        }
+        mQueue = open();
+        assertEquals(70, mQueue.enqueue(url("/events"), "{}"));
+        assertTrue(mQueue.awaitEmpty(5, TimeUnit.SECONDS));
+        assertFalse(keys.contains(mServer.takeRequest().getHeader("Idempotency-Key")));
+    }
+
+    @Test
+    public void bodiesAreReadBackFromTheJournalWhileItIsCompacted() throws Exception {
+        mQueue = open().batchSize(10);
+        StringBuilder padding = new StringBuilder();
+        while (padding.length() < 1024) {
+            padding.append("0123456789");
+        }
+        // Replay, and so compaction, runs while these are still being appended.
+        for (int i = 0; i < 120; i++) {
+            mQueue.enqueue(url("/events"), "{\"n\":" + i + ",\"p\":\"" + padding + "\"}");
+        }
+        assertTrue(mQueue.awaitEmpty(10, TimeUnit.SECONDS));
+        assertTrue(OfflineQueue.journalFile(mDirectory).length() < 64 * 1024);
+
+        for (int i = 0; i < 120; i++) {
+            String body = mServer.takeRequest().getBody().readUtf8();
+            assertEquals("{\"n\":" + i + ",\"p\":\"" + padding + "\"}", body);
+        }
+        mQueue.close();
+        mQueue = open();
+        assertEquals(0, mQueue.size());
+    }
+
+    @Test
+    public void failedCompactionLeavesTheJournalWritable() throws Exception {
+        mQueue = open().batchSize(100);
+        // A non-empty directory in the journal's place makes the rename fail; the queue keeps
+        // its handle on the unlinked journal.
+        File journal = OfflineQueue.journalFile(mDirectory);
+        assertTrue(journal.delete());
+        assertTrue(new File(journal, "blocker").mkdirs());
+
+        StringBuilder body = new StringBuilder();
+        while (body.length() < 1024) {
+            body.append("0123456789");
+        }
+        for (int i = 0; i < 70; i++) {
+            mQueue.enqueue(url("/events"), body.toString());
+        }
+        assertTrue(mQueue.awaitEmpty(10, TimeUnit.SECONDS));
+        assertFalse(new File(journal.getPath() + ".tmp").exists());
+
+        mQueue.enqueue(url("/events"), "{}");
+        assertTrue(mQueue.awaitEmpty(5, TimeUnit.SECONDS));
+        assertEquals(71, mQueue.deliveredCount());
+    }
+
+    private OfflineQueue open() throws Exception {
+        return OfflineQueue.open(mHttp, mDirectory).retryDelay(10, 50, TimeUnit.MILLISECONDS);
+    }
+
+    private String url(String path) {
+        return mServer.url(path).toString();
+    }
+}
@@ -0,0 +1,201 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSource;
+
+import static com.yaolunwei.demo.okhttp.PriorityScheduler.Priority.BACKGROUND;
+import static com.yaolunwei.demo.okhttp.PriorityScheduler.Priority.INTERACTIVE;
+import static com.yaolunwei.demo.okhttp.PriorityScheduler.Priority.NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrioritySchedulerTest {
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @After
+    public void tearDown() throws Exception {
+        if (mHttp != null) {
+            mHttp.shutdown();
+        }
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    @Test
+    public void freeSlotsGoToTheHighestLaneWaiting() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler().maxInFlight(1);
+        scheduler.acquire(null, NORMAL);
+
+        BlockingQueue<PriorityScheduler.Priority> started = new LinkedBlockingQueue<>();
+        waiter(scheduler, BACKGROUND, started);
+        Thread.sleep(20);
+        waiter(scheduler, NORMAL, started);
+        Thread.sleep(20);
+        waiter(scheduler, INTERACTIVE, started);
+        awaitQueued(scheduler, INTERACTIVE, 1);
+
+        scheduler.release(NORMAL);
+        assertEquals(INTERACTIVE, started.poll(5, TimeUnit.SECONDS));
+        scheduler.release(INTERACTIVE);
+        assertEquals(NORMAL, started.poll(5, TimeUnit.SECONDS));
+        scheduler.release(NORMAL);
+        assertEquals(BACKGROUND, started.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, scheduler.preemptedCount());
+    }
+
+    @Test
+    public void backgroundIsThrottledWhileInteractiveCallsRun() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler().background(3, 1);
+        BlockingQueue<PriorityScheduler.Priority> started = new LinkedBlockingQueue<>();
+        for (int i = 0; i < 5; i++) {
+            waiter(scheduler, BACKGROUND, started);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BACKGROUND, started.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals(3, scheduler.inFlight(BACKGROUND));
+
+        scheduler.acquire(null, INTERACTIVE);
+        scheduler.release(BACKGROUND);
+        scheduler.release(BACKGROUND);
+        scheduler.release(BACKGROUND);
+        assertEquals(BACKGROUND, started.poll(5, TimeUnit.SECONDS));
+        assertEquals(null, started.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, scheduler.inFlight(BACKGROUND));
+
+        scheduler.release(INTERACTIVE);
+        assertEquals(BACKGROUND, started.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, scheduler.inFlight(BACKGROUND));
+    }
+
+    @Test
+    public void queuedCallsFailAfterTheQueueTimeout() throws Exception {
+        PriorityScheduler scheduler = new PriorityScheduler().maxInFlight(1)
+                .queueTimeout(50, TimeUnit.MILLISECONDS);
+        scheduler.acquire(null, INTERACTIVE);
+        try {
+            scheduler.acquire(null, BACKGROUND);
+            fail();
+        } catch (InterruptedIOException expected) {
+        }
+        assertEquals(1, scheduler.rejectionCount());
+        assertEquals(0, scheduler.queued(BACKGROUND));
+    }
+
+    @Test
+    public void enginesTagTheirCallsWithTheirLane() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        PriorityScheduler scheduler = new PriorityScheduler();
+        mHttp = new HTTP.Builder().scheduler(scheduler).build();
+        HTTP background = mHttp.priority(BACKGROUND);
+
+        mServer.enqueue(new MockResponse().setBody("a"));
+        mServer.enqueue(new MockResponse().setBody("b"));
+        assertEquals("a", mHttp.get(mServer.url("/a").toString()));
+        assertEquals("b", background.get(mServer.url("/b").toString()));
+        assertEquals(1, scheduler.queueWait(NORMAL).count());
+        assertEquals(1, scheduler.queueWait(BACKGROUND).count());
+        assertEquals(0, scheduler.queueWait(INTERACTIVE).count());
+        assertEquals(scheduler, background.scheduler());
+    }
+
+    @Test
+    public void slotIsHeldUntilTheBodyIsRead() throws Exception {
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("/large".equals(request.getPath())) {
+                    // About 400ms to send.
+                    return new MockResponse().setBody(new Buffer().write(new byte[256 * 1024]))
+                            .throttleBody(32 * 1024, 50, TimeUnit.MILLISECONDS);
+                }
+                return new MockResponse().setBody("b").setHeadersDelay(20, TimeUnit.MILLISECONDS);
+            }
+        });
+        mServer.start();
+        final PriorityScheduler scheduler = new PriorityScheduler().background(4, 1);
+        mHttp = new HTTP.Builder().scheduler(scheduler).build();
+        HTTP interactive = mHttp.priority(INTERACTIVE);
+        HTTP background = mHttp.priority(BACKGROUND);
+
+        final CountDownLatch flood = new CountDownLatch(20);
+        int maxBackground = 0;
+        try (ResponseStream stream = interactive.stream(mServer.url("/large").toString())) {
+            assertEquals(1, scheduler.inFlight(INTERACTIVE));
+            Request request = new Request.Builder().url(mServer.url("/flood")).build();
+            for (int i = 0; i < 20; i++) {
+                background.client().newCall(request).enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        flood.countDown();
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) {
+                        response.close();
+                        flood.countDown();
+                    }
+                });
+            }
+            BufferedSource source = stream.source();
+            while (source.request(1)) {
+                maxBackground = Math.max(maxBackground, scheduler.inFlight(BACKGROUND));
+                source.skip(source.buffer().size());
+            }
+            assertEquals(0, scheduler.inFlight(INTERACTIVE));
+        }
+        assertTrue(flood.await(10, TimeUnit.SECONDS));
+        assertEquals(1, maxBackground);
+        assertEquals(0, scheduler.inFlight(BACKGROUND));
+    }
+
+    private static void waiter(final PriorityScheduler scheduler,
+                               final PriorityScheduler.Priority priority,
+                               final BlockingQueue<PriorityScheduler.Priority> started) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.acquire(null, priority);
+                    started.add(priority);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void awaitQueued(PriorityScheduler scheduler,
+                                    PriorityScheduler.Priority priority, int count)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (scheduler.queued(priority) < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+}
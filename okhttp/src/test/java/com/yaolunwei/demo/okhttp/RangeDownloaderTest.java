@@ -0,0 +1,277 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import okio.ByteString;
+import okio.Okio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RangeDownloaderTest {
+    private static final int LENGTH = 1024 * 1024 + 17;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final byte[] mContent = new byte[LENGTH];
+    private final List<String> mRanges = Collections.synchronizedList(new ArrayList<String>());
+    private final List<String> mEncodings = Collections.synchronizedList(new ArrayList<String>());
+    private final AtomicInteger mFailuresLeft = new AtomicInteger();
+    private boolean mAcceptRanges = true;
+    private int mContentRangeShift;
+    private int mOverrun;
+    private boolean mThrottle;
+    private String mETag = "\"v1\"";
+    private String mLastModified;
+    private final List<String> mIfRanges = Collections.synchronizedList(new ArrayList<String>());
+
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(42).nextBytes(mContent);
+        mServer = new MockWebServer();
+        mServer.setDispatcher(new RangeDispatcher());
+        mServer.start();
+        mHttp = new HTTP.Builder().maxRequestsPerHost(8).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void download_fetchesRangesInParallel() throws Exception {
+        File file = mFolder.newFile();
+
+        long length = new RangeDownloader(mHttp).download(url(), file, 4);
+
+        assertEquals(LENGTH, length);
+        assertArrayEquals(mContent, Okio.buffer(Okio.source(file)).readByteArray());
+        assertEquals(4, mRanges.size());
+        int size = LENGTH / 4;
+        assertTrue(mRanges.contains("bytes=0-" + (size - 1)));
+        assertTrue(mRanges.contains("bytes=" + 3 * size + "-" + (LENGTH - 1)));
+        assertFalse(RangeDownloader.journalFile(file).exists());
+    }
+
+    @Test
+    public void download_resumesFromJournal() throws Exception {
+        File file = mFolder.newFile();
+        RangeDownloader downloader = new RangeDownloader(mHttp);
+
+        mFailuresLeft.set(4);
+        try {
+            downloader.download(url(), file, 4);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertTrue(RangeDownloader.journalFile(file).exists());
+
+        mRanges.clear();
+        downloader.download(url(), file, 4);
+
+        assertArrayEquals(mContent, Okio.buffer(Okio.source(file)).readByteArray());
+        assertEquals(4, mRanges.size());
+        for (String range : mRanges) {
+            long from = Long.parseLong(range.substring("bytes=".length(), range.indexOf('-')));
+            assertTrue(range + " restarted its range", from % (LENGTH / 4) != 0);
+        }
+        assertFalse(RangeDownloader.journalFile(file).exists());
+    }
+
+    @Test
+    public void download_withoutRangeSupportFallsBackToSingleGet() throws Exception {
+        mAcceptRanges = false;
+        File file = mFolder.newFile();
+
+        new RangeDownloader(mHttp).download(url(), file, 4);
+
+        assertArrayEquals(mContent, Okio.buffer(Okio.source(file)).readByteArray());
+        assertEquals(0, mRanges.size());
+    }
+
+    @Test
+    public void download_asksForTheIdentityEncoding() throws Exception {
+        new RangeDownloader(mHttp).download(url(), mFolder.newFile(), 4);
+
+        assertEquals(5, mEncodings.size());
+        for (String encoding : mEncodings) {
+            assertEquals("identity", encoding);
+        }
+    }
+
+    @Test
+    public void download_rejectsAMismatchedContentRange() throws Exception {
+        mContentRangeShift = 1;
+        try {
+            new RangeDownloader(mHttp).download(url(), mFolder.newFile(), 4);
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("but got"));
+        }
+    }
+
+    @Test
+    public void download_stopsReadingAtTheEndOfEachRange() throws Exception {
+        mOverrun = 1000;
+        File file = mFolder.newFile();
+
+        new RangeDownloader(mHttp).download(url(), file, 4);
+
+        assertEquals(LENGTH, file.length());
+        assertArrayEquals(mContent, Okio.buffer(Okio.source(file)).readByteArray());
+    }
+
+    @Test
+    public void download_interruptCancelsTheRanges() throws Exception {
+        mThrottle = true;
+        final File file = mFolder.newFile();
+        final AtomicReference<IOException> error = new AtomicReference<>();
+        Thread downloader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new RangeDownloader(mHttp).download(url(), file, 4);
+                } catch (IOException e) {
+                    error.set(e);
+                }
+            }
+        });
+        downloader.start();
+        while (mRanges.size() < 4) {
+            Thread.sleep(10);
+        }
+
+        downloader.interrupt();
+        downloader.join(5000);
+        assertFalse(downloader.isAlive());
+        assertTrue(error.get() instanceof InterruptedIOException);
+        // The ranges finished before download() returned and closed the file.
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (mHttp.client().dispatcher().runningCallsCount() > 0
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, mHttp.client().dispatcher().runningCallsCount());
+        assertTrue(RangeDownloader.journalFile(file).exists());
+    }
+
+    @Test
+    public void download_usesLastModifiedWhenTheETagIsWeak() throws Exception {
+        mETag = "W/\"v1\"";
+        mLastModified = "Tue, 15 Nov 1994 12:45:26 GMT";
+        File file = mFolder.newFile();
+
+        new RangeDownloader(mHttp).download(url(), file, 4);
+
+        assertArrayEquals(mContent, Okio.buffer(Okio.source(file)).readByteArray());
+        assertEquals(4, mRanges.size());
+        assertEquals(Collections.nCopies(4, mLastModified), mIfRanges);
+    }
+
+    @Test
+    public void download_withOnlyAWeakETagFallsBackToSingleGet() throws Exception {
+        mETag = "W/\"v1\"";
+        File file = mFolder.newFile();
+
+        new RangeDownloader(mHttp).download(url(), file, 4);
+
+        assertArrayEquals(mContent, Okio.buffer(Okio.source(file)).readByteArray());
+        assertEquals(0, mRanges.size());
+    }
+
+    @Test
+    public void journal_survivesRoundTrip() throws Exception {
+        File file = new File(mFolder.getRoot(), "j");
+        RangeDownloader.Journal journal =
+                RangeDownloader.Journal.create(file, "http://a/b", 1000, "\"e\"", 3);
+        journal.advance(1, 500);
+        journal.save();
+
+        RangeDownloader.Journal read = RangeDownloader.Journal.read(file);
+        assertTrue(read.matches("http://a/b", 1000, "\"e\""));
+        assertEquals(500, read.position(1));
+        assertEquals(999, read.end[2]);
+    }
+
+    private String url() {
+        return mServer.url("/asset.bin").toString();
+    }
+
+    private final class RangeDispatcher extends Dispatcher {
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            mEncodings.add(request.getHeader("Accept-Encoding"));
+            MockResponse response = new MockResponse().setHeader("ETag", mETag);
+            if (mLastModified != null) {
+                response.setHeader("Last-Modified", mLastModified);
+            }
+            if (mAcceptRanges) {
+                response.setHeader("Accept-Ranges", "bytes");
+            }
+
+            if ("HEAD".equals(request.getMethod())) {
+                return response.setHeader("Content-Length", LENGTH);
+            }
+
+            String range = request.getHeader("Range");
+            String ifRange = request.getHeader("If-Range");
+            if (ifRange != null) {
+                mIfRanges.add(ifRange);
+            }
+            // RFC 7233: a weak validator in If-Range never matches.
+            boolean ifRangeFails = ifRange != null && ifRange.startsWith("W/");
+            if (range == null || !mAcceptRanges || ifRangeFails) {
+                return response.setBody(new Buffer().write(mContent));
+            }
+
+            mRanges.add(range);
+            String[] bounds = range.substring("bytes=".length()).split("-");
+            int from = Integer.parseInt(bounds[0]);
+            int to = Integer.parseInt(bounds[1]);
+            ByteString part = ByteString.of(mContent, from, to - from + 1);
+            int start = from + mContentRangeShift;
+            response.setResponseCode(206)
+                    .setHeader("Content-Range", "bytes " + start + "-" + to + "/" + LENGTH)
+                    .setBody(new Buffer().write(part).write(new byte[mOverrun]));
+            if (mThrottle) {
+                response.throttleBody(16 * 1024, 1, TimeUnit.SECONDS);
+            }
+
+            if (mFailuresLeft.getAndDecrement() > 0) {
+                // Cut the connection part way through the range.
+                response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+            }
+            return response;
+        }
+    }
+}
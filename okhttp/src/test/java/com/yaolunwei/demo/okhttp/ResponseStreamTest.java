@@ -0,0 +1,120 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResponseStreamTest {
+    private static final int LARGE_BODY = 32 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void readLine_iteratesBody() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("one\ntwo\r\nthree"));
+
+        try (ResponseStream stream = mHttp.stream(mServer.url("/").toString())) {
+            assertEquals("one", stream.readLine());
+            assertEquals("two", stream.readLine());
+            assertEquals("three", stream.readLine());
+            assertNull(stream.readLine());
+        }
+    }
+
+    @Test
+    public void stream_failsOnErrorCode() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(404));
+
+        try {
+            mHttp.stream(mServer.url("/").toString());
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void download_largeBodyInConstantMemory() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(largeBody()));
+        File file = mFolder.newFile();
+
+        long before = allocatedBytes();
+        long written = mHttp.download(mServer.url("/").toString(), file);
+        long allocated = allocatedBytes() - before;
+
+        assertEquals(LARGE_BODY, written);
+        assertEquals(LARGE_BODY, file.length());
+        // body().string() would allocate the body bytes plus a String at least as large.
+        assertTrue("allocated " + allocated + " bytes", allocated < LARGE_BODY / 8);
+    }
+
+    @Test
+    public void source_largeBodyInConstantMemory() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(largeBody()));
+
+        long before = allocatedBytes();
+        long read = 0;
+        try (ResponseStream stream = mHttp.stream(mServer.url("/").toString())) {
+            Buffer chunk = new Buffer();
+            long count;
+            while ((count = stream.source().read(chunk, 8192)) != -1) {
+                read += count;
+                chunk.clear();
+            }
+        }
+        long allocated = allocatedBytes() - before;
+
+        assertEquals(LARGE_BODY, read);
+        assertTrue("allocated " + allocated + " bytes", allocated < LARGE_BODY / 8);
+    }
+
+    private static Buffer largeBody() {
+        Buffer body = new Buffer();
+        byte[] block = new byte[8192];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) ('a' + i % 26);
+        }
+        for (int i = 0; i < LARGE_BODY / block.length; i++) {
+            body.write(block);
+        }
+        return body;
+    }
+
+    /** Heap bytes allocated so far by the calling thread, where the body is consumed. */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,245 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mHttp != null) {
+            mHttp.shutdown();
+        }
+        mServer.shutdown();
+    }
+
+    @Test
+    public void retriesServerErrorsWithBackoff() throws Exception {
+        RetryPolicy policy = build(new RetryPolicy().maxAttempts(3));
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(new MockResponse().setResponseCode(502));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+
+        assertEquals("ok", mHttp.get(url()));
+        assertEquals(3, mServer.getRequestCount());
+        assertEquals(2, policy.retryCount());
+    }
+
+    @Test
+    public void retriesConnectionFailures() throws Exception {
+        build(new RetryPolicy().maxAttempts(2));
+        mServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+
+        assertEquals("ok", mHttp.get(url()));
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        build(new RetryPolicy().maxAttempts(2));
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(503).setBody("down"));
+        }
+
+        assertEquals("down", mHttp.get(url()));
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void doesNotRetryPost() throws Exception {
+        build(new RetryPolicy().maxAttempts(3));
+        mServer.enqueue(new MockResponse().setResponseCode(503).setBody("down"));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+
+        assertEquals("down", mHttp.post(url(), "{}"));
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void budgetStopsRetryStorm() throws Exception {
+        RetryPolicy policy = build(new RetryPolicy().maxAttempts(3).budget(0, 1));
+        for (int i = 0; i < 20; i++) {
+            mServer.enqueue(new MockResponse().setResponseCode(503));
+        }
+
+        for (int i = 0; i < 5; i++) {
+            mHttp.get(url());
+        }
+
+        // Five requests plus the single retry the budget allows.
+        assertEquals(6, mServer.getRequestCount());
+        assertEquals(1, policy.retryCount());
+        assertTrue(policy.budgetRejectionCount() >= 4);
+    }
+
+    @Test
+    public void hedgeBeatsSlowReplica() throws Exception {
+        RetryPolicy policy = build(new RetryPolicy().hedge(100, TimeUnit.MILLISECONDS));
+        mServer.enqueue(new MockResponse().setBody("slow")
+                .setHeadersDelay(1500, TimeUnit.MILLISECONDS));
+        mServer.enqueue(new MockResponse().setBody("fast"));
+
+        long start = System.nanoTime();
+        String body = mHttp.get(url());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("fast", body);
+        assertTrue("took " + millis + "ms", millis < 1000);
+        assertEquals(1, policy.hedgeCount());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void hedgeDoesNotWaitForTheSlotItsOriginalHolds() throws Exception {
+        RetryPolicy policy = new RetryPolicy().hedge(100, TimeUnit.MILLISECONDS);
+        mHttp = new HTTP.Builder()
+                .scheduler(new PriorityScheduler().maxInFlight(1)
+                        .queueTimeout(5, TimeUnit.SECONDS))
+                .retry(policy)
+                .build();
+        mServer.enqueue(new MockResponse().setBody("slow")
+                .setHeadersDelay(1500, TimeUnit.MILLISECONDS));
+        mServer.enqueue(new MockResponse().setBody("fast"));
+
+        long start = System.nanoTime();
+        String body = mHttp.get(url());
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("fast", body);
+        assertTrue("took " + millis + "ms", millis < 1000);
+        assertEquals(1, policy.hedgeCount());
+    }
+
+    @Test
+    public void losingAttemptIsCancelled() throws Exception {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(10);
+        mHttp = new HTTP.Builder()
+                .retry(new RetryPolicy().hedge(100, TimeUnit.MILLISECONDS))
+                .limiter(limiter)
+                .build();
+        mServer.enqueue(new MockResponse().setBody("slow")
+                .setHeadersDelay(3, TimeUnit.SECONDS));
+        mServer.enqueue(new MockResponse().setBody("fast"));
+
+        assertEquals("fast", mHttp.get(url()));
+        // The first attempt gives its permit back now, not when its response would arrive.
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+        while (limiter.inFlight(mServer.getHostName()) > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, limiter.inFlight(mServer.getHostName()));
+    }
+
+    @Test
+    public void cancelStopsEveryAttempt() throws Exception {
+        mHttp = new HTTP.Builder()
+                .retry(new RetryPolicy().hedge(50, TimeUnit.MILLISECONDS))
+                .build();
+        mServer.enqueue(new MockResponse().setBody("slow")
+                .setHeadersDelay(5, TimeUnit.SECONDS));
+        mServer.enqueue(new MockResponse().setBody("slow")
+                .setHeadersDelay(5, TimeUnit.SECONDS));
+
+        final Call call = mHttp.client().newCall(new Request.Builder().url(url()).build());
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException ignored) {
+                }
+                call.cancel();
+            }
+        }).start();
+
+        long start = System.nanoTime();
+        try {
+            call.execute();
+            fail();
+        } catch (IOException expected) {
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("took " + millis + "ms", millis < 2000);
+    }
+
+    @Test
+    public void fastResponseIsNotHedged() throws Exception {
+        RetryPolicy policy = build(new RetryPolicy().hedge(500, TimeUnit.MILLISECONDS));
+        mServer.enqueue(new MockResponse().setBody("fast"));
+
+        assertEquals("fast", mHttp.get(url()));
+        assertEquals(0, policy.hedgeCount());
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void hedgeFailuresFallBackToRetry() throws Exception {
+        build(new RetryPolicy().maxAttempts(2).hedge(50, TimeUnit.MILLISECONDS));
+        mServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        mServer.enqueue(new MockResponse().setBody("ok"));
+
+        assertEquals("ok", mHttp.get(url()));
+    }
+
+    @Test
+    public void failingRequestStillThrows() throws Exception {
+        build(new RetryPolicy().maxAttempts(2));
+        mServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        mServer.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+
+        try {
+            mHttp.get(url());
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void backoffIsJitteredAndCapped() {
+        RetryPolicy policy = new RetryPolicy().backoff(100, 1000, TimeUnit.MILLISECONDS);
+        long first = 0;
+        long sum = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.backoffMillis(1);
+            assertTrue(delay >= 0 && delay < 100);
+            first = Math.max(first, delay);
+            long capped = policy.backoffMillis(20);
+            assertTrue(capped >= 0 && capped < 1000);
+            sum += capped;
+        }
+        assertTrue(first > 50);
+        assertTrue(sum / 1000 > 300 && sum / 1000 < 700);
+    }
+
+    private RetryPolicy build(RetryPolicy policy) {
+        policy.backoff(1, 10, TimeUnit.MILLISECONDS);
+        mHttp = new HTTP.Builder().retry(policy).build();
+        return policy;
+    }
+
+    private String url() {
+        return mServer.url("/").toString();
+    }
+}
@@ -0,0 +1,217 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    private MockWebServer mServer;
+    private HTTP mHttp;
+    private ExecutorService mCallers;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+        mCallers = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mCallers.shutdownNow();
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void concurrentGets_shareOneCall() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("shared")
+                .setBodyDelay(300, TimeUnit.MILLISECONDS));
+
+        List<Future<String>> results = startGets(8);
+        for (Future<String> result : results) {
+            assertEquals("shared", result.get(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(7, mHttp.coalescedCount());
+    }
+
+    @Test
+    public void laterGet_startsNewCall() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("first"));
+        mServer.enqueue(new MockResponse().setBody("second"));
+        String url = mServer.url("/").toString();
+
+        assertEquals("first", mHttp.get(url));
+        assertEquals("second", mHttp.get(url));
+        assertEquals(0, mHttp.coalescedCount());
+    }
+
+    @Test
+    public void failure_reachesEveryCallerAsItsOwnType() throws Exception {
+        mHttp.shutdown();
+        mHttp = new HTTP.Builder().readTimeout(500, TimeUnit.MILLISECONDS).build();
+        mServer.enqueue(new MockResponse().setBody("slow")
+                .setHeadersDelay(2, TimeUnit.SECONDS));
+
+        // The leader is held on the server until its read times out.
+        List<Future<String>> results = startGets(1);
+        mServer.takeRequest();
+        results.addAll(startGets(3));
+        awaitCoalesced(3);
+
+        for (Future<String> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException expected) {
+                assertTrue(String.valueOf(expected.getCause()),
+                        expected.getCause() instanceof SocketTimeoutException);
+            }
+        }
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(3, mHttp.coalescedCount());
+    }
+
+    @Test
+    public void getFromADispatcherThread_doesNotWaitForASlot() throws Exception {
+        mHttp.shutdown();
+        mHttp = new HTTP.Builder().maxRequestsPerHost(1).build();
+        mServer.enqueue(new MockResponse().setBody("outer"));
+        mServer.enqueue(new MockResponse().setBody("inner"));
+        final String url = mServer.url("/").toString();
+        final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+
+        mHttp.client().newCall(new Request.Builder().url(url + "outer").build())
+                .enqueue(new Callback() {
+                    @Override
+                    public void onFailure(Call call, IOException e) {
+                        results.add(e.toString());
+                    }
+
+                    @Override
+                    public void onResponse(Call call, Response response) throws IOException {
+                        response.close();
+                        results.add(mHttp.get(url + "inner"));
+                    }
+                });
+
+        assertEquals("inner", results.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void interruptedCaller_leavesOthersWaiting() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("shared")
+                .setBodyDelay(500, TimeUnit.MILLISECONDS));
+        final String url = mServer.url("/").toString();
+        final List<Throwable> interrupted = new ArrayList<>();
+
+        Future<String> leader = startGets(1).get(0);
+        mServer.takeRequest();
+        Thread quitter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mHttp.get(url);
+                } catch (IOException e) {
+                    interrupted.add(e);
+                }
+            }
+        };
+        quitter.start();
+        awaitCoalesced(1);
+        quitter.interrupt();
+        quitter.join();
+
+        assertEquals("shared", leader.get(5, TimeUnit.SECONDS));
+        assertEquals(1, interrupted.size());
+        assertTrue(interrupted.get(0) instanceof InterruptedIOException);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    @Test
+    public void interruptedLeader_handsTheLoadToWaiters() throws Exception {
+        Buffer body = new Buffer();
+        while (body.size() < 64 * 1024) {
+            body.writeUtf8("abandoned ");
+        }
+        mServer.enqueue(new MockResponse().setBody(body)
+                .throttleBody(1024, 20, TimeUnit.MILLISECONDS));
+        mServer.enqueue(new MockResponse().setBody("fresh"));
+        final String url = mServer.url("/").toString();
+        final List<Throwable> interrupted = new ArrayList<>();
+
+        Thread leader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mHttp.get(url);
+                } catch (IOException e) {
+                    interrupted.add(e);
+                }
+            }
+        };
+        leader.start();
+        mServer.takeRequest();
+        Future<String> waiter = startGets(1).get(0);
+        awaitCoalesced(1);
+        leader.interrupt();
+        leader.join();
+
+        assertEquals("fresh", waiter.get(5, TimeUnit.SECONDS));
+        assertEquals(1, interrupted.size());
+        assertTrue(interrupted.get(0) instanceof InterruptedIOException);
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    private void awaitCoalesced(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mHttp.coalescedCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        // Joined, and very likely parked on the latch by now.
+        Thread.sleep(50);
+    }
+
+    private List<Future<String>> startGets(int count) {
+        final String url = mServer.url("/").toString();
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            results.add(mCallers.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return mHttp.get(url);
+                }
+            }));
+        }
+        return results;
+    }
+}
@@ -0,0 +1,117 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSource;
+import okio.Okio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingBodyTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void postJson_sendsBody() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("created"));
+
+        assertEquals("created", mHttp.post(mServer.url("/").toString(), "{\"id\":1}"));
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("application/json; charset=utf-8", request.getHeader("Content-Type"));
+        assertEquals("{\"id\":1}", request.getBody().readUtf8());
+    }
+
+    @Test
+    public void postFile_streamsWithContentLength() throws Exception {
+        mServer.enqueue(new MockResponse());
+        File file = jsonFile(1000);
+
+        StreamingBody body = StreamingBody.create(HTTP.JSON, file);
+        mHttp.post(mServer.url("/").toString(), body);
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals(String.valueOf(file.length()), request.getHeader("Content-Length"));
+        assertNull(request.getHeader("Content-Encoding"));
+        assertEquals(file.length(), request.getBodySize());
+        assertEquals(file.length(), body.contentBytes());
+        assertEquals(file.length(), body.wireBytes());
+    }
+
+    @Test
+    public void postFile_gzipIsDecodedByServer() throws Exception {
+        mServer.enqueue(new MockResponse());
+        File file = jsonFile(5000);
+
+        StreamingBody body = StreamingBody.create(HTTP.JSON, file).gzip();
+        mHttp.post(mServer.url("/").toString(), body);
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        assertEquals(body.wireBytes(), request.getBodySize());
+        assertEquals(file.length(), body.contentBytes());
+        assertTrue(body.wireBytes() < body.contentBytes() / 4);
+
+        Buffer decoded = new Buffer();
+        decoded.writeAll(new GzipSource(request.getBody()));
+        assertEquals(Okio.buffer(Okio.source(file)).readUtf8(), decoded.readUtf8());
+    }
+
+    @Test
+    public void postSource_gzip() throws Exception {
+        mServer.enqueue(new MockResponse());
+        Buffer source = new Buffer().writeUtf8("[1,2,3]");
+
+        StreamingBody body = StreamingBody.create(HTTP.JSON, source).gzip();
+        mHttp.post(mServer.url("/").toString(), body);
+
+        RecordedRequest request = mServer.takeRequest();
+        Buffer decoded = new Buffer();
+        decoded.writeAll(new GzipSource(request.getBody()));
+        assertEquals("[1,2,3]", decoded.readUtf8());
+        assertEquals(7, body.contentBytes());
+    }
+
+    private File jsonFile(int users) throws Exception {
+        File file = mFolder.newFile();
+        try (BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+            sink.writeUtf8("[");
+            for (int i = 0; i < users; i++) {
+                if (i > 0) sink.writeUtf8(",");
+                sink.writeUtf8("{\"id\":" + i + ",\"name\":\"user" + i + "\"}");
+            }
+            sink.writeUtf8("]");
+        }
+        return file;
+    }
+}
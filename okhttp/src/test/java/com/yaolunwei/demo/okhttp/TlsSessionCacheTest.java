@@ -0,0 +1,194 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLException;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TlsSessionCacheTest {
+    private static final HeldCertificate LOCALHOST = new HeldCertificate.Builder()
+            .addSubjectAlternativeName(localhost())
+            .build();
+
+    @Rule
+    public TemporaryFolder mTemp = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private TlsSessionCache mTls;
+    private HTTP mHttp;
+
+    @Before
+    public void setUp() throws Exception {
+        HandshakeCertificates server = new HandshakeCertificates.Builder()
+                .heldCertificate(LOCALHOST)
+                .build();
+        mServer = new MockWebServer();
+        mServer.useHttps(server.sslSocketFactory(), false);
+        mServer.start();
+
+        HandshakeCertificates client = new HandshakeCertificates.Builder()
+                .addTrustedCertificate(LOCALHOST.certificate())
+                .build();
+        mTls = new TlsSessionCache(client.trustManager());
+        mHttp = new HTTP.Builder().tls(mTls).build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void newConnectionsResumeTheSession() throws Exception {
+        mServer.enqueue(new MockResponse().setBody("a"));
+        mServer.enqueue(new MockResponse().setBody("b"));
+        assertEquals("a", mHttp.get(url("/a")));
+        mHttp.connectionPool().evictAll();
+        assertEquals("b", mHttp.get(url("/b")));
+
+        assertEquals(1, mTls.fullHandshakeCount());
+        assertEquals(1, mTls.resumedHandshakeCount());
+        assertEquals(0, mServer.takeRequest().getSequenceNumber());
+        assertEquals(0, mServer.takeRequest().getSequenceNumber());
+        assertTrue(mTls.savedMicros() > 0);
+        assertTrue(mTls.resumedHandshakes().meanMicros() < mTls.fullHandshakes().meanMicros());
+    }
+
+    @Test
+    public void enginesSharingTheCacheShareSessions() throws Exception {
+        HTTP other = new HTTP.Builder().tls(mTls).build();
+        try {
+            mServer.enqueue(new MockResponse().setBody("a"));
+            mServer.enqueue(new MockResponse().setBody("b"));
+            assertEquals("a", mHttp.get(url("/a")));
+            assertEquals("b", other.get(url("/b")));
+            assertEquals(1, mTls.fullHandshakeCount());
+            assertEquals(1, mTls.resumedHandshakeCount());
+            assertEquals(mTls, other.tls());
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    @Test
+    public void pooledRequestsDoNotHandshake() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse().setBody("x"));
+            mHttp.get(url("/" + i));
+        }
+        assertEquals(1, mTls.fullHandshakeCount() + mTls.resumedHandshakeCount());
+    }
+
+    @Test
+    public void prewarmParksConnectionsForLaterRequests() throws Exception {
+        // HTTP/2 would share one connection between both prewarm calls.
+        mServer.setProtocols(Collections.singletonList(Protocol.HTTP_1_1));
+        for (int i = 0; i < 2; i++) {
+            mServer.enqueue(new MockResponse());
+        }
+        mHttp.prewarm(url("/"), 2);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mHttp.connectionPool().idleConnectionCount() < 2
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, mTls.prewarmedCount());
+        assertEquals(2, mHttp.connectionPool().idleConnectionCount());
+        assertEquals("HEAD", mServer.takeRequest().getMethod());
+        assertEquals("HEAD", mServer.takeRequest().getMethod());
+        assertEquals(0, mTls.savedMicros());
+
+        mServer.enqueue(new MockResponse().setBody("warm"));
+        assertEquals("warm", mHttp.get(url("/warm")));
+        long handshakes = mTls.fullHandshakeCount() + mTls.resumedHandshakeCount();
+        assertEquals(2, handshakes);
+        assertEquals(1, mServer.takeRequest().getSequenceNumber());
+        assertTrue(mTls.savedMicros() > 0);
+    }
+
+    @Test
+    public void prewarmOpensOneConnectionToAnHttp2Host() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mServer.enqueue(new MockResponse());
+        }
+        mHttp.prewarm(url("/"), 3);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mServer.getRequestCount() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(1, mTls.prewarmedCount());
+        assertEquals(1, mHttp.connectionPool().connectionCount());
+    }
+
+    @Test
+    public void failedHandshakeLeavesNoPendingSocket() throws Exception {
+        // Trusts the system's authorities, not the test server's certificate.
+        TlsSessionCache untrusting = new TlsSessionCache();
+        HTTP http = new HTTP.Builder().tls(untrusting).build();
+        try {
+            http.client().newCall(new Request.Builder().url(url("/")).build()).execute();
+            fail();
+        } catch (SSLException expected) {
+        } finally {
+            http.shutdown();
+        }
+        assertNull(untrusting.pendingSocket());
+        assertEquals(0, untrusting.fullHandshakeCount());
+    }
+
+    @Test
+    public void prewarmBypassesTheApplicationInterceptors() throws Exception {
+        HTTP http = new HTTP.Builder()
+                .tls(mTls)
+                .cache(mTemp.newFolder("cache"), 1024 * 1024)
+                .build();
+        try {
+            mServer.enqueue(new MockResponse());
+            http.prewarm(url("/"), 1);
+            assertEquals("HEAD", mServer.takeRequest(5, TimeUnit.SECONDS).getMethod());
+            // Idle once the call has passed back out through every interceptor.
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (http.connectionPool().idleConnectionCount() < 1
+                    && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, mTls.prewarmedCount());
+            assertEquals(0, http.cacheStats().missCount());
+        } finally {
+            http.shutdown();
+        }
+    }
+
+    private String url(String path) {
+        return mServer.url(path).toString();
+    }
+
+    private static String localhost() {
+        try {
+            return InetAddress.getByName("localhost").getCanonicalHostName();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
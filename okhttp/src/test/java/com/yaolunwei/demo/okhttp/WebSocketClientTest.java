@@ -0,0 +1,275 @@
+package com.yaolunwei.demo.okhttp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WebSocketClientTest {
+    private MockWebServer mServer;
+    private HTTP mHttp;
+    private WebSocketClient mClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mHttp = new HTTP.Builder().build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mClient != null) {
+            mClient.close();
+        }
+        mHttp.shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void batchesMessagesSentWithinTheWindow() throws Exception {
+        Recorder server = new Recorder();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(server));
+        mClient = newClient().batchWindow(50, TimeUnit.MILLISECONDS);
+        mClient.connect();
+        server.awaitOpen();
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(mClient.send("{\"n\":" + i + "}"));
+        }
+
+        String frame = server.frames.poll(5, TimeUnit.SECONDS);
+        String[] messages = frame.split("\n");
+        assertEquals(10, messages.length);
+        assertEquals("{\"n\":9}", messages[9]);
+        assertNull(server.frames.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, mClient.framesSent());
+        assertEquals(10, mClient.messagesSent());
+    }
+
+    @Test
+    public void messagesSentBeforeConnectingGoOutOnOpen() throws Exception {
+        Recorder server = new Recorder();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(server));
+        mClient = newClient().batchWindow(10, TimeUnit.MILLISECONDS);
+        mClient.send("a");
+        mClient.send("b");
+        mClient.connect();
+
+        assertEquals("a\nb", server.frames.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void holdsOnlyOutboundCapacityWhileDisconnected() throws Exception {
+        Recorder server = new Recorder();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(server));
+        mClient = newClient().outbound(2);
+        assertTrue(mClient.send("a"));
+        assertTrue(mClient.send("b"));
+        assertFalse(mClient.send("c"));
+        mClient.connect();
+
+        assertEquals("a", server.frames.poll(5, TimeUnit.SECONDS));
+        assertEquals("b", server.frames.poll(5, TimeUnit.SECONDS));
+        assertNull(server.frames.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void unbatchedMessagesKeepTheirNewlines() throws Exception {
+        final BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(new ServerListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.send("one\ntwo");
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                frames.add(text);
+            }
+        }));
+        mClient = newClient();
+        mClient.connect();
+        mClient.send("three\nfour");
+
+        assertEquals("one\ntwo", mClient.poll(5, TimeUnit.SECONDS));
+        assertEquals("three\nfour", frames.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBatchedMessagesWithNewlines() {
+        newClient().batchWindow(10, TimeUnit.MILLISECONDS).send("a\nb");
+    }
+
+    @Test
+    public void closeWakesWaitingReaders() throws Exception {
+        mClient = newClient();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                }
+                mClient.close();
+            }
+        }).start();
+
+        assertNull(mClient.take());
+        assertNull(mClient.poll(1, TimeUnit.HOURS));
+    }
+
+    @Test
+    public void splitsInboundFramesIntoMessages() throws Exception {
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(new ServerListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.send("one\ntwo");
+                webSocket.send("three");
+            }
+        }));
+        mClient = newClient().batchWindow(10, TimeUnit.MILLISECONDS);
+        mClient.connect();
+
+        assertEquals("one", mClient.poll(5, TimeUnit.SECONDS));
+        assertEquals("two", mClient.poll(5, TimeUnit.SECONDS));
+        assertEquals("three", mClient.take());
+        assertEquals(3, mClient.messagesReceived());
+    }
+
+    @Test
+    public void fullInboundQueueDropsOldest() throws Exception {
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(sender(10)));
+        mClient = newClient().inbound(3, WebSocketClient.Overflow.DROP_OLDEST);
+        mClient.connect();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mClient.messagesReceived() < 10 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(7, mClient.droppedCount());
+        assertEquals("7", mClient.poll(1, TimeUnit.SECONDS));
+        assertEquals("8", mClient.poll(1, TimeUnit.SECONDS));
+        assertEquals("9", mClient.poll(1, TimeUnit.SECONDS));
+        assertNull(mClient.poll(50, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void fullInboundQueueAppliesBackpressure() throws Exception {
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(sender(10)));
+        mClient = newClient().inbound(3, WebSocketClient.Overflow.BACKPRESSURE);
+        mClient.connect();
+
+        Thread.sleep(200);
+        assertEquals(3, mClient.messagesReceived());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(String.valueOf(i), mClient.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, mClient.droppedCount());
+    }
+
+    @Test
+    public void reconnectsAfterTheServerCloses() throws Exception {
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(new ServerListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.close(1001, "going away");
+            }
+        }));
+        Recorder second = new Recorder();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(second));
+        mClient = newClient();
+        mClient.connect();
+
+        second.awaitOpen();
+        assertEquals(1, mClient.reconnectCount());
+        assertTrue(mClient.send("hello again"));
+        assertEquals("hello again", second.frames.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void reconnectsAfterFailedHandshake() throws Exception {
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        mServer.enqueue(new MockResponse().setResponseCode(503));
+        Recorder third = new Recorder();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(third));
+        mClient = newClient();
+        mClient.connect();
+
+        third.awaitOpen();
+        assertEquals(2, mClient.reconnectCount());
+    }
+
+    @Test
+    public void closeFlushesAndStopsSending() throws Exception {
+        Recorder server = new Recorder();
+        mServer.enqueue(new MockResponse().withWebSocketUpgrade(server));
+        mClient = newClient().batchWindow(1, TimeUnit.HOURS);
+        mClient.connect();
+        server.awaitOpen();
+
+        mClient.send("last");
+        mClient.close();
+        assertEquals("last", server.frames.poll(5, TimeUnit.SECONDS));
+        assertFalse(mClient.send("too late"));
+    }
+
+    private WebSocketClient newClient() {
+        return new WebSocketClient(mHttp, mServer.url("/socket").toString())
+                .reconnectDelay(10, 50, TimeUnit.MILLISECONDS);
+    }
+
+    /** Answers the client's close so the server thread can finish. */
+    private static class ServerListener extends WebSocketListener {
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(1000, null);
+        }
+    }
+
+    /** A server that sends {@code 0}..{@code count - 1} as separate frames on open. */
+    private static WebSocketListener sender(final int count) {
+        return new ServerListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                for (int i = 0; i < count; i++) {
+                    webSocket.send(String.valueOf(i));
+                }
+            }
+        };
+    }
+
+    private static final class Recorder extends ServerListener {
+        final BlockingQueue<String> frames = new LinkedBlockingQueue<>();
+        final CountDownLatch open = new CountDownLatch(1);
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            open.countDown();
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            frames.add(text);
+        }
+
+        void awaitOpen() throws InterruptedException {
+            assertTrue(open.await(5, TimeUnit.SECONDS));
+        }
+    }
+}
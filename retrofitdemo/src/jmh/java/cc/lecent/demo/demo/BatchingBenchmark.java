@@ -0,0 +1,103 @@
+package cc.lecent.demo.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+
+/**
+ * Lookups per second for a burst of {@link #LOOKUPS} {@link DemoService#user} calls against a
+ * {@link DemoServer} answering in 5ms, each call a request of its own versus collected by
+ * {@link BatchingCallAdapterFactory}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchingBenchmark {
+    static final int LOOKUPS = 200;
+
+    private DemoServer mServer;
+    private OkHttpClient mClient;
+    private DemoService mUnbatched;
+    private DemoService mBatched;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new DemoServer().users(LOOKUPS).latency(5, TimeUnit.MILLISECONDS);
+        mServer.start();
+        mClient = new OkHttpClient();
+        mUnbatched = new Retrofit.Builder()
+                .baseUrl(mServer.url("/"))
+                .client(mClient)
+                .addConverterFactory(UserConverterFactory.create())
+                .build()
+                .create(DemoService.class);
+        mBatched = DemoServices.create(mServer.url("/"), mClient);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mClient.dispatcher().executorService().shutdown();
+        mServer.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void unbatched() throws Exception {
+        lookups(mUnbatched);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void batched() throws Exception {
+        lookups(mBatched);
+    }
+
+    private static void lookups(DemoService service) throws Exception {
+        final CountDownLatch done = new CountDownLatch(LOOKUPS);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < LOOKUPS; i++) {
+            service.user(i).enqueue(new Callback<User>() {
+                @Override
+                public void onResponse(Call<User> call, Response<User> response) {
+                    if (!response.isSuccessful()) {
+                        failures.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Call<User> call, Throwable t) {
+                    failures.incrementAndGet();
+                    done.countDown();
+                }
+            });
+        }
+        if (!done.await(60, TimeUnit.SECONDS) || failures.get() > 0) {
+            throw new IOException(failures.get() + " of " + LOOKUPS + " lookups failed");
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package cc.lecent.demo.demo;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks from the unit test task, which already has the generated classes
+ * on its classpath. Skipped unless a pattern is given:
+ *
+ * <pre>
+ * ./gradlew :retrofitdemo:testDebugUnitTest --tests '*BenchmarkRunner' \
+ *     -Pjmh=UserConverterBenchmark
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    @Test
+    public void run() throws Exception {
+        String include = System.getProperty("jmh");
+        Assume.assumeTrue(include != null && !include.isEmpty());
+
+        Options options = new OptionsBuilder().include(include).build();
+        new Runner(options).run();
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("jmh", args.length > 0 ? args[0] : ".*Benchmark.*");
+        new BenchmarkRunner().run();
+    }
+}
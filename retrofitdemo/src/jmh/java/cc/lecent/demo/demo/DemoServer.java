@@ -0,0 +1,269 @@
+package cc.lecent.demo.demo;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.ServerSocketFactory;
+
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+/**
+ * In-process {@link DemoService} backend for tests and benchmarks, serving {@code /users/{id}},
+ * {@code /users?id=...}, {@code /users} and {@code /users/changes?since=...} from an in-memory
+ * store. Every write is logged under a new version, keeping only the latest write per id, so
+ * the changes since a token are found without looking at the other users. Answers in {@link
+ * UserConverterFactory#BINARY} when the Accept header asks for it and {@link #binary} is on,
+ * JSON otherwise. Accepted sockets disable Nagle's algorithm; otherwise MockWebServer's
+ * separate header and body writes meet the client's delayed ACK and every call costs 40ms.
+ */
+public class DemoServer {
+
+    // Held so the level sticks; MockWebServer logs every request at INFO.
+    private static final Logger LOGGER = Logger.getLogger(MockWebServer.class.getName());
+
+    private final MockWebServer mServer = new MockWebServer();
+    private final ConcurrentNavigableMap<Long, User> mUsers = new ConcurrentSkipListMap<>();
+    /** Version to id of the latest write to each id, including deletes. */
+    private final NavigableMap<Long, Long> mLog = new TreeMap<>();
+    private final Map<Long, Long> mVersions = new HashMap<>();
+    private long mVersion;
+    private volatile boolean mBinary = true;
+    private volatile long mLatencyMillis;
+    private volatile int mFailure;
+
+    public DemoServer() {
+        LOGGER.setLevel(Level.WARNING);
+        mServer.setServerSocketFactory(new NoDelayServerSocketFactory());
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (mLatencyMillis > 0) {
+                    Thread.sleep(mLatencyMillis);
+                }
+                if (mFailure != 0) {
+                    return new MockResponse().setResponseCode(mFailure);
+                }
+                try {
+                    return respond(request);
+                } catch (IOException | NumberFormatException e) {
+                    return new MockResponse().setResponseCode(400);
+                }
+            }
+        });
+    }
+
+    /** The user {@link #users(int)} stores with id {@code id}. */
+    public static User user(long id) {
+        return new User(id, "user " + id, "user" + id + "@example.com",
+                "https://example.com/avatars/" + id + ".png");
+    }
+
+    /** Stores users 0 to {@code count - 1}. */
+    public DemoServer users(int count) {
+        for (int i = 0; i < count; i++) {
+            put(user(i));
+        }
+        return this;
+    }
+
+    public synchronized DemoServer put(User user) {
+        mUsers.put(user.getId(), user);
+        log(user.getId());
+        return this;
+    }
+
+    public synchronized DemoServer delete(long id) {
+        if (mUsers.remove(id) != null) {
+            log(id);
+        }
+        return this;
+    }
+
+    /** A token for the current state, as {@code /users/changes} would answer. */
+    public synchronized String token() {
+        return "v" + mVersion;
+    }
+
+    private void log(long id) {
+        Long previous = mVersions.put(id, ++mVersion);
+        if (previous != null) {
+            mLog.remove(previous);
+        }
+        mLog.put(mVersion, id);
+    }
+
+    /** Whether binary is served to clients that accept it; off behaves like an older server. */
+    public DemoServer binary(boolean binary) {
+        mBinary = binary;
+        return this;
+    }
+
+    /** Delays every response, standing in for a network round trip. */
+    public DemoServer latency(long latency, TimeUnit unit) {
+        mLatencyMillis = unit.toMillis(latency);
+        return this;
+    }
+
+    /** Answers every request with {@code code}, or normally again after 0. */
+    public DemoServer failWith(int code) {
+        mFailure = code;
+        return this;
+    }
+
+    public void start() throws IOException {
+        mServer.start();
+    }
+
+    public void shutdown() throws IOException {
+        mServer.shutdown();
+    }
+
+    public String url(String path) {
+        return mServer.url(path).toString();
+    }
+
+    public MockWebServer server() {
+        return mServer;
+    }
+
+    private MockResponse respond(RecordedRequest request) throws IOException {
+        HttpUrl url = request.getRequestUrl();
+        List<String> path = url.pathSegments();
+        if (!path.get(0).equals("users") || path.size() > 2) {
+            return new MockResponse().setResponseCode(404);
+        }
+        String accept = request.getHeader("Accept");
+        boolean binary = mBinary && accept != null
+                && accept.contains(UserConverterFactory.BINARY.toString());
+        Buffer body = new Buffer();
+
+        if (path.size() == 2 && path.get(1).equals("changes")) {
+            UserChanges changes = changes(url.queryParameter("since"));
+            if (binary) {
+                UserBinary.writeChanges(body, changes);
+            } else {
+                UserJson.writeChanges(body, changes);
+            }
+        } else if (path.size() == 2) {
+            User user = mUsers.get(Long.parseLong(path.get(1)));
+            if (user == null) {
+                return new MockResponse().setResponseCode(404);
+            }
+            if (binary) {
+                UserBinary.writeUser(body, user);
+            } else {
+                UserJson.writeUser(body, user);
+            }
+        } else {
+            List<String> ids = url.queryParameterValues("id");
+            List<User> users = ids.isEmpty()
+                    ? new ArrayList<>(mUsers.values()) : new ArrayList<User>();
+            for (String id : ids) {
+                User user = mUsers.get(Long.parseLong(id));
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+            if (binary) {
+                UserBinary.writeUsers(body, users);
+            } else {
+                UserJson.writeUsers(body, users);
+            }
+        }
+        MediaType type = binary ? UserConverterFactory.BINARY : UserConverterFactory.JSON;
+        return new MockResponse()
+                .setHeader("Content-Type", type)
+                .setHeader("Vary", "Accept")
+                .setBody(body);
+    }
+
+    private synchronized UserChanges changes(String since) {
+        long version = -1;
+        if (since != null && since.startsWith("v")) {
+            try {
+                version = Long.parseLong(since.substring(1));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        if (version < 0 || version > mVersion) {
+            return new UserChanges(token(), true, new ArrayList<>(mUsers.values()), null);
+        }
+        List<User> changed = new ArrayList<>();
+        List<Long> deleted = new ArrayList<>();
+        for (Long id : mLog.tailMap(version, false).values()) {
+            User user = mUsers.get(id);
+            if (user != null) {
+                changed.add(user);
+            } else {
+                deleted.add(id);
+            }
+        }
+        return new UserChanges(token(), false, changed, deleted);
+    }
+
+    /**
+     * Copy of the okhttp module's BenchmarkServer factory; both modules are apps, which cannot
+     * depend on each other.
+     */
+    private static final class NoDelayServerSocketFactory extends ServerSocketFactory {
+        @Override
+        public ServerSocket createServerSocket() throws IOException {
+            return new NoDelayServerSocket();
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port) throws IOException {
+            return createServerSocket(port, 50);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+            return createServerSocket(port, backlog, null);
+        }
+
+        @Override
+        public ServerSocket createServerSocket(int port, int backlog, InetAddress address)
+                throws IOException {
+            ServerSocket socket = createServerSocket();
+            try {
+                socket.bind(new InetSocketAddress(address, port), backlog);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            return socket;
+        }
+    }
+
+    private static final class NoDelayServerSocket extends ServerSocket {
+        NoDelayServerSocket() throws IOException {
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            Socket socket = super.accept();
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package cc.lecent.demo.demo;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ByteString;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * Converting a {@code List<User>} response body with Gson's reflective adapter versus
+ * {@link UserConverterFactory}. Times are per body of {@link #users} users; add {@code -prof
+ * gc} and divide {@code gc.alloc.rate.norm} by it for bytes allocated per user.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+public class UserConverterBenchmark {
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    @Param({"1", "1000"})
+    public int users;
+
+    private ByteString mJson;
+    private Converter<ResponseBody, List<User>> mGson;
+    private Converter<ResponseBody, List<User>> mStreaming;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException {
+        List<User> list = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            list.add(new User(i, "user " + i, "user" + i + "@example.com",
+                    "https://example.com/avatars/" + i + ".png"));
+        }
+        Buffer buffer = new Buffer();
+        UserJson.writeUsers(buffer, list);
+        mJson = buffer.readByteString();
+
+        Retrofit retrofit = new Retrofit.Builder().baseUrl("http://localhost/").build();
+        Annotation[] none = new Annotation[0];
+        java.lang.reflect.Type type = new TypeToken<List<User>>() {
+        }.getType();
+        mGson = (Converter<ResponseBody, List<User>>) GsonConverterFactory.create()
+                .responseBodyConverter(type, none, retrofit);
+        mStreaming = (Converter<ResponseBody, List<User>>) UserConverterFactory.create()
+                .responseBodyConverter(type, none, retrofit);
+    }
+
+    @Benchmark
+    public List<User> gson() throws IOException {
+        return mGson.convert(ResponseBody.create(JSON, mJson));
+    }
+
+    @Benchmark
+    public List<User> streaming() throws IOException {
+        return mStreaming.convert(ResponseBody.create(JSON, mJson));
+    }
+}
@@ -0,0 +1,133 @@
+package cc.lecent.demo.demo;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.GzipSink;
+import okio.Okio;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+/**
+ * JSON versus {@link UserBinary} for a list of {@link #users} users: {@code parse} decodes a
+ * body already in memory, {@code fetch} asks {@link DemoServer} for them through {@link
+ * DemoService}. Payload sizes, plain and gzipped, are reported as the {@link Payload}
+ * counters; add {@code -prof gc} for allocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+public class UserFormatBenchmark {
+
+    @Param({"json", "binary"})
+    public String format;
+
+    @Param({"1000"})
+    public int users;
+
+    /** Bytes per response body; JMH zeroes these each iteration, so every call sets them. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Payload {
+        public long bytes;
+        public long gzippedBytes;
+    }
+
+    private MediaType mType;
+    private ByteString mBody;
+    private long mGzippedSize;
+    private Converter<ResponseBody, List<User>> mConverter;
+
+    private DemoServer mServer;
+    private OkHttpClient mClient;
+    private DemoService mService;
+    private List<String> mIds;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException {
+        boolean binary = format.equals("binary");
+        List<User> list = new ArrayList<>();
+        mIds = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            list.add(DemoServer.user(i));
+            mIds.add(String.valueOf(i));
+        }
+        Buffer buffer = new Buffer();
+        if (binary) {
+            UserBinary.writeUsers(buffer, list);
+        } else {
+            UserJson.writeUsers(buffer, list);
+        }
+        mType = binary ? UserConverterFactory.BINARY : UserConverterFactory.JSON;
+        mBody = buffer.readByteString();
+        Buffer gzipped = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(gzipped))) {
+            sink.write(mBody);
+        }
+        mGzippedSize = gzipped.size();
+
+        Retrofit retrofit = new Retrofit.Builder().baseUrl("http://localhost/").build();
+        mConverter = (Converter<ResponseBody, List<User>>) UserConverterFactory.create()
+                .responseBodyConverter(new TypeToken<List<User>>() {
+                }.getType(), new Annotation[0], retrofit);
+
+        mServer = new DemoServer().users(users).binary(binary);
+        mServer.start();
+        mClient = new OkHttpClient();
+        mService = DemoServices.create(mServer.url("/"), mClient);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mClient.dispatcher().executorService().shutdown();
+        mClient.connectionPool().evictAll();
+        mServer.shutdown();
+    }
+
+    @Benchmark
+    public List<User> parse(Payload payload) throws IOException {
+        count(payload);
+        return mConverter.convert(ResponseBody.create(mType, mBody));
+    }
+
+    @Benchmark
+    public List<User> fetch(Payload payload) throws IOException {
+        count(payload);
+        return mService.users(mIds).execute().body();
+    }
+
+    private void count(Payload payload) {
+        payload.bytes = mBody.size();
+        payload.gzippedBytes = mGzippedSize;
+    }
+}
@@ -0,0 +1,74 @@
+package cc.lecent.demo.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The in-memory half of {@link UserSyncBenchmark}: {@link UserSync#apply} merging {@link
+ * #changes} changed users into {@link #users}, versus rebuilding the collection from a full
+ * list. No network is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class UserMergeBenchmark {
+
+    @Param({"100000"})
+    public int users;
+
+    @Param({"10", "1000"})
+    public int changes;
+
+    private List<User> mAll;
+    private UserSync mSync;
+    private UserChanges mDelta;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mAll = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            mAll.add(DemoServer.user(i));
+        }
+        // The sync never calls the service; changes are applied directly.
+        mSync = new UserSync(null);
+        mSync.apply(new UserChanges("v1", true, mAll, null));
+        List<User> changed = new ArrayList<>();
+        for (int i = 0; i < changes; i++) {
+            changed.add(new User(i * 7919L % users, "changed", null, null));
+        }
+        mDelta = new UserChanges("v2", false, changed, null);
+    }
+
+    @Benchmark
+    public UserSync.Result merge() {
+        return mSync.apply(mDelta);
+    }
+
+    @Benchmark
+    public Map<Long, User> rebuild() {
+        Map<Long, User> users = new LinkedHashMap<>();
+        for (User user : mAll) {
+            users.put(user.getId(), user);
+        }
+        return users;
+    }
+}
@@ -0,0 +1,90 @@
+package cc.lecent.demo.demo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Keeping {@link #users} users current while {@link #changes} of them change between syncs:
+ * {@link UserSync} fetching and merging the changes, versus fetching every user and rebuilding
+ * the collection. Both go through {@link DemoServer} in the binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx512m")
+public class UserSyncBenchmark {
+
+    @Param({"100000"})
+    public int users;
+
+    @Param({"10", "1000"})
+    public int changes;
+
+    private DemoServer mServer;
+    private OkHttpClient mClient;
+    private DemoService mService;
+    private UserSync mSync;
+    private int mRound;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mServer = new DemoServer().users(users);
+        mServer.start();
+        mClient = new OkHttpClient();
+        mService = DemoServices.create(mServer.url("/"), mClient);
+        mSync = new UserSync(mService);
+        mSync.sync();
+    }
+
+    /** Updates {@link #changes} users spread over the whole id range. */
+    @Setup(Level.Invocation)
+    public void change() {
+        mRound++;
+        for (int i = 0; i < changes; i++) {
+            long id = (mRound * 7919L + i * 104729L) % users;
+            mServer.put(new User(id, "round " + mRound, null, null));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mClient.dispatcher().executorService().shutdown();
+        mServer.shutdown();
+    }
+
+    @Benchmark
+    public UserSync.Result deltaSync() throws IOException {
+        return mSync.sync();
+    }
+
+    @Benchmark
+    public Map<Long, User> fullRefresh() throws IOException {
+        List<User> all = mService.allUsers().execute().body();
+        Map<Long, User> users = new LinkedHashMap<>();
+        for (User user : all) {
+            users.put(user.getId(), user);
+        }
+        return users;
+    }
+}
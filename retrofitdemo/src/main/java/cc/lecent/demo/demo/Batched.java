@@ -0,0 +1,19 @@
+package cc.lecent.demo.demo;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a service method whose calls {@link BatchingCallAdapterFactory} collects into batch
+ * requests. The last path segment of the call's URL is its key in the batch, so the method
+ * must be a {@code @GET} whose path ends in a path parameter, such as {@code users/{id}};
+ * the factory rejects any other method.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Batched {
+}
@@ -0,0 +1,443 @@
+package cc.lecent.demo.demo;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import retrofit2.Call;
+import retrofit2.CallAdapter;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+
+/**
+ * Collects the calls of {@link Batched} methods made within a short window and sends their
+ * keys in one request through a {@link Loader}, then hands each caller its own item. Calls
+ * for the same key in a window share one slot in the batch. A batch goes out when its window
+ * ends or when it reaches {@link #maxBatchSize}. A key missing from the batch response fails
+ * its call with 404; a failed batch fails every call in it, and an error response gives each
+ * call its own copy of the error body. Once every call in a sent batch is canceled, so is the
+ * batch request.
+ *
+ * <p>The loader usually calls an unbatched method of the same service, so it is set once the
+ * service exists; see {@link DemoServices#create}.
+ *
+ * <p>The calls look like any other {@link Call}: {@code execute()} blocks until the batch
+ * answers, and {@code enqueue()} calls back on the Retrofit callback executor if it has one.
+ */
+public class BatchingCallAdapterFactory extends CallAdapter.Factory {
+
+    public interface Loader<T> {
+        /** The request fetching every key in {@code keys}. */
+        Call<List<T>> load(List<String> keys);
+
+        /** The key a batched call for {@code item} was made with. */
+        String keyOf(T item);
+    }
+
+    private volatile Loader<?> mLoader;
+    private final ScheduledExecutorService mTimer;
+    private long mWindowNanos = TimeUnit.MILLISECONDS.toNanos(5);
+    private int mMaxBatchSize = 100;
+
+    private final Object mLock = new Object();
+    private Map<String, List<BatchedCall<?>>> mPending = new LinkedHashMap<>();
+    private ScheduledFuture<?> mFlush;
+
+    private final AtomicLong mCalls = new AtomicLong();
+    private final AtomicLong mBatches = new AtomicLong();
+
+    public BatchingCallAdapterFactory() {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Batch flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.setRemoveOnCancelPolicy(true);
+        mTimer = timer;
+    }
+
+    public BatchingCallAdapterFactory loader(Loader<?> loader) {
+        mLoader = loader;
+        return this;
+    }
+
+    /** How long the first call of a batch waits for others to join it. */
+    public BatchingCallAdapterFactory window(long window, TimeUnit unit) {
+        mWindowNanos = unit.toNanos(window);
+        return this;
+    }
+
+    public BatchingCallAdapterFactory maxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize < 1: " + maxBatchSize);
+        }
+        mMaxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /** Batched calls made. */
+    public long callCount() {
+        return mCalls.get();
+    }
+
+    /** Batch requests sent. */
+    public long batchCount() {
+        return mBatches.get();
+    }
+
+    @Override
+    public CallAdapter<?, ?> get(Type returnType, Annotation[] annotations, Retrofit retrofit) {
+        if (!isBatched(annotations)) {
+            return null;
+        }
+        if (getRawType(returnType) != Call.class || !(returnType instanceof ParameterizedType)) {
+            throw new IllegalArgumentException("@Batched methods must return Call<T>");
+        }
+        String path = path(annotations);
+        if (path == null || !path.matches("(.*/)?\\{[^/]+\\}")) {
+            throw new IllegalArgumentException(
+                    "@Batched methods must be @GET with a {key} last path segment: " + path);
+        }
+        final Type responseType = getParameterUpperBound(0, (ParameterizedType) returnType);
+        final Executor callbackExecutor = retrofit.callbackExecutor();
+        return new CallAdapter<Object, Call<Object>>() {
+            @Override
+            public Type responseType() {
+                return responseType;
+            }
+
+            @Override
+            public Call<Object> adapt(Call<Object> call) {
+                return new BatchedCall<>(call, callbackExecutor);
+            }
+        };
+    }
+
+    private static boolean isBatched(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof Batched) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String path(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof GET) {
+                return ((GET) annotation).value();
+            }
+        }
+        return null;
+    }
+
+    private void add(BatchedCall<?> call) {
+        mCalls.incrementAndGet();
+        Map<String, List<BatchedCall<?>>> full = null;
+        synchronized (mLock) {
+            List<BatchedCall<?>> calls = mPending.get(call.mKey);
+            if (calls == null) {
+                calls = new ArrayList<>(1);
+                mPending.put(call.mKey, calls);
+            }
+            calls.add(call);
+            if (mPending.size() >= mMaxBatchSize) {
+                full = takePending();
+            } else if (mFlush == null) {
+                mFlush = mTimer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        Map<String, List<BatchedCall<?>>> batch;
+                        synchronized (mLock) {
+                            mFlush = null;
+                            batch = takePending();
+                        }
+                        send(batch);
+                    }
+                }, mWindowNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+    }
+
+    private void remove(BatchedCall<?> call) {
+        synchronized (mLock) {
+            List<BatchedCall<?>> calls = mPending.get(call.mKey);
+            if (calls != null && calls.remove(call) && calls.isEmpty()) {
+                mPending.remove(call.mKey);
+            }
+        }
+    }
+
+    private Map<String, List<BatchedCall<?>>> takePending() {
+        Map<String, List<BatchedCall<?>>> batch = mPending;
+        mPending = new LinkedHashMap<>();
+        if (mFlush != null) {
+            mFlush.cancel(false);
+            mFlush = null;
+        }
+        return batch;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void send(final Map<String, List<BatchedCall<?>>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final Loader<Object> loader = (Loader<Object>) mLoader;
+        if (loader == null) {
+            for (List<BatchedCall<?>> waiters : batch.values()) {
+                for (BatchedCall<?> waiter : waiters) {
+                    waiter.fail(new IllegalStateException("no loader set"));
+                }
+            }
+            return;
+        }
+        mBatches.incrementAndGet();
+        Call<List<Object>> load = loader.load(new ArrayList<>(batch.keySet()));
+        int calls = 0;
+        for (List<BatchedCall<?>> waiters : batch.values()) {
+            calls += waiters.size();
+        }
+        // Counted in full first, so an early cancel can't take the count to 0.
+        Sent sent = new Sent(load, calls);
+        for (List<BatchedCall<?>> waiters : batch.values()) {
+            for (BatchedCall<?> waiter : waiters) {
+                waiter.mSent = sent;
+            }
+        }
+        // A call canceled before it saw mSent had no batch to leave; leave it on its behalf.
+        for (List<BatchedCall<?>> waiters : batch.values()) {
+            for (BatchedCall<?> waiter : waiters) {
+                if (waiter.mCanceled) {
+                    waiter.leaveSent();
+                }
+            }
+        }
+        load.enqueue(new Callback<List<Object>>() {
+            @Override
+            public void onResponse(Call<List<Object>> call, Response<List<Object>> response) {
+                Map<String, Object> items = new HashMap<>();
+                if (response.isSuccessful() && response.body() != null) {
+                    for (Object item : response.body()) {
+                        items.put(loader.keyOf(item), item);
+                    }
+                }
+                byte[] error = new byte[0];
+                MediaType errorType = null;
+                if (!response.isSuccessful() && response.errorBody() != null) {
+                    try (ResponseBody body = response.errorBody()) {
+                        errorType = body.contentType();
+                        error = body.bytes();
+                    } catch (IOException e) {
+                        onFailure(call, e);
+                        return;
+                    }
+                }
+                for (Map.Entry<String, List<BatchedCall<?>>> entry : batch.entrySet()) {
+                    Object item = items.get(entry.getKey());
+                    for (BatchedCall<?> waiter : entry.getValue()) {
+                        ((BatchedCall<Object>) waiter).deliver(response, item, errorType, error);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Call<List<Object>> call, Throwable t) {
+                for (List<BatchedCall<?>> waiters : batch.values()) {
+                    for (BatchedCall<?> waiter : waiters) {
+                        waiter.fail(t);
+                    }
+                }
+            }
+        });
+    }
+
+    /** A batch request on its way, canceled once none of its calls is waiting for it. */
+    private static final class Sent {
+        final Call<?> mCall;
+        final AtomicInteger mLive;
+
+        Sent(Call<?> call, int calls) {
+            mCall = call;
+            mLive = new AtomicInteger(calls);
+        }
+    }
+
+    private final class BatchedCall<T> implements Call<T> {
+        private final Call<T> mDelegate;
+        private final Executor mCallbackExecutor;
+        final String mKey;
+
+        private final AtomicBoolean mExecuted = new AtomicBoolean();
+        private final AtomicBoolean mDone = new AtomicBoolean();
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private volatile boolean mCanceled;
+        private volatile Callback<T> mCallback;
+        private volatile Sent mSent;
+        private final AtomicBoolean mLeft = new AtomicBoolean();
+        private Response<T> mResponse;
+        private Throwable mFailure;
+
+        BatchedCall(Call<T> delegate, Executor callbackExecutor) {
+            mDelegate = delegate;
+            mCallbackExecutor = callbackExecutor;
+            List<String> segments = delegate.request().url().pathSegments();
+            mKey = segments.get(segments.size() - 1);
+        }
+
+        @Override
+        public Response<T> execute() throws IOException {
+            start();
+            try {
+                mLatch.await();
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for the batch");
+            }
+            if (mFailure instanceof IOException) {
+                throw (IOException) mFailure;
+            }
+            if (mFailure != null) {
+                throw new RuntimeException(mFailure);
+            }
+            return mResponse;
+        }
+
+        @Override
+        public void enqueue(Callback<T> callback) {
+            mCallback = callback;
+            start();
+        }
+
+        private void start() {
+            if (!mExecuted.compareAndSet(false, true)) {
+                throw new IllegalStateException("Already executed.");
+            }
+            if (mCanceled) {
+                fail(new IOException("Canceled"));
+                return;
+            }
+            add(this);
+        }
+
+        /** Completes with {@code item}, or with the batch's error if there is none. */
+        void deliver(Response<List<T>> batch, T item, MediaType errorType, byte[] error) {
+            okhttp3.Response raw = batch.raw().newBuilder().request(request()).build();
+            if (item != null) {
+                complete(Response.success(item, raw), null);
+            } else if (!batch.isSuccessful()) {
+                complete(Response.<T>error(ResponseBody.create(errorType, error), raw), null);
+            } else {
+                okhttp3.Response missing = new okhttp3.Response.Builder()
+                        .request(request())
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(404)
+                        .message("Not in batch")
+                        .build();
+                complete(Response.<T>error(ResponseBody.create(null, ""), missing), null);
+            }
+        }
+
+        void fail(Throwable t) {
+            complete(null, t);
+        }
+
+        private void complete(final Response<T> response, final Throwable failure) {
+            if (!mDone.compareAndSet(false, true)) {
+                return;
+            }
+            mResponse = response;
+            mFailure = failure;
+            mLatch.countDown();
+            final Callback<T> callback = mCallback;
+            if (callback == null) {
+                return;
+            }
+            Runnable notify = new Runnable() {
+                @Override
+                public void run() {
+                    if (response != null) {
+                        callback.onResponse(BatchedCall.this, response);
+                    } else {
+                        callback.onFailure(BatchedCall.this, failure);
+                    }
+                }
+            };
+            if (mCallbackExecutor != null) {
+                mCallbackExecutor.execute(notify);
+            } else {
+                notify.run();
+            }
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return mExecuted.get();
+        }
+
+        /** Drops this call from its sent batch, canceling the batch if it was the last. */
+        void leaveSent() {
+            Sent sent = mSent;
+            if (sent != null && mLeft.compareAndSet(false, true)
+                    && sent.mLive.decrementAndGet() == 0) {
+                sent.mCall.cancel();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            mCanceled = true;
+            if (mExecuted.get()) {
+                remove(this);
+                fail(new IOException("Canceled"));
+                leaveSent();
+            }
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return mCanceled;
+        }
+
+        @SuppressWarnings("CloneDoesntCallSuperClone")
+        @Override
+        public Call<T> clone() {
+            return new BatchedCall<>(mDelegate.clone(), mCallbackExecutor);
+        }
+
+        @Override
+        public Request request() {
+            return mDelegate.request();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package cc.lecent.demo.demo;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How {@link CachingCallAdapterFactory} caches a {@link Cached} GET method: results are fresh
+ * for {@link #ttl}, and the method's results together take at most {@link #maxBytes} of
+ * memory, least recently used first out.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CachePolicy {
+    long ttl() default 60;
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /** Estimated from the strings held, see {@link CachingCallAdapterFactory#sizeOf}. */
+    long maxBytes() default 256 * 1024;
+}
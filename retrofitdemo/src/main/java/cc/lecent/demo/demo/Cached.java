@@ -0,0 +1,66 @@
+package cc.lecent.demo.demo;
+
+/**
+ * A cached GET result from {@link CachingCallAdapterFactory}. Getting one never waits for the
+ * network: {@link #get} returns what is cached, fresh or stale, and a missing or stale result
+ * is fetched in the background. {@link Subscriber}s hear about the result when it first
+ * arrives and again only when a later fetch returns something different.
+ */
+public final class Cached<T> {
+
+    public abstract static class Subscriber<T> {
+        public abstract void onChanged(T value);
+
+        /** A fetch failed; the cached result, if any, stays. */
+        public void onError(Throwable t) {
+        }
+    }
+
+    public interface Subscription {
+        void unsubscribe();
+    }
+
+    private final CachingCallAdapterFactory.Region mRegion;
+    private final String mKey;
+    private final retrofit2.Call<T> mCall;
+
+    Cached(CachingCallAdapterFactory.Region region, String key, retrofit2.Call<T> call) {
+        mRegion = region;
+        mKey = key;
+        mCall = call;
+    }
+
+    /** The cached result, possibly stale, or null until the first fetch answers. */
+    @SuppressWarnings("unchecked")
+    public T get() {
+        return (T) mRegion.get(mKey, mCall);
+    }
+
+    /** Whether there is no result yet or it is older than its TTL. */
+    public boolean isStale() {
+        return mRegion.isStale(mKey);
+    }
+
+    /**
+     * Calls {@code subscriber} with the cached result if there is one, then on changes, on the
+     * Retrofit callback executor if it has one. Calls still queued there when it unsubscribes
+     * are dropped.
+     */
+    @SuppressWarnings("unchecked")
+    public Subscription subscribe(Subscriber<? super T> subscriber) {
+        return mRegion.subscribe(mKey, (Subscriber<Object>) subscriber);
+    }
+
+    /** Fetches again now, whatever the result's age. */
+    public void refresh() {
+        mRegion.fetch(mKey, mCall);
+    }
+
+    public String key() {
+        return mKey;
+    }
+
+    CachingCallAdapterFactory.Region region() {
+        return mRegion;
+    }
+}
@@ -0,0 +1,408 @@
+package cc.lecent.demo.demo;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import retrofit2.Call;
+import retrofit2.CallAdapter;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+
+/**
+ * Adapts GET methods returning {@link Cached} to stale-while-revalidate caching in memory.
+ * Each method has its own region with the TTL and size bound of its {@link CachePolicy}; the
+ * key is the request URL. A fetch whose result equals the cached one only renews it, so
+ * subscribers are not told about it. Failed fetches leave the cached result in place.
+ * Subscribers are called on the Retrofit callback executor if it has one.
+ */
+public class CachingCallAdapterFactory extends CallAdapter.Factory {
+
+    interface Clock {
+        long millis();
+    }
+
+    static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long millis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private final Clock mClock;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mStaleHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mFetches = new AtomicLong();
+    private final AtomicLong mChanges = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    public CachingCallAdapterFactory() {
+        this(SYSTEM_CLOCK);
+    }
+
+    CachingCallAdapterFactory(Clock clock) {
+        mClock = clock;
+    }
+
+    /** Results served while fresh. */
+    public long hitCount() {
+        return mHits.get();
+    }
+
+    /** Results served while stale, each starting a fetch. */
+    public long staleHitCount() {
+        return mStaleHits.get();
+    }
+
+    public long missCount() {
+        return mMisses.get();
+    }
+
+    public long fetchCount() {
+        return mFetches.get();
+    }
+
+    /** Fetches whose result differed from the cached one. */
+    public long changeCount() {
+        return mChanges.get();
+    }
+
+    public long evictionCount() {
+        return mEvictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "CachingCallAdapterFactory{hits=" + hitCount()
+                + ", staleHits=" + staleHitCount()
+                + ", misses=" + missCount()
+                + ", fetches=" + fetchCount()
+                + ", changes=" + changeCount()
+                + ", evictions=" + evictionCount() + "}";
+    }
+
+    @Override
+    public CallAdapter<?, ?> get(Type returnType, Annotation[] annotations, Retrofit retrofit) {
+        if (getRawType(returnType) != Cached.class) {
+            return null;
+        }
+        if (!(returnType instanceof ParameterizedType)) {
+            throw new IllegalArgumentException("Cached return type must be Cached<T>");
+        }
+        CachePolicy policy = null;
+        boolean get = false;
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof CachePolicy) {
+                policy = (CachePolicy) annotation;
+            } else if (annotation instanceof GET) {
+                get = true;
+            }
+        }
+        if (!get) {
+            throw new IllegalArgumentException("only GET methods can be Cached");
+        }
+        long ttlMillis = policy != null
+                ? policy.unit().toMillis(policy.ttl()) : 60 * 1000;
+        long maxBytes = policy != null ? policy.maxBytes() : 256 * 1024;
+        final Type responseType = getParameterUpperBound(0, (ParameterizedType) returnType);
+        final Region region = new Region(ttlMillis, maxBytes, retrofit.callbackExecutor());
+        return new CallAdapter<Object, Cached<Object>>() {
+            @Override
+            public Type responseType() {
+                return responseType;
+            }
+
+            @Override
+            public Cached<Object> adapt(Call<Object> call) {
+                return region.open(call);
+            }
+        };
+    }
+
+    /** Rough bytes held by a {@link User}, a list of them, or anything else. */
+    static long sizeOf(Object value) {
+        if (value instanceof User) {
+            User user = (User) value;
+            return 32 + sizeOf(user.getName()) + sizeOf(user.getEmail())
+                    + sizeOf(user.getAvatar());
+        }
+        if (value instanceof List) {
+            long size = 40;
+            for (Object item : (List<?>) value) {
+                size += 8 + sizeOf(item);
+            }
+            return size;
+        }
+        if (value instanceof String) {
+            return 40 + 2 * ((String) value).length();
+        }
+        return value == null ? 0 : 64;
+    }
+
+    private static final class Entry {
+        final Object value;
+        final long fetchedAt;
+        final long bytes;
+        final long version;
+
+        Entry(Object value, long fetchedAt, long bytes, long version) {
+            this.value = value;
+            this.fetchedAt = fetchedAt;
+            this.bytes = bytes;
+            this.version = version;
+        }
+    }
+
+    /** One subscriber, remembering what it was last told so it hears only changes. */
+    private static final class Listener {
+        final Cached.Subscriber<Object> subscriber;
+        final Executor executor;
+        private long mVersion = -1;
+        private Object mLast;
+        /** Cleared on unsubscribe, so calls already handed to the executor are dropped. */
+        volatile boolean active = true;
+
+        Listener(Cached.Subscriber<Object> subscriber, Executor executor) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+        }
+
+        /** Tells the subscriber about {@code value} unless it has already heard of it. */
+        void changed(final Object value, long version) {
+            synchronized (this) {
+                if (version <= mVersion) {
+                    return;
+                }
+                mVersion = version;
+                if (value.equals(mLast)) {
+                    return;
+                }
+                mLast = value;
+            }
+            run(new Runnable() {
+                @Override
+                public void run() {
+                    subscriber.onChanged(value);
+                }
+            });
+        }
+
+        void failed(final Throwable t) {
+            run(new Runnable() {
+                @Override
+                public void run() {
+                    subscriber.onError(t);
+                }
+            });
+        }
+
+        private void run(final Runnable runnable) {
+            if (executor == null) {
+                runnable.run();
+                return;
+            }
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (active) {
+                        runnable.run();
+                    }
+                }
+            });
+        }
+    }
+
+    /** The cache of one method. */
+    final class Region {
+        private final long mTtlMillis;
+        private final long mMaxBytes;
+        private final Executor mCallbackExecutor;
+
+        private final Map<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        private final Set<String> mFetching = new HashSet<>();
+        /** Read without locking; lists are added and removed holding the map's lock. */
+        private final ConcurrentMap<String, List<Listener>> mListeners =
+                new ConcurrentHashMap<>();
+        private long mBytes;
+        private long mVersion;
+
+        Region(long ttlMillis, long maxBytes, Executor callbackExecutor) {
+            mTtlMillis = ttlMillis;
+            mMaxBytes = maxBytes;
+            mCallbackExecutor = callbackExecutor;
+        }
+
+        <T> Cached<T> open(Call<T> call) {
+            String key = call.request().url().toString();
+            Entry entry;
+            synchronized (this) {
+                entry = mEntries.get(key);
+            }
+            if (entry == null) {
+                mMisses.incrementAndGet();
+                fetch(key, call);
+            } else if (isStale(entry)) {
+                mStaleHits.incrementAndGet();
+                fetch(key, call);
+            } else {
+                mHits.incrementAndGet();
+            }
+            return new Cached<>(this, key, call);
+        }
+
+        Object get(String key, Call<?> call) {
+            Entry entry;
+            synchronized (this) {
+                entry = mEntries.get(key);
+            }
+            if (entry == null || isStale(entry)) {
+                fetch(key, call);
+            }
+            return entry != null ? entry.value : null;
+        }
+
+        synchronized boolean isStale(String key) {
+            Entry entry = mEntries.get(key);
+            return entry == null || isStale(entry);
+        }
+
+        private boolean isStale(Entry entry) {
+            return mClock.millis() - entry.fetchedAt >= mTtlMillis;
+        }
+
+        Cached.Subscription subscribe(final String key, Cached.Subscriber<Object> subscriber) {
+            final Listener listener = new Listener(subscriber, mCallbackExecutor);
+            synchronized (mListeners) {
+                List<Listener> listeners = mListeners.get(key);
+                if (listeners == null) {
+                    listeners = new CopyOnWriteArrayList<>();
+                    mListeners.put(key, listeners);
+                }
+                listeners.add(listener);
+            }
+            Entry entry;
+            synchronized (this) {
+                entry = mEntries.get(key);
+            }
+            if (entry != null) {
+                listener.changed(entry.value, entry.version);
+            }
+            return new Cached.Subscription() {
+                @Override
+                public void unsubscribe() {
+                    listener.active = false;
+                    synchronized (mListeners) {
+                        List<Listener> listeners = mListeners.get(key);
+                        if (listeners != null && listeners.remove(listener)
+                                && listeners.isEmpty()) {
+                            mListeners.remove(key);
+                        }
+                    }
+                }
+            };
+        }
+
+        /** Keys with at least one subscriber. */
+        int subscribedKeys() {
+            return mListeners.size();
+        }
+
+        /** Fetches {@code key} unless a fetch of it is already running. */
+        void fetch(final String key, Call<?> call) {
+            synchronized (this) {
+                if (!mFetching.add(key)) {
+                    return;
+                }
+            }
+            mFetches.incrementAndGet();
+            @SuppressWarnings("unchecked")
+            Call<Object> fetch = (Call<Object>) call.clone();
+            fetch.enqueue(new Callback<Object>() {
+                @Override
+                public void onResponse(Call<Object> call, Response<Object> response) {
+                    if (response.isSuccessful() && response.body() != null) {
+                        store(key, response.body());
+                    } else {
+                        fail(key, new IOException("HTTP " + response.code() + " for " + key));
+                    }
+                }
+
+                @Override
+                public void onFailure(Call<Object> call, Throwable t) {
+                    fail(key, t);
+                }
+            });
+        }
+
+        private void store(String key, Object value) {
+            Entry stored;
+            boolean changed;
+            synchronized (this) {
+                mFetching.remove(key);
+                Entry old = mEntries.remove(key);
+                if (old != null) {
+                    mBytes -= old.bytes;
+                }
+                changed = old == null || !old.value.equals(value);
+                // An unchanged result keeps its version, so listeners told about it are skipped.
+                stored = new Entry(value, mClock.millis(), sizeOf(value),
+                        changed ? ++mVersion : old.version);
+                if (stored.bytes <= mMaxBytes) {
+                    mEntries.put(key, stored);
+                    mBytes += stored.bytes;
+                    trim();
+                }
+            }
+            if (changed) {
+                mChanges.incrementAndGet();
+            }
+            List<Listener> listeners = mListeners.get(key);
+            if (listeners != null) {
+                for (Listener listener : listeners) {
+                    listener.changed(stored.value, stored.version);
+                }
+            }
+        }
+
+        private void fail(String key, Throwable t) {
+            synchronized (this) {
+                mFetching.remove(key);
+            }
+            List<Listener> listeners = mListeners.get(key);
+            if (listeners != null) {
+                for (Listener listener : listeners) {
+                    listener.failed(t);
+                }
+            }
+        }
+
+        private void trim() {
+            Iterator<Entry> eldest = mEntries.values().iterator();
+            while (mBytes > mMaxBytes && eldest.hasNext()) {
+                mBytes -= eldest.next().bytes;
+                eldest.remove();
+                mEvictions.incrementAndGet();
+            }
+        }
+
+        synchronized long bytes() {
+            return mBytes;
+        }
+    }
+}
@@ -1,9 +1,56 @@
 package cc.lecent.demo.demo;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+import retrofit2.http.GET;
+import retrofit2.http.Headers;
+import retrofit2.http.Path;
+import retrofit2.http.Query;
+
 /**
  * Created by bigoat on 17-6-19.
  */
 
 public interface DemoService {
 
+    /** Prefers the compact {@link UserConverterFactory#BINARY} format, falling back to JSON. */
+    String ACCEPT = "Accept: application/x-demo-user, application/json;q=0.5";
+
+    /** One user. Calls made close together go out as one {@link #users(List)} request. */
+    @Batched
+    @Headers(ACCEPT)
+    @GET("users/{id}")
+    Call<User> user(@Path("id") long id);
+
+    /** The users with the given ids, in any order; unknown ids are left out. */
+    @Headers(ACCEPT)
+    @GET("users")
+    Call<List<User>> users(@Query("id") List<String> ids);
+
+    /** Every user. {@link UserSync} keeps a copy current with {@link #changes} instead. */
+    @Headers(ACCEPT)
+    @GET("users")
+    Call<List<User>> allUsers();
+
+    /**
+     * The changes since {@code token}, a token from an earlier answer, or every user if it is
+     * null or the server no longer knows it.
+     */
+    @Headers(ACCEPT)
+    @GET("users/changes")
+    Call<UserChanges> changes(@Query("since") String token);
+
+    /** {@link #user} from memory, refetched in the background once a minute old. */
+    @CachePolicy(ttl = 60, unit = TimeUnit.SECONDS, maxBytes = 256 * 1024)
+    @Headers(ACCEPT)
+    @GET("users/{id}")
+    Cached<User> cachedUser(@Path("id") long id);
+
+    /** {@link #users} from memory; lists go out of date sooner, so refetch after 10 seconds. */
+    @CachePolicy(ttl = 10, unit = TimeUnit.SECONDS, maxBytes = 1024 * 1024)
+    @Headers(ACCEPT)
+    @GET("users")
+    Cached<List<User>> cachedUsers(@Query("id") List<String> ids);
 }
@@ -0,0 +1,55 @@
+package cc.lecent.demo.demo;
+
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import retrofit2.Call;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+/**
+ * Builds {@link DemoService}s whose {@link Batched} calls go out as {@link DemoService#users}
+ * requests and whose {@link Cached} calls are served from memory.
+ */
+public final class DemoServices {
+
+    private DemoServices() {
+    }
+
+    public static DemoService create(String baseUrl, OkHttpClient client) {
+        return create(baseUrl, client, new BatchingCallAdapterFactory());
+    }
+
+    /** Uses {@code batching}, e.g. with a different window, and sets its loader. */
+    public static DemoService create(String baseUrl, OkHttpClient client,
+                                     BatchingCallAdapterFactory batching) {
+        return create(baseUrl, client, batching, new CachingCallAdapterFactory());
+    }
+
+    /** Also uses {@code caching}, e.g. to read its counters. */
+    public static DemoService create(String baseUrl, OkHttpClient client,
+                                     BatchingCallAdapterFactory batching,
+                                     CachingCallAdapterFactory caching) {
+        Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(baseUrl)
+                .client(client)
+                .addCallAdapterFactory(batching)
+                .addCallAdapterFactory(caching)
+                .addConverterFactory(UserConverterFactory.create())
+                .addConverterFactory(GsonConverterFactory.create())
+                .build();
+        final DemoService service = retrofit.create(DemoService.class);
+        batching.loader(new BatchingCallAdapterFactory.Loader<User>() {
+            @Override
+            public Call<List<User>> load(List<String> keys) {
+                return service.users(keys);
+            }
+
+            @Override
+            public String keyOf(User user) {
+                return String.valueOf(user.getId());
+            }
+        });
+        return service;
+    }
+}
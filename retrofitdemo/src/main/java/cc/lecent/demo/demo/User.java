@@ -5,4 +5,60 @@ package cc.lecent.demo.demo;
  */
 
 public class User {
+    private long id;
+    private String name;
+    private String email;
+    private String avatar;
+
+    public User(long id, String name, String email, String avatar) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+        this.avatar = avatar;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getAvatar() {
+        return avatar;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof User)) return false;
+        User user = (User) o;
+        return id == user.id
+                && equal(name, user.name)
+                && equal(email, user.email)
+                && equal(avatar, user.avatar);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + (email != null ? email.hashCode() : 0);
+        result = 31 * result + (avatar != null ? avatar.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "User{id=" + id + ", name=" + name + "}";
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
 }
@@ -0,0 +1,168 @@
+package cc.lecent.demo.demo;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Utf8;
+
+/**
+ * The {@link UserConverterFactory#BINARY} encoding of users. A list is a user count followed
+ * by the users; a user is its length in bytes followed by its fields in order: id, name, email
+ * and avatar. Numbers are unsigned LEB128 varints. A string is its UTF-8 length plus one,
+ * followed by its bytes, or a lone 0 for null. Readers skip whatever follows the fields they
+ * know, so new fields can be appended without breaking old clients.
+ *
+ * <p>{@link UserChanges} are the token string, 1 or 0 for reset, the changed users as a list,
+ * and the count of deleted ids followed by the ids.
+ */
+final class UserBinary {
+    /** Larger records are taken as corrupt rather than buffered. */
+    private static final long MAX_RECORD = 1024 * 1024;
+
+    private UserBinary() {
+    }
+
+    static List<User> readUsers(BufferedSource source) throws IOException {
+        long count = readVarint(source);
+        if (count > Integer.MAX_VALUE) {
+            throw new ProtocolException("bad user count: " + count);
+        }
+        List<User> users = new ArrayList<>((int) Math.min(count, 1024));
+        for (long i = 0; i < count; i++) {
+            users.add(readUser(source));
+        }
+        return users;
+    }
+
+    static User readUser(BufferedSource source) throws IOException {
+        long length = readVarint(source);
+        if (length > MAX_RECORD) {
+            throw new ProtocolException("bad record length: " + length);
+        }
+        // Records are small, so read each one from memory.
+        source.require(length);
+        Buffer buffer = source.buffer();
+        long end = buffer.size() - length;
+        User user = new User(readVarint(buffer), readString(buffer, end),
+                readString(buffer, end), readString(buffer, end));
+        if (buffer.size() < end) {
+            throw new ProtocolException("record overruns its length");
+        }
+        buffer.skip(buffer.size() - end);
+        return user;
+    }
+
+    static UserChanges readChanges(BufferedSource source) throws IOException {
+        String token = readString(source);
+        boolean reset = readVarint(source) != 0;
+        List<User> changed = readUsers(source);
+        long count = readVarint(source);
+        if (count > Integer.MAX_VALUE) {
+            throw new ProtocolException("bad deleted count: " + count);
+        }
+        List<Long> deleted = new ArrayList<>((int) Math.min(count, 1024));
+        for (long i = 0; i < count; i++) {
+            deleted.add(readVarint(source));
+        }
+        return new UserChanges(token, reset, changed, deleted);
+    }
+
+    static void writeChanges(BufferedSink sink, UserChanges changes) throws IOException {
+        writeString(sink, changes.getToken());
+        writeVarint(sink, changes.isReset() ? 1 : 0);
+        writeUsers(sink, changes.getChanged());
+        List<Long> deleted = changes.getDeleted();
+        writeVarint(sink, deleted.size());
+        for (int i = 0; i < deleted.size(); i++) {
+            writeVarint(sink, deleted.get(i));
+        }
+    }
+
+    static void writeUsers(BufferedSink sink, List<User> users) throws IOException {
+        writeVarint(sink, users.size());
+        for (int i = 0; i < users.size(); i++) {
+            writeUser(sink, users.get(i));
+        }
+    }
+
+    static void writeUser(BufferedSink sink, User user) throws IOException {
+        writeVarint(sink, varintSize(user.getId())
+                + stringSize(user.getName())
+                + stringSize(user.getEmail())
+                + stringSize(user.getAvatar()));
+        writeVarint(sink, user.getId());
+        writeString(sink, user.getName());
+        writeString(sink, user.getEmail());
+        writeString(sink, user.getAvatar());
+    }
+
+    /** Reads a string that must end before the buffer shrinks to {@code end} bytes. */
+    private static String readString(Buffer buffer, long end) throws IOException {
+        long length = readVarint(buffer);
+        if (length == 0) {
+            return null;
+        }
+        if (length - 1 > buffer.size() - end) {
+            throw new ProtocolException("string overruns its record");
+        }
+        return buffer.readUtf8(length - 1);
+    }
+
+    private static String readString(BufferedSource source) throws IOException {
+        long length = readVarint(source);
+        if (length == 0) {
+            return null;
+        }
+        if (length - 1 > MAX_RECORD) {
+            throw new ProtocolException("bad string length: " + length);
+        }
+        return source.readUtf8(length - 1);
+    }
+
+    private static void writeString(BufferedSink sink, String value) throws IOException {
+        if (value == null) {
+            sink.writeByte(0);
+            return;
+        }
+        writeVarint(sink, Utf8.size(value) + 1);
+        sink.writeUtf8(value);
+    }
+
+    private static long stringSize(String value) {
+        return value == null ? 1 : varintSize(Utf8.size(value) + 1) + Utf8.size(value);
+    }
+
+    private static long readVarint(BufferedSource source) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = source.readByte();
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new ProtocolException("varint too long");
+    }
+
+    private static void writeVarint(BufferedSink sink, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            sink.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        sink.writeByte((int) value);
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
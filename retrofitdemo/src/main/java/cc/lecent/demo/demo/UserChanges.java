@@ -0,0 +1,40 @@
+package cc.lecent.demo.demo;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What {@link DemoService#changes} answers: the users inserted or updated and the ids deleted
+ * since a sync token, and the token to send next time. When {@link #isReset} the server could
+ * not answer from the token, e.g. on the first sync, and {@link #getChanged} is every user.
+ */
+public class UserChanges {
+    private final String token;
+    private final boolean reset;
+    private final List<User> changed;
+    private final List<Long> deleted;
+
+    public UserChanges(String token, boolean reset, List<User> changed, List<Long> deleted) {
+        this.token = token;
+        this.reset = reset;
+        this.changed = changed != null ? changed : Collections.<User>emptyList();
+        this.deleted = deleted != null ? deleted : Collections.<Long>emptyList();
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public boolean isReset() {
+        return reset;
+    }
+
+    public List<User> getChanged() {
+        return changed;
+    }
+
+    /** Ids of deleted users, which may include ids this client never saw. */
+    public List<Long> getDeleted() {
+        return deleted;
+    }
+}
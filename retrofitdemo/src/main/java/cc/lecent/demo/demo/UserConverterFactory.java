@@ -0,0 +1,112 @@
+package cc.lecent.demo.demo;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+/**
+ * Converts {@link User}, {@code List<User>} and {@link UserChanges} responses, reading from
+ * the response source as it arrives: {@link UserBinary} when the body is {@link #BINARY},
+ * {@link UserJson} otherwise. {@link DemoService} asks for binary in its Accept header, so
+ * servers that don't know the format keep working with JSON. Request bodies are always JSON.
+ * Other types are left to the factories added after this one.
+ */
+public class UserConverterFactory extends Converter.Factory {
+    public static final MediaType BINARY = MediaType.parse("application/x-demo-user");
+    static final MediaType JSON = MediaType.parse("application/json; charset=UTF-8");
+
+    public static UserConverterFactory create() {
+        return new UserConverterFactory();
+    }
+
+    @Override
+    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations,
+                                                            Retrofit retrofit) {
+        if (type == User.class) {
+            return new Converter<ResponseBody, User>() {
+                @Override
+                public User convert(ResponseBody body) throws IOException {
+                    try {
+                        return isBinary(body)
+                                ? UserBinary.readUser(body.source())
+                                : UserJson.readUser(body.source());
+                    } finally {
+                        body.close();
+                    }
+                }
+            };
+        }
+        if (type == UserChanges.class) {
+            return new Converter<ResponseBody, UserChanges>() {
+                @Override
+                public UserChanges convert(ResponseBody body) throws IOException {
+                    try {
+                        return isBinary(body)
+                                ? UserBinary.readChanges(body.source())
+                                : UserJson.readChanges(body.source());
+                    } finally {
+                        body.close();
+                    }
+                }
+            };
+        }
+        if (isUserList(type)) {
+            return new Converter<ResponseBody, List<User>>() {
+                @Override
+                public List<User> convert(ResponseBody body) throws IOException {
+                    try {
+                        return isBinary(body)
+                                ? UserBinary.readUsers(body.source())
+                                : UserJson.readUsers(body.source());
+                    } finally {
+                        body.close();
+                    }
+                }
+            };
+        }
+        return null;
+    }
+
+    @Override
+    public Converter<?, RequestBody> requestBodyConverter(Type type,
+                                                          Annotation[] parameterAnnotations,
+                                                          Annotation[] methodAnnotations,
+                                                          Retrofit retrofit) {
+        if (type != User.class) {
+            return null;
+        }
+        return new Converter<User, RequestBody>() {
+            @Override
+            public RequestBody convert(User user) throws IOException {
+                Buffer buffer = new Buffer();
+                UserJson.writeUser(buffer, user);
+                return RequestBody.create(JSON, buffer.readByteString());
+            }
+        };
+    }
+
+    static boolean isUserList(Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return false;
+        }
+        ParameterizedType parameterized = (ParameterizedType) type;
+        return getRawType(parameterized) == List.class
+                && getParameterUpperBound(0, parameterized) == User.class;
+    }
+
+    private static boolean isBinary(ResponseBody body) {
+        MediaType contentType = body.contentType();
+        return contentType != null
+                && contentType.type().equals(BINARY.type())
+                && contentType.subtype().equals(BINARY.subtype());
+    }
+}
@@ -0,0 +1,326 @@
+package cc.lecent.demo.demo;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Options;
+
+/**
+ * Reads and writes {@link User} JSON straight from and to okio streams, without reflection or
+ * a tree in between. Field names are matched as bytes with {@link BufferedSource#select}, so
+ * known names are never decoded into Strings; unknown fields are skipped.
+ */
+final class UserJson {
+
+    private static final Options FIELDS = Options.of(
+            ByteString.encodeUtf8("\"id\""),
+            ByteString.encodeUtf8("\"name\""),
+            ByteString.encodeUtf8("\"email\""),
+            ByteString.encodeUtf8("\"avatar\""));
+    private static final Options CHANGES_FIELDS = Options.of(
+            ByteString.encodeUtf8("\"token\""),
+            ByteString.encodeUtf8("\"reset\""),
+            ByteString.encodeUtf8("\"changed\""),
+            ByteString.encodeUtf8("\"deleted\""));
+    private static final ByteString STRING_TERMINALS = ByteString.encodeUtf8("\"\\");
+    private static final ByteString LITERAL_TERMINALS = ByteString.encodeUtf8(" \t\r\n,:]}");
+
+    private UserJson() {
+    }
+
+    static List<User> readUsers(BufferedSource source) throws IOException {
+        List<User> users = new ArrayList<>();
+        expect(source, '[');
+        if (peek(source) == ']') {
+            source.skip(1);
+            return users;
+        }
+        do {
+            users.add(readUser(source));
+        } while (next(source, ']') == ',');
+        return users;
+    }
+
+    static User readUser(BufferedSource source) throws IOException {
+        long id = 0;
+        String name = null;
+        String email = null;
+        String avatar = null;
+        expect(source, '{');
+        if (peek(source) == '}') {
+            source.skip(1);
+            return new User(id, null, null, null);
+        }
+        do {
+            peek(source);
+            int field = source.select(FIELDS);
+            if (field == -1) {
+                readString(source);
+            }
+            expect(source, ':');
+            switch (field) {
+                case 0:
+                    id = readLong(source);
+                    break;
+                case 1:
+                    name = readString(source);
+                    break;
+                case 2:
+                    email = readString(source);
+                    break;
+                case 3:
+                    avatar = readString(source);
+                    break;
+                default:
+                    skipValue(source);
+            }
+        } while (next(source, '}') == ',');
+        return new User(id, name, email, avatar);
+    }
+
+    static UserChanges readChanges(BufferedSource source) throws IOException {
+        String token = null;
+        boolean reset = false;
+        List<User> changed = null;
+        List<Long> deleted = null;
+        expect(source, '{');
+        if (peek(source) == '}') {
+            source.skip(1);
+            return new UserChanges(null, false, null, null);
+        }
+        do {
+            peek(source);
+            int field = source.select(CHANGES_FIELDS);
+            if (field == -1) {
+                readString(source);
+            }
+            expect(source, ':');
+            switch (field) {
+                case 0:
+                    token = readString(source);
+                    break;
+                case 1:
+                    reset = readBoolean(source);
+                    break;
+                case 2:
+                    changed = readUsers(source);
+                    break;
+                case 3:
+                    deleted = readLongs(source);
+                    break;
+                default:
+                    skipValue(source);
+            }
+        } while (next(source, '}') == ',');
+        return new UserChanges(token, reset, changed, deleted);
+    }
+
+    static void writeChanges(BufferedSink sink, UserChanges changes) throws IOException {
+        sink.writeUtf8("{\"token\":");
+        writeString(sink, changes.getToken());
+        sink.writeUtf8(",\"reset\":").writeUtf8(changes.isReset() ? "true" : "false");
+        sink.writeUtf8(",\"changed\":");
+        writeUsers(sink, changes.getChanged());
+        sink.writeUtf8(",\"deleted\":[");
+        List<Long> deleted = changes.getDeleted();
+        for (int i = 0; i < deleted.size(); i++) {
+            if (i > 0) {
+                sink.writeByte(',');
+            }
+            sink.writeDecimalLong(deleted.get(i));
+        }
+        sink.writeUtf8("]}");
+    }
+
+    static void writeUsers(BufferedSink sink, List<User> users) throws IOException {
+        sink.writeByte('[');
+        for (int i = 0; i < users.size(); i++) {
+            if (i > 0) {
+                sink.writeByte(',');
+            }
+            writeUser(sink, users.get(i));
+        }
+        sink.writeByte(']');
+    }
+
+    static void writeUser(BufferedSink sink, User user) throws IOException {
+        sink.writeUtf8("{\"id\":").writeDecimalLong(user.getId());
+        sink.writeUtf8(",\"name\":");
+        writeString(sink, user.getName());
+        sink.writeUtf8(",\"email\":");
+        writeString(sink, user.getEmail());
+        sink.writeUtf8(",\"avatar\":");
+        writeString(sink, user.getAvatar());
+        sink.writeByte('}');
+    }
+
+    private static List<Long> readLongs(BufferedSource source) throws IOException {
+        List<Long> values = new ArrayList<>();
+        expect(source, '[');
+        if (peek(source) == ']') {
+            source.skip(1);
+            return values;
+        }
+        do {
+            values.add(readLong(source));
+        } while (next(source, ']') == ',');
+        return values;
+    }
+
+    private static boolean readBoolean(BufferedSource source) throws IOException {
+        int c = peek(source);
+        if (c != 't' && c != 'f') {
+            throw new IOException("expected a boolean but was " + describe(c));
+        }
+        skipLiteral(source);
+        return c == 't';
+    }
+
+    private static long readLong(BufferedSource source) throws IOException {
+        peek(source);
+        return source.readDecimalLong();
+    }
+
+    /** Reads a string or {@code null}. */
+    private static String readString(BufferedSource source) throws IOException {
+        int c = peek(source);
+        if (c == 'n') {
+            skipLiteral(source);
+            return null;
+        }
+        expect(source, '"');
+        Buffer buffer = source.buffer();
+        StringBuilder escaped = null;
+        while (true) {
+            long index = source.indexOfElement(STRING_TERMINALS);
+            if (index == -1) {
+                throw new EOFException("unterminated string");
+            }
+            if (buffer.getByte(index) == '"') {
+                String chunk = buffer.readUtf8(index);
+                buffer.skip(1);
+                return escaped == null ? chunk : escaped.append(chunk).toString();
+            }
+            if (escaped == null) {
+                escaped = new StringBuilder();
+            }
+            escaped.append(buffer.readUtf8(index));
+            buffer.skip(1);
+            escaped.append(readEscape(source));
+        }
+    }
+
+    private static char readEscape(BufferedSource source) throws IOException {
+        byte escape = source.readByte();
+        switch (escape) {
+            case 'u':
+                source.require(4);
+                return (char) Integer.parseInt(source.readUtf8(4), 16);
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            default:
+                return (char) escape;
+        }
+    }
+
+    private static void writeString(BufferedSink sink, String value) throws IOException {
+        if (value == null) {
+            sink.writeUtf8("null");
+            return;
+        }
+        sink.writeByte('"');
+        int last = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '"' && c != '\\' && c >= 0x20) {
+                continue;
+            }
+            sink.writeUtf8(value, last, i);
+            if (c == '"' || c == '\\') {
+                sink.writeByte('\\').writeByte(c);
+            } else {
+                sink.writeUtf8(String.format("\\u%04x", (int) c));
+            }
+            last = i + 1;
+        }
+        sink.writeUtf8(value, last, value.length());
+        sink.writeByte('"');
+    }
+
+    private static void skipValue(BufferedSource source) throws IOException {
+        int depth = 0;
+        do {
+            int c = peek(source);
+            if (c == '"') {
+                readString(source);
+            } else if (c == '{' || c == '[') {
+                source.skip(1);
+                depth++;
+            } else if (c == '}' || c == ']') {
+                source.skip(1);
+                depth--;
+            } else if (c == ',' || c == ':') {
+                source.skip(1);
+            } else {
+                skipLiteral(source);
+            }
+        } while (depth > 0);
+    }
+
+    private static void skipLiteral(BufferedSource source) throws IOException {
+        long index = source.indexOfElement(LITERAL_TERMINALS);
+        if (index == -1) {
+            throw new EOFException("unterminated literal");
+        }
+        source.skip(index);
+    }
+
+    /** Consumes the next non-whitespace byte, which must be {@code ','} or {@code end}. */
+    private static int next(BufferedSource source, char end) throws IOException {
+        int c = peek(source);
+        if (c != ',' && c != end) {
+            throw new IOException("expected ',' or '" + end + "' but was " + describe(c));
+        }
+        source.skip(1);
+        return c;
+    }
+
+    private static void expect(BufferedSource source, char expected) throws IOException {
+        int c = peek(source);
+        if (c != expected) {
+            throw new IOException("expected '" + expected + "' but was " + describe(c));
+        }
+        source.skip(1);
+    }
+
+    /** Skips whitespace and returns the next byte without consuming it, or -1 at the end. */
+    private static int peek(BufferedSource source) throws IOException {
+        Buffer buffer = source.buffer();
+        while (buffer.size() > 0 || source.request(1)) {
+            byte c = buffer.getByte(0);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return c;
+            }
+            buffer.skip(1);
+        }
+        return -1;
+    }
+
+    private static String describe(int c) {
+        return c == -1 ? "the end of the input" : "'" + (char) c + "'";
+    }
+}
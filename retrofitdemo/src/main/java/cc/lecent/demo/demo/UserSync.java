@@ -0,0 +1,113 @@
+package cc.lecent.demo.demo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import retrofit2.Response;
+
+/**
+ * A local copy of the server's users, kept current with {@link DemoService#changes}. Each
+ * {@link #sync} sends the token of the last one and applies the answer in place: inserts,
+ * updates and deletes are single hash map operations, so a sync costs O(changes) however many
+ * users are held. Only a reset, which the server sends when it can't answer from the token,
+ * rebuilds the whole collection. Users keep the order they were first inserted in.
+ */
+public class UserSync {
+
+    /** What one {@link #apply} changed. */
+    public static final class Result {
+        public final int inserted;
+        public final int updated;
+        public final int deleted;
+        /** Sent by the server but equal to the copy already held. */
+        public final int unchanged;
+        public final boolean reset;
+
+        Result(int inserted, int updated, int deleted, int unchanged, boolean reset) {
+            this.inserted = inserted;
+            this.updated = updated;
+            this.deleted = deleted;
+            this.unchanged = unchanged;
+            this.reset = reset;
+        }
+
+        public boolean changed() {
+            return reset || inserted + updated + deleted > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{inserted=" + inserted + ", updated=" + updated + ", deleted=" + deleted
+                    + ", unchanged=" + unchanged + (reset ? ", reset" : "") + "}";
+        }
+    }
+
+    private final DemoService mService;
+    private final Object mSyncLock = new Object();
+    private final Map<Long, User> mUsers = new LinkedHashMap<>();
+    private String mToken;
+
+    public UserSync(DemoService service) {
+        mService = service;
+    }
+
+    /** Fetches the changes since the last sync and applies them. */
+    public Result sync() throws IOException {
+        // One sync at a time, so each sends the token the previous one stored.
+        synchronized (mSyncLock) {
+            Response<UserChanges> response = mService.changes(token()).execute();
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("Unexpected code " + response.code());
+            }
+            return apply(response.body());
+        }
+    }
+
+    public synchronized Result apply(UserChanges changes) {
+        if (changes.isReset()) {
+            mUsers.clear();
+        }
+        int inserted = 0;
+        int updated = 0;
+        int unchanged = 0;
+        for (User user : changes.getChanged()) {
+            User old = mUsers.put(user.getId(), user);
+            if (old == null) {
+                inserted++;
+            } else if (!old.equals(user)) {
+                updated++;
+            } else {
+                unchanged++;
+            }
+        }
+        int deleted = 0;
+        for (Long id : changes.getDeleted()) {
+            if (mUsers.remove(id) != null) {
+                deleted++;
+            }
+        }
+        mToken = changes.getToken();
+        return new Result(inserted, updated, deleted, unchanged, changes.isReset());
+    }
+
+    /** The token the next sync sends, null before the first. */
+    public synchronized String token() {
+        return mToken;
+    }
+
+    public synchronized User get(long id) {
+        return mUsers.get(id);
+    }
+
+    public synchronized int size() {
+        return mUsers.size();
+    }
+
+    /** A copy of the users held, in insertion order. */
+    public synchronized List<User> users() {
+        return new ArrayList<>(mUsers.values());
+    }
+}
@@ -0,0 +1,224 @@
+package cc.lecent.demo.demo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BatchingCallAdapterFactoryTest {
+    /** Ids at or above this are unknown to the server. */
+    private static final int USERS = 10000;
+
+    private DemoServer mDemo;
+    private MockWebServer mServer;
+    private OkHttpClient mClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mDemo = new DemoServer().users(USERS);
+        mDemo.start();
+        mServer = mDemo.server();
+        mClient = new OkHttpClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDemo.shutdown();
+        mClient.dispatcher().executorService().shutdown();
+    }
+
+    @Test
+    public void callsInTheWindowShareOneRequest() throws Exception {
+        BatchingCallAdapterFactory batching = new BatchingCallAdapterFactory()
+                .window(50, TimeUnit.MILLISECONDS);
+        DemoService service = DemoServices.create(mServer.url("/").toString(), mClient, batching);
+
+        Results results = new Results();
+        for (int i = 0; i < 10; i++) {
+            service.user(i).enqueue(results);
+        }
+        service.user(3).enqueue(results);
+        for (int i = 0; i < 11; i++) {
+            Response<User> response = results.responses.poll(5, TimeUnit.SECONDS);
+            User user = response.body();
+            assertEquals("user " + user.getId(), user.getName());
+            assertEquals("/users/" + user.getId(), response.raw().request().url().encodedPath());
+        }
+
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals("/users?id=0&id=1&id=2&id=3&id=4&id=5&id=6&id=7&id=8&id=9",
+                mServer.takeRequest().getPath());
+        assertEquals(11, batching.callCount());
+        assertEquals(1, batching.batchCount());
+    }
+
+    @Test
+    public void executeBlocksUntilTheBatchAnswers() throws Exception {
+        DemoService service = DemoServices.create(mServer.url("/").toString(), mClient);
+        assertEquals(DemoServer.user(7), service.user(7).execute().body());
+        assertEquals("/users?id=7", mServer.takeRequest().getPath());
+    }
+
+    @Test
+    public void fullBatchGoesOutWithoutWaitingForTheWindow() throws Exception {
+        BatchingCallAdapterFactory batching = new BatchingCallAdapterFactory()
+                .window(1, TimeUnit.MINUTES)
+                .maxBatchSize(3);
+        DemoService service = DemoServices.create(mServer.url("/").toString(), mClient, batching);
+
+        Results results = new Results();
+        for (int i = 0; i < 3; i++) {
+            service.user(i).enqueue(results);
+        }
+        for (int i = 0; i < 3; i++) {
+            assertTrue(results.responses.poll(5, TimeUnit.SECONDS).isSuccessful());
+        }
+    }
+
+    @Test
+    public void missingAndFailedKeysFailTheirOwnCalls() throws Exception {
+        DemoService service = DemoServices.create(mServer.url("/").toString(), mClient);
+        Results results = new Results();
+        service.user(1).enqueue(results);
+        service.user(USERS).enqueue(results);
+        int found = 0;
+        for (int i = 0; i < 2; i++) {
+            Response<User> response = results.responses.poll(5, TimeUnit.SECONDS);
+            found += response.isSuccessful() ? 1 : 0;
+            assertTrue(response.isSuccessful() || response.code() == 404);
+        }
+        assertEquals(1, found);
+
+        mDemo.failWith(503);
+        assertEquals(503, service.user(1).execute().code());
+    }
+
+    @Test
+    public void canceledCallsLeaveTheBatch() throws Exception {
+        BatchingCallAdapterFactory batching = new BatchingCallAdapterFactory()
+                .window(100, TimeUnit.MILLISECONDS);
+        DemoService service = DemoServices.create(mServer.url("/").toString(), mClient, batching);
+        Results results = new Results();
+        service.user(1).enqueue(results);
+        Call<User> canceled = service.user(2);
+        canceled.enqueue(results);
+        canceled.cancel();
+
+        assertTrue(results.failures.poll(5, TimeUnit.SECONDS) instanceof IOException);
+        assertEquals(1, results.responses.poll(5, TimeUnit.SECONDS).body().getId());
+        assertEquals("/users?id=1", mServer.takeRequest().getPath());
+    }
+
+    @Test
+    public void failedBatchGivesEveryCallTheErrorBody() throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(503)
+                        .setHeader("Content-Type", "application/json")
+                        .setBody("{\"error\":\"busy\"}");
+            }
+        });
+        BatchingCallAdapterFactory batching = new BatchingCallAdapterFactory()
+                .window(50, TimeUnit.MILLISECONDS);
+        DemoService service = DemoServices.create(mServer.url("/").toString(), mClient, batching);
+        Results results = new Results();
+        service.user(1).enqueue(results);
+        service.user(2).enqueue(results);
+        for (int i = 0; i < 2; i++) {
+            Response<User> response = results.responses.poll(5, TimeUnit.SECONDS);
+            assertEquals(503, response.code());
+            assertEquals("application/json", response.errorBody().contentType().toString());
+            assertEquals("{\"error\":\"busy\"}", response.errorBody().string());
+        }
+        assertEquals(1, batching.batchCount());
+    }
+
+    @Test
+    public void batchIsCanceledOnceNoCallWaitsForIt() throws Exception {
+        mDemo.latency(1, TimeUnit.SECONDS);
+        BatchingCallAdapterFactory batching = new BatchingCallAdapterFactory()
+                .window(10, TimeUnit.MILLISECONDS);
+        final DemoService service
+                = DemoServices.create(mServer.url("/").toString(), mClient, batching);
+        final BlockingQueue<Call<List<User>>> loads = new LinkedBlockingQueue<>();
+        batching.loader(new BatchingCallAdapterFactory.Loader<User>() {
+            @Override
+            public Call<List<User>> load(List<String> keys) {
+                Call<List<User>> call = service.users(keys);
+                loads.add(call);
+                return call;
+            }
+
+            @Override
+            public String keyOf(User user) {
+                return String.valueOf(user.getId());
+            }
+        });
+
+        Results results = new Results();
+        Call<User> first = service.user(1);
+        Call<User> second = service.user(2);
+        first.enqueue(results);
+        second.enqueue(results);
+        Call<List<User>> load = loads.poll(5, TimeUnit.SECONDS);
+        mServer.takeRequest(5, TimeUnit.SECONDS);
+
+        first.cancel();
+        assertFalse(load.isCanceled());
+        second.cancel();
+        assertTrue(load.isCanceled());
+        assertTrue(results.failures.poll(5, TimeUnit.SECONDS) instanceof IOException);
+        assertTrue(results.failures.poll(5, TimeUnit.SECONDS) instanceof IOException);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void methodWithoutAKeySegmentIsRejected() {
+        Retrofit retrofit = new Retrofit.Builder()
+                .baseUrl(mServer.url("/"))
+                .addCallAdapterFactory(new BatchingCallAdapterFactory())
+                .build();
+        retrofit.create(KeylessService.class).users();
+    }
+
+    interface KeylessService {
+        @Batched
+        @GET("users")
+        Call<User> users();
+    }
+
+    private static class Results implements Callback<User> {
+        final BlockingQueue<Response<User>> responses = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> failures = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onResponse(Call<User> call, Response<User> response) {
+            responses.add(response);
+        }
+
+        @Override
+        public void onFailure(Call<User> call, Throwable t) {
+            failures.add(t);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package cc.lecent.demo.demo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import retrofit2.Retrofit;
+import retrofit2.http.GET;
+import retrofit2.http.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CachingCallAdapterFactoryTest {
+
+    private static class FakeClock implements CachingCallAdapterFactory.Clock {
+        volatile long now = 1000;
+
+        @Override
+        public long millis() {
+            return now;
+        }
+    }
+
+    private static class Recorder<T> extends Cached.Subscriber<T> {
+        final BlockingQueue<T> changes = new LinkedBlockingQueue<>();
+        final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onChanged(T value) {
+            changes.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            errors.add(t);
+        }
+    }
+
+    /** A service whose cache holds only a few users. */
+    interface TinyService {
+        @CachePolicy(maxBytes = 1000)
+        @GET("users/{id}")
+        Cached<User> user(@Path("id") long id);
+    }
+
+    private final FakeClock mClock = new FakeClock();
+    private final CachingCallAdapterFactory mCaching = new CachingCallAdapterFactory(mClock);
+    private DemoServer mServer;
+    private OkHttpClient mClient;
+    private DemoService mService;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new DemoServer().users(10);
+        mServer.start();
+        mClient = new OkHttpClient();
+        mService = DemoServices.create(mServer.url("/"), mClient,
+                new BatchingCallAdapterFactory(), mCaching);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mClient.dispatcher().executorService().shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void firstResultArrivesInTheBackgroundThenComesFromMemory() throws Exception {
+        Recorder<User> recorder = new Recorder<>();
+        mService.cachedUser(1).subscribe(recorder);
+        assertEquals(DemoServer.user(1), recorder.changes.poll(5, TimeUnit.SECONDS));
+
+        mClock.now += TimeUnit.SECONDS.toMillis(59);
+        Cached<User> again = mService.cachedUser(1);
+        assertEquals(DemoServer.user(1), again.get());
+        assertFalse(again.isStale());
+        assertEquals(1, mServer.server().getRequestCount());
+        assertEquals(1, mCaching.missCount());
+        assertEquals(1, mCaching.hitCount());
+    }
+
+    @Test
+    public void staleResultIsServedWhileItIsRefetched() throws Exception {
+        load(mService.cachedUser(1));
+        User renamed = new User(1, "renamed", null, null);
+        mServer.put(renamed).latency(200, TimeUnit.MILLISECONDS);
+        mClock.now += TimeUnit.SECONDS.toMillis(60);
+
+        Cached<User> cached = mService.cachedUser(1);
+        Recorder<User> recorder = new Recorder<>();
+        cached.subscribe(recorder);
+        assertEquals(DemoServer.user(1), cached.get());
+        assertEquals(DemoServer.user(1), recorder.changes.poll(5, TimeUnit.SECONDS));
+        assertEquals(renamed, recorder.changes.poll(5, TimeUnit.SECONDS));
+        assertEquals(renamed, cached.get());
+        assertEquals(1, mCaching.staleHitCount());
+    }
+
+    @Test
+    public void unchangedResultsAreNotRepublished() throws Exception {
+        Cached<User> cached = mService.cachedUser(1);
+        Recorder<User> recorder = new Recorder<>();
+        cached.subscribe(recorder);
+        assertEquals(DemoServer.user(1), recorder.changes.poll(5, TimeUnit.SECONDS));
+
+        mClock.now += TimeUnit.SECONDS.toMillis(60);
+        assertEquals(DemoServer.user(1), cached.get());
+        awaitRequests(2);
+        assertNull(recorder.changes.poll(200, TimeUnit.MILLISECONDS));
+        assertFalse(cached.isStale());
+        assertEquals(2, mCaching.fetchCount());
+        assertEquals(1, mCaching.changeCount());
+    }
+
+    @Test
+    public void ttlsArePerEndpoint() throws Exception {
+        Cached<User> user = mService.cachedUser(1);
+        Cached<List<User>> users = mService.cachedUsers(Arrays.asList("1", "2"));
+        load(user);
+        load(users);
+        mClock.now += TimeUnit.SECONDS.toMillis(20);
+
+        assertFalse(user.isStale());
+        assertTrue(users.isStale());
+        assertEquals(Arrays.asList(DemoServer.user(1), DemoServer.user(2)), users.get());
+    }
+
+    @Test
+    public void regionsStayWithinTheirMemoryBound() throws Exception {
+        TinyService tiny = new Retrofit.Builder()
+                .baseUrl(mServer.url("/"))
+                .client(mClient)
+                .addCallAdapterFactory(mCaching)
+                .addConverterFactory(UserConverterFactory.create())
+                .build()
+                .create(TinyService.class);
+        long perUser = CachingCallAdapterFactory.sizeOf(DemoServer.user(0));
+        for (int i = 0; i < 5; i++) {
+            load(tiny.user(i));
+        }
+
+        long kept = 1000 / perUser;
+        assertEquals(5 - kept, mCaching.evictionCount());
+        assertNull(tiny.user(0).get());
+        assertEquals(DemoServer.user(4), tiny.user(4).get());
+    }
+
+    @Test
+    public void failedFetchKeepsTheCachedResult() throws Exception {
+        Cached<User> cached = mService.cachedUser(1);
+        load(cached);
+        mServer.failWith(503);
+        mClock.now += TimeUnit.SECONDS.toMillis(60);
+
+        Recorder<User> recorder = new Recorder<>();
+        cached.subscribe(recorder);
+        cached.refresh();
+        assertTrue(recorder.errors.poll(5, TimeUnit.SECONDS).getMessage().contains("503"));
+        assertEquals(DemoServer.user(1), cached.get());
+        assertEquals(DemoServer.user(1), recorder.changes.poll());
+        assertNull(recorder.changes.poll());
+    }
+
+    @Test
+    public void unsubscribedSubscribersHearNothing() throws Exception {
+        Cached<User> cached = mService.cachedUser(1);
+        load(cached);
+        Recorder<User> recorder = new Recorder<>();
+        cached.subscribe(recorder).unsubscribe();
+        recorder.changes.clear();
+
+        mServer.put(new User(1, "renamed", null, null));
+        cached.refresh();
+        awaitRequests(2);
+        assertNull(recorder.changes.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void lastUnsubscribeForgetsTheKey() throws Exception {
+        Cached<User> cached = mService.cachedUser(1);
+        Cached.Subscription first = cached.subscribe(new Recorder<User>());
+        Cached.Subscription second = cached.subscribe(new Recorder<User>());
+        assertEquals(1, cached.region().subscribedKeys());
+
+        first.unsubscribe();
+        assertEquals(1, cached.region().subscribedKeys());
+        second.unsubscribe();
+        second.unsubscribe();
+        assertEquals(0, cached.region().subscribedKeys());
+    }
+
+    @Test
+    public void subscribersAreCalledOnTheCallbackExecutor() throws Exception {
+        final BlockingQueue<Runnable> posted = new LinkedBlockingQueue<>();
+        TinyService tiny = new Retrofit.Builder()
+                .baseUrl(mServer.url("/"))
+                .client(mClient)
+                .callbackExecutor(new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        posted.add(command);
+                    }
+                })
+                .addCallAdapterFactory(mCaching)
+                .addConverterFactory(UserConverterFactory.create())
+                .build()
+                .create(TinyService.class);
+        Cached<User> cached = tiny.user(1);
+        Recorder<User> first = new Recorder<>();
+        cached.subscribe(first);
+        posted.poll(5, TimeUnit.SECONDS).run();
+        assertEquals(DemoServer.user(1), first.changes.poll());
+
+        // The cached result is posted too, not handed over on the subscribing thread.
+        Recorder<User> second = new Recorder<>();
+        cached.subscribe(second);
+        assertNull(second.changes.poll());
+        posted.poll(5, TimeUnit.SECONDS).run();
+        assertEquals(DemoServer.user(1), second.changes.poll());
+
+        Recorder<User> gone = new Recorder<>();
+        cached.subscribe(gone).unsubscribe();
+        posted.poll(5, TimeUnit.SECONDS).run();
+        assertNull(gone.changes.poll());
+    }
+
+    private static <T> T load(Cached<T> cached) throws InterruptedException {
+        Recorder<T> recorder = new Recorder<>();
+        Cached.Subscription subscription = cached.subscribe(recorder);
+        T value = recorder.changes.poll(5, TimeUnit.SECONDS);
+        subscription.unsubscribe();
+        return value;
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mServer.server().getRequestCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        // Let the response be stored.
+        Thread.sleep(50);
+    }
+}
@@ -0,0 +1,112 @@
+package cc.lecent.demo.demo;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import okio.Buffer;
+import okio.ByteString;
+import retrofit2.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UserBinaryTest {
+
+    @Test
+    public void roundTripsUsers() throws Exception {
+        List<User> users = Arrays.asList(
+                new User(0, "", null, null),
+                new User(-1, "中文 \n", "e@x.com", "http://x/1.png"),
+                new User(Long.MAX_VALUE, repeat('a', 300), null, "b"));
+        Buffer buffer = new Buffer();
+        UserBinary.writeUsers(buffer, users);
+        assertEquals(users, UserBinary.readUsers(buffer));
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void skipsFieldsAppendedByNewerServers() throws Exception {
+        Buffer record = new Buffer();
+        UserBinary.writeUser(record, new User(300, "a", null, "c"));
+        // Bump the length and append a field this reader doesn't know.
+        long length = record.readByte();
+        record.writeUtf8("new");
+        Buffer list = new Buffer().writeByte(2).writeByte((int) length + 3);
+        list.writeAll(record);
+        UserBinary.writeUser(list, new User(1, null, null, null));
+
+        assertEquals(Arrays.asList(new User(300, "a", null, "c"), new User(1, null, null, null)),
+                UserBinary.readUsers(list));
+    }
+
+    @Test
+    public void rejectsTruncatedAndCorruptRecords() throws Exception {
+        Buffer record = new Buffer();
+        UserBinary.writeUser(record, new User(1, "name", null, null));
+        ByteString bytes = record.readByteString();
+        ByteString[] bad = {
+                bytes.substring(0, bytes.size() - 1),
+                // Claims a name longer than the record.
+                new Buffer().writeByte(3).writeByte(1).writeByte(9).writeUtf8("x").readByteString(),
+                ByteString.decodeHex("ffffffffffffffffffffff"),
+        };
+        for (ByteString corrupt : bad) {
+            try {
+                UserBinary.readUser(new Buffer().write(corrupt));
+                fail(corrupt.hex());
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void binaryIsSmallerThanJson() throws Exception {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            users.add(DemoServer.user(100000 + i));
+        }
+        Buffer json = new Buffer();
+        UserJson.writeUsers(json, users);
+        Buffer binary = new Buffer();
+        UserBinary.writeUsers(binary, users);
+        assertTrue(binary.size() + " vs " + json.size(), binary.size() < json.size() * 3 / 4);
+    }
+
+    @Test
+    public void negotiatesBinaryAndFallsBackToJson() throws Exception {
+        DemoServer server = new DemoServer().users(10);
+        server.start();
+        OkHttpClient client = new OkHttpClient();
+        try {
+            DemoService service = DemoServices.create(server.url("/"), client);
+            List<String> ids = Arrays.asList("1", "2", "99");
+            List<User> expected = Arrays.asList(DemoServer.user(1), DemoServer.user(2));
+
+            Response<List<User>> binary = service.users(ids).execute();
+            assertEquals(expected, binary.body());
+            assertEquals(UserConverterFactory.BINARY.toString(),
+                    binary.headers().get("Content-Type"));
+
+            server.binary(false);
+            Response<List<User>> json = service.users(ids).execute();
+            assertEquals(expected, json.body());
+            assertEquals(UserConverterFactory.JSON.toString(), json.headers().get("Content-Type"));
+            assertEquals(DemoServer.user(3), service.user(3).execute().body());
+        } finally {
+            client.dispatcher().executorService().shutdown();
+            server.shutdown();
+        }
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
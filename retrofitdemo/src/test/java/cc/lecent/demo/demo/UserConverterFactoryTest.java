@@ -0,0 +1,109 @@
+package cc.lecent.demo.demo;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.ResponseBody;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UserConverterFactoryTest {
+    private static final Type USERS = new TypeToken<List<User>>() {
+    }.getType();
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    private final Retrofit mRetrofit = new Retrofit.Builder()
+            .baseUrl("http://localhost/")
+            .addConverterFactory(UserConverterFactory.create())
+            .addConverterFactory(GsonConverterFactory.create())
+            .build();
+
+    @Test
+    public void readsUsersSkippingUnknownFields() throws Exception {
+        List<User> users = convert(USERS, "[ {\"id\": 1, \"name\": \"a\\\"b\\u00e9\\n\","
+                + " \"tags\": [\"x\", {\"y\": [1, 2.5e3, true]}], \"email\": null},\n"
+                + "{\"extra\":{}, \"avatar\":\"http://x/1.png\",\"id\":2,\"profile\":null} ]");
+        assertEquals(Arrays.asList(
+                new User(1, "a\"bé\n", null, null),
+                new User(2, null, null, "http://x/1.png")), users);
+        assertEquals(Collections.emptyList(), convert(USERS, " [ ] "));
+    }
+
+    @Test
+    public void writesWhatItReads() throws Exception {
+        User user = new User(Long.MAX_VALUE, "中文 \"quoted\" \\ \t", "e@x.com", null);
+        Buffer buffer = new Buffer();
+        UserJson.writeUsers(buffer, Arrays.asList(user, user));
+        String json = buffer.readUtf8();
+        assertEquals(Arrays.asList(user, user), convert(USERS, json));
+        Converter<ResponseBody, ?> gson = GsonConverterFactory.create()
+                .responseBodyConverter(USERS, new Annotation[0], mRetrofit);
+        assertEquals(Arrays.asList(user, user), gson.convert(ResponseBody.create(JSON, json)));
+    }
+
+    @Test
+    public void rejectsMalformedJson() throws Exception {
+        String[] malformed = {"[{\"id\":1]", "{\"name\":\"unterminated", "{\"id\" 1}", ""};
+        for (String json : malformed) {
+            try {
+                convert(User.class, json);
+                fail(json);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void leavesOtherTypesToTheNextFactory() {
+        assertEquals(null, UserConverterFactory.create().responseBodyConverter(
+                String.class, new Annotation[0], mRetrofit));
+        assertEquals(null, UserConverterFactory.create().responseBodyConverter(
+                new TypeToken<List<String>>() {
+                }.getType(), new Annotation[0], mRetrofit));
+    }
+
+    @Test
+    public void decodesServiceResponses() throws Exception {
+        MockWebServer server = new MockWebServer();
+        server.start();
+        OkHttpClient client = new OkHttpClient();
+        try {
+            DemoService service = DemoServices.create(server.url("/").toString(), client);
+            server.enqueue(new MockResponse().setBody(
+                    "[{\"id\":1,\"name\":\"one\"},{\"id\":2,\"name\":\"two\"}]"));
+            assertEquals(Arrays.asList(
+                    new User(1, "one", null, null), new User(2, "two", null, null)),
+                    service.users(Arrays.asList("1", "2")).execute().body());
+            server.enqueue(new MockResponse().setBody("[{\"id\":3,\"name\":\"three\"}]"));
+            assertEquals("three", service.user(3).execute().body().getName());
+        } finally {
+            client.dispatcher().executorService().shutdown();
+            server.shutdown();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T convert(Type type, String json) throws IOException {
+        Converter<ResponseBody, T> converter = (Converter<ResponseBody, T>)
+                mRetrofit.responseBodyConverter(type, new Annotation[0]);
+        return converter.convert(ResponseBody.create(JSON, json));
+    }
+}
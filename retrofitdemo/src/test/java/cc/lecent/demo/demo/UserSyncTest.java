@@ -0,0 +1,154 @@
+package cc.lecent.demo.demo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UserSyncTest {
+    private DemoServer mServer;
+    private OkHttpClient mClient;
+    private DemoService mService;
+    private final AtomicLong mBytesRead = new AtomicLong();
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new DemoServer().users(100);
+        mServer.start();
+        mClient = new OkHttpClient.Builder()
+                .addNetworkInterceptor(new Interceptor() {
+                    @Override
+                    public okhttp3.Response intercept(Chain chain) throws IOException {
+                        okhttp3.Response response = chain.proceed(chain.request());
+                        mBytesRead.addAndGet(response.body().contentLength());
+                        return response;
+                    }
+                })
+                .build();
+        mService = DemoServices.create(mServer.url("/"), mClient);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mClient.dispatcher().executorService().shutdown();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void firstSyncTakesEverythingThenOnlyChanges() throws Exception {
+        UserSync sync = new UserSync(mService);
+        UserSync.Result first = sync.sync();
+        assertTrue(first.reset);
+        assertEquals(100, first.inserted);
+        assertEquals(mServer.token(), sync.token());
+
+        User renamed = new User(5, "renamed", null, null);
+        mServer.put(DemoServer.user(100)).put(renamed).delete(7).put(DemoServer.user(8));
+        UserSync.Result second = sync.sync();
+        assertFalse(second.reset);
+        assertEquals(1, second.inserted);
+        assertEquals(1, second.updated);
+        assertEquals(1, second.deleted);
+        assertEquals(1, second.unchanged);
+        assertEquals(renamed, sync.get(5));
+        assertNull(sync.get(7));
+        assertEquals(mService.allUsers().execute().body().size(), sync.size());
+
+        assertFalse(sync.sync().changed());
+    }
+
+    @Test
+    public void updatesKeepTheirPlaceAndUnknownDeletesAreIgnored() {
+        UserSync sync = new UserSync(mService);
+        sync.apply(new UserChanges("v1", true,
+                Arrays.asList(DemoServer.user(1), DemoServer.user(2), DemoServer.user(3)), null));
+        User renamed = new User(1, "renamed", null, null);
+        UserSync.Result result = sync.apply(new UserChanges("v2", false,
+                Arrays.asList(renamed, DemoServer.user(4)), Arrays.asList(2L, 99L)));
+
+        assertEquals(1, result.deleted);
+        assertEquals(Arrays.asList(renamed, DemoServer.user(3), DemoServer.user(4)), sync.users());
+        assertEquals("v2", sync.token());
+    }
+
+    @Test
+    public void unknownTokenGetsEverythingAgain() throws Exception {
+        UserSync sync = new UserSync(mService);
+        sync.apply(new UserChanges("v999999", false,
+                Arrays.asList(new User(500, null, null, null)), null));
+        UserSync.Result result = sync.sync();
+        assertTrue(result.reset);
+        assertEquals(100, sync.size());
+        assertNull(sync.get(500));
+    }
+
+    @Test
+    public void syncsOverJsonToo() throws Exception {
+        mServer.binary(false);
+        UserSync sync = new UserSync(mService);
+        sync.sync();
+        mServer.delete(1).put(new User(2, "two", "two@example.com", null));
+        UserSync.Result result = sync.sync();
+        assertEquals(1, result.deleted);
+        assertEquals(1, result.updated);
+        assertEquals("two", sync.get(2).getName());
+    }
+
+    @Test
+    public void changesRoundTripInBothFormats() throws Exception {
+        UserChanges changes = new UserChanges("v42", false,
+                Arrays.asList(DemoServer.user(1), new User(2, null, "e", null)),
+                Arrays.asList(3L, 4L));
+        Buffer json = new Buffer();
+        UserJson.writeChanges(json, changes);
+        Buffer binary = new Buffer();
+        UserBinary.writeChanges(binary, changes);
+        for (UserChanges read : new UserChanges[]{
+                UserJson.readChanges(json), UserBinary.readChanges(binary)}) {
+            assertEquals("v42", read.getToken());
+            assertFalse(read.isReset());
+            assertEquals(changes.getChanged(), read.getChanged());
+            assertEquals(changes.getDeleted(), read.getDeleted());
+        }
+    }
+
+    @Test
+    public void deltaSyncReadsAFractionOfAFullRefresh() throws Exception {
+        mServer.users(10000);
+        UserSync sync = new UserSync(mService);
+        sync.sync();
+        for (int i = 0; i < 100; i++) {
+            mServer.put(new User(i * 97, "changed", null, null));
+        }
+
+        mBytesRead.set(0);
+        assertEquals(100, sync.sync().updated);
+        long deltaBytes = mBytesRead.get();
+        mBytesRead.set(0);
+        assertEquals(fullRefresh().size(), sync.size());
+        long fullBytes = mBytesRead.get();
+        assertTrue(deltaBytes + " vs " + fullBytes, deltaBytes * 10 < fullBytes);
+    }
+
+    private Map<Long, User> fullRefresh() throws IOException {
+        Map<Long, User> map = new LinkedHashMap<>();
+        for (User user : mService.allUsers().execute().body()) {
+            map.put(user.getId(), user);
+        }
+        return map;
+    }
+}